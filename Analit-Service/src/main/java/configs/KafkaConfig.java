@@ -1,18 +1,28 @@
 package configs;
 
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.LongDeserializer;
 import org.apache.kafka.common.serialization.LongSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.NonTransientDataAccessException;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.config.KafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
 import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.util.backoff.FixedBackOff;
 import webmarket.core.ProductDto;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -28,6 +38,51 @@ public class KafkaConfig {
     @Value("${spring.kafka.bootstrap-servers}")
     private String server;
 
+    /**
+     * The number of consumers of the listener, each reads its own partitions.
+     */
+    @Value("${utils.analytics.listener.concurrency}")
+    private int concurrency;
+
+    /**
+     * The maximum number of messages in one batch of the batch listener.
+     */
+    @Value("${utils.analytics.listener.max-poll-records}")
+    private int maxPollRecords;
+
+    /**
+     * How long the broker collects messages for one batch when there are few of them.
+     */
+    @Value("${utils.analytics.listener.fetch-max-wait-ms}")
+    private int fetchMaxWaitMs;
+
+    /**
+     * The size of messages in bytes the broker waits for before answering the poll of the batch listener.
+     */
+    @Value("${utils.analytics.listener.fetch-min-bytes}")
+    private int fetchMinBytes;
+
+    /**
+     * How long the listener waits before reading a failed message again.
+     */
+    @Value("${utils.analytics.listener.retry-interval}")
+    private Duration retryInterval;
+
+    /**
+     * How many times a failed message is read again before it is sent to the dead letter topic.
+     */
+    @Value("${utils.analytics.listener.max-retries}")
+    private long maxRetries;
+
+    /**
+     * The topic of the messages the listeners could not handle, created on start if it does not exist.
+     * @return NewTopic
+     */
+    @Bean
+    public NewTopic productAnalitDeadLetterTopic() {
+        return TopicBuilder.name("ProductAnalit.DLT").partitions(1).build();
+    }
+
     /**
      * Map of producer settings properties.
      * @return
@@ -61,7 +116,7 @@ public class KafkaConfig {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, server);
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
-        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, LongDeserializer.class);
         props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         return props;
@@ -77,7 +132,8 @@ public class KafkaConfig {
     }
 
     /**
-     * Listener's factory.
+     * Listener's factory. The messages are keyed by the product id, so the messages of one product are read
+     * by one consumer in order, while the partitions are read in parallel.
      * @return
      */
     @Bean
@@ -85,9 +141,48 @@ public class KafkaConfig {
         ConcurrentKafkaListenerContainerFactory<Long, ProductDto> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(concurrency);
+        factory.setCommonErrorHandler(errorHandler());
+        return factory;
+    }
+
+    /**
+     * Factory of the batch listener. A poll waits for up to fetch-max-wait-ms to collect a larger batch,
+     * the offsets of the batch are committed after the listener returns. If the listener names the failed message,
+     * the messages before it are committed and the rest of the batch is read again.
+     * @return
+     */
+    @Bean
+    public KafkaListenerContainerFactory<?> batchKafkaListenerContainerFactory(){
+        Map<String, Object> props = new HashMap<>(consumerConfig());
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, fetchMaxWaitMs);
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, fetchMinBytes);
+        ConcurrentKafkaListenerContainerFactory<Long, ProductDto> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        factory.setConcurrency(concurrency);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+        factory.setCommonErrorHandler(errorHandler());
         return factory;
     }
 
+    /**
+     * Handler of the failures of the listeners. A failed message is read again a limited number of times
+     * and then sent to the dead letter topic, so one message that can never be written does not stop
+     * its partition. A message rejected by the database as invalid is sent there at once.
+     * @return DefaultErrorHandler
+     */
+    @Bean
+    public DefaultErrorHandler errorHandler() {
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(kafkaTemplate(),
+                (record, e) -> new TopicPartition(record.topic() + ".DLT", -1));
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler(recoverer, new FixedBackOff(retryInterval.toMillis(), maxRetries));
+        errorHandler.addNotRetryableExceptions(NonTransientDataAccessException.class);
+        return errorHandler;
+    }
+
     /**
      * Producer's factory.
      * @return
@@ -1,20 +1,32 @@
 package controllers;
 
+import exceptions.InvalidRangeException;
 import services.AnalitService;
+import services.PopularityWindows;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.NonTransientDataAccessException;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import webmarket.analitic.StatisticDto;
 import webmarket.core.ProductDto;
 
+import java.time.Instant;
 import java.util.List;
 
 /**
@@ -31,6 +43,17 @@ public class AnalitController {
      */
     private final AnalitService analitService;
 
+    /**
+     * Popularity of products by time windows.
+     */
+    private final PopularityWindows popularityWindows;
+
+    /**
+     * The maximum number of products in one request of the popular products for a period.
+     */
+    @Value("${utils.analytics.top.max-limit}")
+    private int maxLimit;
+
     @GetMapping
     @Operation(
             summary = "Запрос на получение списка товаров в аналитике",
@@ -49,13 +72,78 @@ public class AnalitController {
         return listStatistic;
     }
 
+    @GetMapping("/category/{category}")
+    @Operation(
+            summary = "Запрос на получение списка популярных товаров категории",
+            responses = {
+                    @ApiResponse(
+                            description = "Успешный ответ", responseCode = "200",
+                            content = @Content(
+                                    mediaType = "application/json",
+                                    array = @ArraySchema(schema = @Schema(implementation = StatisticDto.class))
+                            )
+                    )
+            }
+    )
+    public List<StatisticDto> categoryData(@Parameter(description = "Название категории", required = true) @PathVariable String category){
+        return analitService.getData(category);
+    }
+
+    @GetMapping("/top")
+    @Operation(
+            summary = "Запрос на получение списка популярных товаров за период",
+            responses = {
+                    @ApiResponse(
+                            description = "Успешный ответ", responseCode = "200",
+                            content = @Content(
+                                    mediaType = "application/json",
+                                    array = @ArraySchema(schema = @Schema(implementation = StatisticDto.class))
+                            )
+                    )
+            }
+    )
+    public List<StatisticDto> topData(@Parameter(description = "Начало периода", required = true, example = "2022-03-01T10:00:00Z") @RequestParam Instant from,
+                                      @Parameter(description = "Конец периода, по умолчанию текущий момент") @RequestParam(required = false) Instant to,
+                                      @Parameter(description = "Количество товаров") @RequestParam(defaultValue = "${utils.analytics.top.size}") int limit){
+        if (limit <= 0 || limit > maxLimit) {
+            throw new InvalidRangeException("The number of products must be from 1 to " + maxLimit);
+        }
+        return popularityWindows.top(from, to != null ? to : Instant.now(), limit);
+    }
+
     /**
      * The listener takes the incoming product object from the queue and saves it
      * through the analytics service in your repository.
      * @param product
+     * @param timestamp the time of the message
      */
-    @KafkaListener(topics = "ProductAnalit")
-    public void msgListener(ProductDto product){
-        analitService.register(product);
+    @KafkaListener(id = "productAnalit", topics = "ProductAnalit", autoStartup = "#{!${utils.analytics.listener.batch}}")
+    public void msgListener(ProductDto product, @Header(KafkaHeaders.RECEIVED_TIMESTAMP) long timestamp){
+        analitService.register(product, timestamp);
+    }
+
+    /**
+     * The listener takes the products of one poll from the queue at once and saves them through the analytics service
+     * in one write. The offsets are committed only after the write succeeds. If the database rejects the batch,
+     * the products are saved one by one to find the failed one: the products before it stay saved
+     * and the failed product is reported to the error handler, which reads the rest of the batch again.
+     * @param products
+     * @param timestamps the times of the messages
+     */
+    @KafkaListener(id = "productAnalitBatch", topics = "ProductAnalit", autoStartup = "${utils.analytics.listener.batch}",
+            containerFactory = "batchKafkaListenerContainerFactory")
+    public void batchListener(List<ProductDto> products, @Header(KafkaHeaders.RECEIVED_TIMESTAMP) List<Long> timestamps){
+        try {
+            analitService.registerAll(products, timestamps);
+        } catch (NonTransientDataAccessException e) {
+            for (int i = 0; i < products.size(); i++) {
+                try {
+                    analitService.register(products.get(i), timestamps.get(i));
+                } catch (DataAccessException productFailure) {
+                    throw new BatchListenerFailedException("The visit of the product is not saved: " + products.get(i).getId(),
+                            productFailure, i);
+                }
+            }
+        }
     }
 }
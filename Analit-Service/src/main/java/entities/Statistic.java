@@ -6,7 +6,9 @@ import lombok.NoArgsConstructor;
 import javax.persistence.*;
 
 /**
- * The Statistics entity stores the name of the product and the number of its additions by users to the cart.
+ * The Statistics entity stores the product, its name and the number of its additions by users to the cart.
+ * The statistics are keyed by the product id, the name is kept for display and follows the product's renames,
+ * the category of the product groups the statistics by category.
  */
 @Data
 @Entity
@@ -18,9 +20,15 @@ public class Statistic {
     @Column(name = "id")
     private Integer id;
 
+    @Column(name = "product_id", unique = true)
+    private Long productId;
+
     @Column(name = "name_products")
     private String nameProducts;
 
+    @Column(name = "category")
+    private String category;
+
     @Column(name = "count_visits")
     private Integer countVisits;
 
@@ -28,4 +36,10 @@ public class Statistic {
         this.nameProducts = nameProducts;
         this.countVisits = countVisits;
     }
+
+    public Statistic(Long productId, String nameProducts, Integer countVisits) {
+        this.productId = productId;
+        this.nameProducts = nameProducts;
+        this.countVisits = countVisits;
+    }
 }
@@ -7,6 +7,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.client.HttpServerErrorException;
+import webmarket.exceptions.AppError;
 import webmarket.exceptions.BadConnectionServiceException;
 
 import java.net.ConnectException;
@@ -39,4 +40,15 @@ public class GlobalExceptionHandler {
         log.error(e.getMessage(), e);
         return new ResponseEntity<>(new BadConnectionServiceException("The service is not working"), HttpStatus.SERVICE_UNAVAILABLE);
     }
+
+    /**
+     * Exception interceptor InvalidRangeException.
+     * @param e
+     * @return ResponseEntity
+     */
+    @ExceptionHandler
+    public ResponseEntity<AppError> catchInvalidRangeException(InvalidRangeException e) {
+        log.error(e.getMessage(), e);
+        return new ResponseEntity<>(new AppError(HttpStatus.BAD_REQUEST.value(), e.getMessage()), HttpStatus.BAD_REQUEST);
+    }
 }
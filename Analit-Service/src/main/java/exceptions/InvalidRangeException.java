@@ -0,0 +1,10 @@
+package exceptions;
+
+/**
+ * An exception is thrown if the requested range of time cannot be answered.
+ */
+public class InvalidRangeException extends RuntimeException {
+    public InvalidRangeException(String message) {
+        super(message);
+    }
+}
@@ -1,13 +1,11 @@
 package repositories;
 
 import entities.Statistic;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
-import java.util.Optional;
-
 /**
  * A repository for storing statistics on the most popular products (added to the cart by customers.)
  */
@@ -15,24 +13,16 @@ import java.util.Optional;
 public interface AnalitRepository extends CrudRepository<Statistic, Integer> {
 
     /**
-     * Request to receive all products.
-     * @return list of products.
-     */
-    @Query("select s from Statistic s")
-    List<Statistic> getAll ();
-
-    /**
-     * Request to get product statistics by product name.
+     * Adds visits to the product in one atomic statement, the product met for the first time is inserted.
+     * The name and the category of the product are updated, so a renamed product keeps its statistics.
+     * @param productId
      * @param nameProduct
-     * @return product by matching the name.
-     */
-    @Query("select s from Statistic s where s.nameProducts = :nameProduct")
-    Optional<Statistic> findProductByName(String nameProduct);
-
-    /**
-     * Selects the last 10 product records sorted by demand.
-     * @return List
+     * @param category the category of the product, null keeps the known one
+     * @param delta the number of new visits
      */
-    @Query(value = "select * from statistic order by count_visits desc limit 10", nativeQuery = true)
-    List<Statistic> findLastTen();
+    @Modifying
+    @Query(value = "insert into statistic (product_id, name_products, category, count_visits) values (:productId, :nameProduct, :category, :delta) " +
+            "on duplicate key update count_visits = count_visits + :delta, name_products = :nameProduct, " +
+            "category = coalesce(:category, category)", nativeQuery = true)
+    void addVisits(Long productId, String nameProduct, String category, int delta);
 }
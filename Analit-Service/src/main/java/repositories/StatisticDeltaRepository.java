@@ -0,0 +1,109 @@
+package repositories;
+
+import entities.Statistic;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Writes the changes of the statistics of many products at once. The changes are sent as a JDBC batch
+ * of atomic upserts, which the driver rewrites into one multi-row statement, so one batch of messages costs
+ * a single round trip to the database regardless of its size.
+ */
+@Repository
+@RequiredArgsConstructor
+public class StatisticDeltaRepository {
+
+    /**
+     * Reads the row of statistics of a product.
+     */
+    private static final RowMapper<Statistic> PRODUCT_ROW = (rs, i) -> {
+        Statistic statistic = new Statistic(rs.getLong("product_id"), rs.getString("name_products"), rs.getInt("count_visits"));
+        statistic.setCategory(rs.getString("category"));
+        return statistic;
+    };
+
+    /**
+     * Template for requests to the database.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Adds the numbers of visits to the products, the products met for the first time are inserted.
+     * @param deltas the number of new visits by product id
+     * @param names the names of the products by product id
+     * @param categories the categories of the products by product id, a missing category keeps the known one
+     */
+    public void addVisits(Map<Long, Integer> deltas, Map<Long, String> names, Map<Long, String> categories) {
+        List<Object[]> rows = new ArrayList<>(deltas.size());
+        deltas.forEach((productId, delta) -> rows.add(new Object[]{productId, names.get(productId), categories.get(productId), delta}));
+        jdbcTemplate.batchUpdate("insert into statistic (product_id, name_products, category, count_visits) values (?, ?, ?, ?) " +
+                "on duplicate key update count_visits = count_visits + values(count_visits), name_products = values(name_products), " +
+                "category = coalesce(values(category), category)", rows);
+    }
+
+    /**
+     * Passes the statistics of all the products to the action row by row.
+     * @param action
+     */
+    public void forEachProduct(Consumer<Statistic> action) {
+        jdbcTemplate.query("select product_id, name_products, category, count_visits from statistic where product_id is not null",
+                (RowCallbackHandler) rs -> action.accept(PRODUCT_ROW.mapRow(rs, rs.getRow())));
+    }
+
+    /**
+     * Returns the statistics of the most popular products.
+     * @param limit
+     * @return List
+     */
+    public List<Statistic> findTop(int limit) {
+        return jdbcTemplate.query("select product_id, name_products, category, count_visits from statistic " +
+                "where product_id is not null order by count_visits desc limit ?", PRODUCT_ROW, limit);
+    }
+
+    /**
+     * Returns the statistics of the most popular products of the category.
+     * @param category
+     * @param limit
+     * @return List
+     */
+    public List<Statistic> findTopOfCategory(String category, int limit) {
+        return jdbcTemplate.query("select product_id, name_products, category, count_visits from statistic " +
+                "where category = ? and product_id is not null order by count_visits desc limit ?", PRODUCT_ROW, category, limit);
+    }
+
+    /**
+     * Returns the rows of statistics not keyed by the product id yet, in the order of their ids.
+     * @param afterId the id of the last row of the previous batch
+     * @param limit
+     * @return the rows of the batch
+     */
+    public List<Statistic> findWithoutProduct(int afterId, int limit) {
+        return jdbcTemplate.query("select id, name_products, count_visits from statistic where product_id is null and id > ? order by id limit ?",
+                (rs, i) -> {
+                    Statistic statistic = new Statistic(rs.getString("name_products"), rs.getInt("count_visits"));
+                    statistic.setId(rs.getInt("id"));
+                    return statistic;
+                }, afterId, limit);
+    }
+
+    /**
+     * Moves the visits of a row keyed by name to the row of the product: the visits are added to the row
+     * of the product, which is inserted if the product has none yet, and the row keyed by name is removed.
+     * @param statistic the row keyed by name
+     * @param productId
+     */
+    public void moveToProduct(Statistic statistic, Long productId) {
+        jdbcTemplate.update("insert into statistic (product_id, name_products, count_visits) values (?, ?, ?) " +
+                "on duplicate key update count_visits = count_visits + values(count_visits)",
+                productId, statistic.getNameProducts(), statistic.getCountVisits());
+        jdbcTemplate.update("delete from statistic where id = ?", statistic.getId());
+    }
+}
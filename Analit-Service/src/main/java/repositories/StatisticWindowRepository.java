@@ -0,0 +1,234 @@
+package repositories;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import webmarket.analitic.StatisticDto;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the visits of the products by time windows. The visits are counted in minute windows, the minutes
+ * are rolled up into hours and the hours into days, so the visits of a long range are read from a few rows
+ * of the coarse windows. All the windows are in UTC.
+ */
+@Repository
+@RequiredArgsConstructor
+public class StatisticWindowRepository {
+
+    /**
+     * Time windows of the statistics.
+     */
+    public enum Window {
+        MINUTE("statistic_minute", ChronoUnit.MINUTES, "bucket"),
+        HOUR("statistic_hour", ChronoUnit.HOURS, "date_format(bucket, '%Y-%m-%d %H:00:00')"),
+        DAY("statistic_day", ChronoUnit.DAYS, "date(bucket)");
+
+        /**
+         * The table of the window.
+         */
+        private final String table;
+
+        /**
+         * The length of the window.
+         */
+        private final ChronoUnit unit;
+
+        /**
+         * The start of the window of the row of a finer window in SQL.
+         */
+        private final String bucket;
+
+        Window(String table, ChronoUnit unit, String bucket) {
+            this.table = table;
+            this.unit = unit;
+            this.bucket = bucket;
+        }
+
+        /**
+         * The start of the window the time falls into.
+         * @param time
+         * @return LocalDateTime
+         */
+        public LocalDateTime floor(LocalDateTime time) {
+            return time.truncatedTo(unit);
+        }
+
+        /**
+         * The start of the first window that begins at the time or after it.
+         * @param time
+         * @return LocalDateTime
+         */
+        public LocalDateTime ceil(LocalDateTime time) {
+            LocalDateTime floor = floor(time);
+            return floor.equals(time) ? time : floor.plus(1, unit);
+        }
+    }
+
+    /**
+     * A range of time read from one window.
+     */
+    public static class Range {
+
+        private final Window window;
+
+        private final LocalDateTime from;
+
+        private final LocalDateTime to;
+
+        public Range(Window window, LocalDateTime from, LocalDateTime to) {
+            this.window = window;
+            this.from = from;
+            this.to = to;
+        }
+
+        public Window getWindow() {
+            return window;
+        }
+
+        public LocalDateTime getFrom() {
+            return from;
+        }
+
+        public LocalDateTime getTo() {
+            return to;
+        }
+    }
+
+    /**
+     * Template for requests to the database.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Adds the visits to the minute windows of the products. The oldest minute is marked as written,
+     * so it is rolled up again if the hours were already rolled up past it.
+     * @param deltas the number of new visits by the start of the minute and product id
+     */
+    public void addVisits(Map<LocalDateTime, Map<Long, Integer>> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>();
+        deltas.forEach((minute, products) -> products.forEach((productId, delta) -> rows.add(new Object[]{minute, productId, delta})));
+        jdbcTemplate.batchUpdate("insert into statistic_minute (bucket, product_id, visits) values (?, ?, ?) " +
+                "on duplicate key update visits = visits + values(visits)", rows);
+        markWritten(Window.HOUR, Collections.min(deltas.keySet()));
+    }
+
+    /**
+     * Sums up the rows of the finer window into the coarser window for the range. The rows of the coarser
+     * window are replaced, so the range can be rolled up again when late visits arrive.
+     * @param source the finer window
+     * @param target the coarser window
+     * @param from the start of the range, the start of a window of the target
+     * @param to the end of the range, the start of a window of the target
+     */
+    public void rollup(Window source, Window target, LocalDateTime from, LocalDateTime to) {
+        jdbcTemplate.update("insert into " + target.table + " (bucket, product_id, visits) " +
+                "select " + target.bucket + ", product_id, sum(visits) from " + source.table + " " +
+                "where bucket >= ? and bucket < ? group by " + target.bucket + ", product_id " +
+                "on duplicate key update visits = values(visits)", from, to);
+    }
+
+    /**
+     * Returns the end of the time rolled up into the window.
+     * @param window
+     * @return LocalDateTime, null if nothing was rolled up yet
+     */
+    public LocalDateTime findRolledUntil(Window window) {
+        List<LocalDateTime> rolledUntil = jdbcTemplate.query("select rolled_until from statistic_rollup where window_name = ?",
+                (rs, i) -> rs.getObject("rolled_until", LocalDateTime.class), window.name());
+        return rolledUntil.isEmpty() ? null : rolledUntil.get(0);
+    }
+
+    /**
+     * Moves the end of the time rolled up into the window forward, it never goes back.
+     * @param window
+     * @param rolledUntil
+     */
+    public void saveRolledUntil(Window window, LocalDateTime rolledUntil) {
+        jdbcTemplate.update("insert into statistic_rollup (window_name, rolled_until) values (?, ?) " +
+                "on duplicate key update rolled_until = greatest(rolled_until, values(rolled_until))", window.name(), rolledUntil);
+    }
+
+    /**
+     * Remembers that the rows of the finer window were written from the time, if the window is already
+     * rolled up past it, so the rollup sums them up again.
+     * @param window the window the rows are rolled up into
+     * @param from the oldest time written
+     */
+    public void markWritten(Window window, LocalDateTime from) {
+        jdbcTemplate.update("update statistic_rollup set written_from = least(coalesce(written_from, ?), ?) " +
+                "where window_name = ? and rolled_until > ?", from, from, window.name(), from);
+    }
+
+    /**
+     * Returns the oldest time written before the end of the time rolled up into the window.
+     * @param window
+     * @return LocalDateTime, null if nothing was written there since the last rollup
+     */
+    public LocalDateTime findWrittenFrom(Window window) {
+        List<LocalDateTime> writtenFrom = jdbcTemplate.query("select written_from from statistic_rollup where window_name = ?",
+                (rs, i) -> rs.getObject("written_from", LocalDateTime.class), window.name());
+        return writtenFrom.isEmpty() ? null : writtenFrom.get(0);
+    }
+
+    /**
+     * Returns and forgets the oldest time written before the end of the time rolled up into the window.
+     * The time is forgotten only if it was not moved back by a parallel write, the rows written after that
+     * mark the time again.
+     * @param window
+     * @return LocalDateTime, null if nothing was written there since the last rollup
+     */
+    public LocalDateTime takeWrittenFrom(Window window) {
+        while (true) {
+            LocalDateTime writtenFrom = findWrittenFrom(window);
+            if (writtenFrom == null || jdbcTemplate.update("update statistic_rollup set written_from = null " +
+                    "where window_name = ? and written_from = ?", window.name(), writtenFrom) > 0) {
+                return writtenFrom;
+            }
+        }
+    }
+
+    /**
+     * Removes a batch of the rows of the window older than the time.
+     * @param window
+     * @param before
+     * @param limit
+     * @return the number of rows removed
+     */
+    public int deleteBefore(Window window, LocalDateTime before, int limit) {
+        return jdbcTemplate.update("delete from " + window.table + " where bucket < ? limit ?", before, limit);
+    }
+
+    /**
+     * Returns the products with the most visits in the ranges.
+     * @param ranges the ranges of the windows, they do not overlap
+     * @param limit
+     * @return List
+     */
+    public List<StatisticDto> findTop(List<Range> ranges, int limit) {
+        if (ranges.isEmpty()) {
+            return List.of();
+        }
+        List<String> selects = new ArrayList<>(ranges.size());
+        List<Object> args = new ArrayList<>(ranges.size() * 2 + 1);
+        for (Range range : ranges) {
+            selects.add("select product_id, visits from " + range.window.table + " where bucket >= ? and bucket < ?");
+            args.add(range.from);
+            args.add(range.to);
+        }
+        args.add(limit);
+        return jdbcTemplate.query("select w.product_id, max(s.name_products) name_products, sum(w.visits) visits " +
+                        "from (" + String.join(" union all ", selects) + ") w " +
+                        "left join statistic s on s.product_id = w.product_id " +
+                        "group by w.product_id order by visits desc limit ?",
+                (rs, i) -> new StatisticDto(rs.getString("name_products"), rs.getInt("visits")), args.toArray());
+    }
+}
@@ -1,78 +1,128 @@
 package services;
 
-import entities.Statistic;
 import repositories.AnalitRepository;
+import repositories.StatisticDeltaRepository;
+import repositories.StatisticWindowRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import webmarket.analitic.StatisticDto;
 import webmarket.core.ProductDto;
 
-import javax.annotation.PostConstruct;
-import java.util.ArrayList;
+import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * The service registers in the repository the products that the user adds.
  * If the product type is already in the repository, then its statistical quantity simply increases.
- * The service polls the basket every 10 seconds and collects data from it.
+ * The most popular products are kept in memory and answered from there.
+ * @see TopProducts
  * @see AnalitRepository
- * @see RestTemplate
  */
 @Service
 @RequiredArgsConstructor
 public class AnalitService {
 
     /**
-     * The address of the bucket service.
+     * Statistics repository.
      */
-    @Value("${integrations.cart-service.url}")
-    private String cartServiceUrl;
+    private final AnalitRepository analitRepository;
 
     /**
-     * Statistics repository.
+     * Repository of batched changes of statistics.
      */
-    private final AnalitRepository analitRepository;
+    private final StatisticDeltaRepository statisticDeltaRepository;
 
     /**
-     * A list of products from the 10 positions most in demand by customers.
+     * Repository of the windows of statistics.
      */
-    private List<StatisticDto> listProduct;
+    private final StatisticWindowRepository statisticWindowRepository;
 
-    @PostConstruct
-    private void init(){
-        listProduct = new ArrayList<>();
-    }
+    /**
+     * The most popular products in memory.
+     */
+    private final TopProducts topProducts;
 
+    /**
+     * Returns the most popular products.
+     * @return List
+     */
     public List<StatisticDto> getData(){
-        return listProduct;
+        return topProducts.top();
     }
 
     /**
-     * Registers the list of products received from the shopping cart service in the database.
+     * Returns the most popular products of the category.
+     * @param category
+     * @return List
+     */
+    public List<StatisticDto> getData(String category){
+        return topProducts.top(category);
+    }
+
+    /**
+     * Registers the product received from the shopping cart service in the database. The counter is increased
+     * by the database itself, so parallel consumers do not lose visits or create a second row of the product.
+     * The visit is also counted in the minute window of its time.
      * @param product
+     * @param timestamp the time of the visit in milliseconds
      */
     @Transactional
-    public void register(ProductDto product){
-        Statistic statistic = analitRepository.findProductByName(product.getName()).orElse(null);
-        if(statistic == null){
-            statistic = new Statistic(product.getName(), 1);
-        }else{
-            statistic.setCountVisits(statistic.getCountVisits()+1);
+    public void register(ProductDto product, long timestamp){
+        topProducts.writing(product.getId(), 1);
+        afterCompletion(committed -> topProducts.written(product.getId(), product.getName(), product.getCategory(), 1, committed));
+        analitRepository.addVisits(product.getId(), product.getName(), product.getCategory(), 1);
+        statisticWindowRepository.addVisits(Map.of(PopularityWindows.minute(timestamp), Map.of(product.getId(), 1)));
+    }
+
+    /**
+     * Registers a batch of products received from the shopping cart service. The visits are summed up
+     * by product in memory and each product is changed once for the whole batch, the same way for each minute window.
+     * @param products
+     * @param timestamps the times of the visits in milliseconds, in the order of the products
+     */
+    @Transactional
+    public void registerAll(List<ProductDto> products, List<Long> timestamps){
+        Map<Long, Integer> deltas = new HashMap<>();
+        Map<Long, String> names = new HashMap<>();
+        Map<Long, String> categories = new HashMap<>();
+        Map<LocalDateTime, Map<Long, Integer>> windows = new HashMap<>();
+        for (int i = 0; i < products.size(); i++) {
+            ProductDto product = products.get(i);
+            deltas.merge(product.getId(), 1, Integer::sum);
+            windows.computeIfAbsent(PopularityWindows.minute(timestamps.get(i)), m -> new HashMap<>())
+                    .merge(product.getId(), 1, Integer::sum);
+            names.put(product.getId(), product.getName());
+            if (product.getCategory() != null) {
+                categories.put(product.getId(), product.getCategory());
+            }
+        }
+        if (!deltas.isEmpty()) {
+            deltas.forEach(topProducts::writing);
+            afterCompletion(committed -> deltas.forEach((productId, delta) ->
+                    topProducts.written(productId, names.get(productId), categories.get(productId), delta, committed)));
+            statisticDeltaRepository.addVisits(deltas, names, categories);
+            statisticWindowRepository.addVisits(windows);
         }
-        analitRepository.save(statistic);
     }
 
     /**
-     * Updates the data in the list of the most popular products every 10 seconds. The presence of a request, in fact, ping is perceived by the service
-     * baskets as a team to form a response and clear your temporary list of demanded goods.
+     * Runs the action after the transaction is completed, so the visits of a batch that is read again
+     * after a failed write are not counted in memory twice. The action is registered before the write,
+     * so the visits marked as being written are released whatever the outcome.
+     * @param action receives true if the transaction was committed
      */
-    @Scheduled(fixedDelay = 10000)
-    public void requestData(){
-        listProduct = analitRepository.findLastTen().stream().map(s-> (new StatisticDto(s.getNameProducts(), s.getCountVisits()))).collect(Collectors.toList());
+    private void afterCompletion(Consumer<Boolean> action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                action.accept(status == STATUS_COMMITTED);
+            }
+        });
     }
 }
@@ -0,0 +1,265 @@
+package services;
+
+import exceptions.InvalidRangeException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import repositories.StatisticWindowRepository;
+import repositories.StatisticWindowRepository.Range;
+import repositories.StatisticWindowRepository.Window;
+import webmarket.analitic.StatisticDto;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rolls up the visits of the minute windows into hours and of the hours into days, removes the windows
+ * older than their retention and answers the most popular products of a range of time.
+ * <p>
+ * The rollup is incremental: each window remembers up to which time it is rolled up, and only the windows
+ * after it are summed up. The windows closed less than the allowed lateness ago are rolled up again,
+ * so visits that arrive late are not lost. A write before the rolled up time also marks the oldest time
+ * it wrote, and the windows from that time are rolled up again, so even visits later than the allowed lateness
+ * reach the coarser windows. The rows of a window are removed only after they were rolled up
+ * and can no longer be rolled up again, so the coarser window always holds them.
+ * <p>
+ * The range is read from the coarsest windows that fit into it: whole days from the days, the rest
+ * from the hours and only the edges from the minutes. The minutes older than their retention are kept only
+ * as hours, so the edges of such a range are widened to whole hours, the same way for hours and days.
+ */
+@Slf4j
+@Service
+public class PopularityWindows {
+
+    /**
+     * Repository of the windows of statistics.
+     */
+    private final StatisticWindowRepository statisticWindowRepository;
+
+    /**
+     * How late visits may arrive after their window is closed.
+     */
+    private final Duration lateArrival;
+
+    /**
+     * How long the minute windows are kept.
+     */
+    private final Duration minuteRetention;
+
+    /**
+     * How long the hour windows are kept.
+     */
+    private final Duration hourRetention;
+
+    /**
+     * How long the day windows are kept.
+     */
+    private final Duration dayRetention;
+
+    /**
+     * The number of rows removed by one statement.
+     */
+    private final int deleteBatchSize;
+
+    public PopularityWindows(StatisticWindowRepository statisticWindowRepository,
+                             @Value("${utils.analytics.windows.late-arrival}") Duration lateArrival,
+                             @Value("${utils.analytics.windows.retention.minute}") Duration minuteRetention,
+                             @Value("${utils.analytics.windows.retention.hour}") Duration hourRetention,
+                             @Value("${utils.analytics.windows.retention.day}") Duration dayRetention,
+                             @Value("${utils.analytics.windows.delete-batch-size}") int deleteBatchSize) {
+        this.statisticWindowRepository = statisticWindowRepository;
+        this.lateArrival = lateArrival;
+        this.minuteRetention = minuteRetention;
+        this.hourRetention = hourRetention;
+        this.dayRetention = dayRetention;
+        this.deleteBatchSize = deleteBatchSize;
+    }
+
+    /**
+     * The minute window of the time of a visit.
+     * @param timestamp the time of the visit in milliseconds
+     * @return LocalDateTime in UTC
+     */
+    public static LocalDateTime minute(long timestamp) {
+        return Window.MINUTE.floor(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneOffset.UTC));
+    }
+
+    /**
+     * Rolls up the closed windows and removes the windows older than their retention.
+     */
+    @Scheduled(fixedDelayString = "${utils.analytics.windows.rollup-interval}")
+    public void rollup() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        try {
+            rollup(Window.MINUTE, Window.HOUR, now, minuteRetention);
+            LocalDateTime hours = statisticWindowRepository.findRolledUntil(Window.HOUR);
+            if (hours != null) {
+                rollup(Window.HOUR, Window.DAY, hours, hourRetention);
+            }
+            expire(Window.MINUTE, now.minus(minuteRetention), Window.HOUR);
+            expire(Window.HOUR, now.minus(hourRetention), Window.DAY);
+            expire(Window.DAY, now.minus(dayRetention), null);
+        } catch (DataAccessException e) {
+            log.warn("The windows of statistics were not rolled up: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the products with the most visits in the range of time.
+     * @param from the start of the range
+     * @param to the end of the range
+     * @param limit the number of products
+     * @return List
+     */
+    public List<StatisticDto> top(Instant from, Instant to, int limit) {
+        if (!from.isBefore(to)) {
+            throw new InvalidRangeException("The start of the range must be before its end");
+        }
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        LocalDateTime start = downsample(LocalDateTime.ofInstant(from, ZoneOffset.UTC), now, true);
+        LocalDateTime end = downsample(LocalDateTime.ofInstant(to, ZoneOffset.UTC), now, false);
+        LocalDateTime kept = Window.DAY.floor(now.minus(dayRetention));
+        if (start.isBefore(kept)) {
+            start = kept;
+        }
+        if (!start.isBefore(end)) {
+            return List.of();
+        }
+        List<Range> ranges = new ArrayList<>();
+        cover(start, end, Window.DAY, statisticWindowRepository.findRolledUntil(Window.DAY),
+                statisticWindowRepository.findRolledUntil(Window.HOUR), ranges);
+        return statisticWindowRepository.findTop(ranges, limit);
+    }
+
+    /**
+     * Rolls up the closed windows of the target up to the time, together with the windows closed less than
+     * the allowed lateness ago and the windows written since the last rollup. The rolled up windows of the target
+     * are marked as written for the next coarser window.
+     * @param source the finer window
+     * @param target the coarser window
+     * @param until the time up to which the source is complete
+     * @param sourceRetention how long the source is kept, the first rollup starts there
+     */
+    private void rollup(Window source, Window target, LocalDateTime until, Duration sourceRetention) {
+        LocalDateTime end = target.floor(until);
+        LocalDateTime rolled = statisticWindowRepository.findRolledUntil(target);
+        LocalDateTime start;
+        if (rolled == null) {
+            start = target.floor(end.minus(sourceRetention));
+        } else if (until.minus(lateArrival).isBefore(rolled)) {
+            start = target.floor(rolled.minus(lateArrival));
+        } else {
+            start = rolled;
+        }
+        LocalDateTime written = rolled != null ? statisticWindowRepository.takeWrittenFrom(target) : null;
+        if (written != null && target.floor(written).isBefore(start)) {
+            start = target.floor(written);
+        }
+        if (!start.isBefore(end)) {
+            return;
+        }
+        try {
+            statisticWindowRepository.rollup(source, target, start, end);
+            statisticWindowRepository.saveRolledUntil(target, end);
+        } catch (DataAccessException e) {
+            if (written != null) {
+                statisticWindowRepository.markWritten(target, written);
+            }
+            throw e;
+        }
+        if (target == Window.HOUR) {
+            statisticWindowRepository.markWritten(Window.DAY, start);
+        }
+    }
+
+    /**
+     * Removes the rows of the window older than the time. The rows that the coarser window may still roll up
+     * again are kept.
+     * @param window
+     * @param before
+     * @param coarser the window the rows are rolled up into, null if there is none
+     */
+    private void expire(Window window, LocalDateTime before, Window coarser) {
+        LocalDateTime limit = coarser != null ? coarser.floor(before) : window.floor(before);
+        if (coarser != null) {
+            LocalDateTime rolled = statisticWindowRepository.findRolledUntil(coarser);
+            if (rolled == null) {
+                return;
+            }
+            LocalDateTime rerolled = coarser.floor(rolled.minus(lateArrival));
+            if (rerolled.isBefore(limit)) {
+                limit = rerolled;
+            }
+            LocalDateTime written = statisticWindowRepository.findWrittenFrom(coarser);
+            if (written != null && coarser.floor(written).isBefore(limit)) {
+                limit = coarser.floor(written);
+            }
+        }
+        int removed = 0;
+        int batch;
+        do {
+            batch = statisticWindowRepository.deleteBefore(window, limit, deleteBatchSize);
+            removed += batch;
+        } while (batch == deleteBatchSize);
+        if (removed > 0) {
+            log.info("Windows of statistics removed: {} rows of {} before {}", removed, window, limit);
+        }
+    }
+
+    /**
+     * Widens the edge of the range to the window that still keeps the time.
+     * @param time
+     * @param now
+     * @param start true for the start of the range, false for the end
+     * @return LocalDateTime
+     */
+    private LocalDateTime downsample(LocalDateTime time, LocalDateTime now, boolean start) {
+        Window window = Window.MINUTE;
+        if (time.isBefore(now.minus(hourRetention))) {
+            window = Window.DAY;
+        } else if (time.isBefore(now.minus(minuteRetention))) {
+            window = Window.HOUR;
+        }
+        return start ? window.floor(time) : window.ceil(time);
+    }
+
+    /**
+     * Splits the range into the coarsest windows that fit into it and are rolled up.
+     * @param from
+     * @param to
+     * @param window the coarsest window to try
+     * @param days the end of the rolled up days
+     * @param hours the end of the rolled up hours
+     * @param ranges the ranges found
+     */
+    private void cover(LocalDateTime from, LocalDateTime to, Window window, LocalDateTime days, LocalDateTime hours,
+                       List<Range> ranges) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (window == Window.MINUTE) {
+            ranges.add(new Range(Window.MINUTE, from, to));
+            return;
+        }
+        Window finer = window == Window.DAY ? Window.HOUR : Window.MINUTE;
+        LocalDateTime rolled = window == Window.DAY ? days : hours;
+        LocalDateTime start = window.ceil(from);
+        LocalDateTime end = window.floor(to);
+        if (rolled == null || rolled.isBefore(end)) {
+            end = rolled != null ? window.floor(rolled) : start;
+        }
+        if (!start.isBefore(end)) {
+            cover(from, to, finer, days, hours, ranges);
+            return;
+        }
+        cover(from, start, finer, days, hours, ranges);
+        ranges.add(new Range(window, start, end));
+        cover(end, to, finer, days, hours, ranges);
+    }
+}
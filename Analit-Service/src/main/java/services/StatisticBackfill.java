@@ -0,0 +1,134 @@
+package services;
+
+import entities.Statistic;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import repositories.StatisticDeltaRepository;
+import webmarket.core.ProductDto;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gives the product id to the rows of statistics collected before the statistics were keyed by the product id.
+ * The rows are walked in small batches while the service keeps counting, the product is found by its name
+ * among the products of the Core service. The visits of the row are added to the row of the product and
+ * the row keyed by name is removed, each batch in its own transaction. Rows whose name matches no product
+ * or several products are left as they are.
+ * <p>
+ * No new rows keyed by name appear, so the walk remembers the last row it looked at and the next walks
+ * start after it: the rows left as they are and the list of products are not read again until restart.
+ */
+@Slf4j
+@Service
+public class StatisticBackfill {
+
+    /**
+     * Repository of batched changes of statistics.
+     */
+    private final StatisticDeltaRepository statisticDeltaRepository;
+
+    /**
+     * Transactions of the batches.
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Client of the Core service.
+     */
+    private final RestTemplate restTemplate;
+
+    /**
+     * The address of the Core service.
+     */
+    private final String coreServiceUrl;
+
+    /**
+     * The number of rows moved in one transaction.
+     */
+    private final int batchSize;
+
+    /**
+     * The id of the last row keyed by name that was looked at.
+     */
+    private int scannedId;
+
+    public StatisticBackfill(StatisticDeltaRepository statisticDeltaRepository,
+                             TransactionTemplate transactionTemplate,
+                             RestTemplateBuilder restTemplateBuilder,
+                             @Value("${integrations.core-service.url}") String coreServiceUrl,
+                             @Value("${utils.analytics.backfill.batch-size}") int batchSize) {
+        this.statisticDeltaRepository = statisticDeltaRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.restTemplate = restTemplateBuilder.build();
+        this.coreServiceUrl = coreServiceUrl;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Walks the rows keyed by name.
+     */
+    @Scheduled(fixedDelayString = "${utils.analytics.backfill.interval}")
+    public void backfill() {
+        List<Statistic> batch = statisticDeltaRepository.findWithoutProduct(scannedId, batchSize);
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<String, Long> products;
+        try {
+            products = productIdsByName();
+        } catch (RestClientException e) {
+            log.warn("The statistics were not keyed by product: the Core service is not available: {}", e.getMessage());
+            return;
+        }
+        int moved = 0;
+        int skipped = 0;
+        while (!batch.isEmpty()) {
+            List<Statistic> rows = batch;
+            Integer count = transactionTemplate.execute(status -> {
+                int n = 0;
+                for (Statistic statistic : rows) {
+                    Long productId = products.get(statistic.getNameProducts());
+                    if (productId != null) {
+                        statisticDeltaRepository.moveToProduct(statistic, productId);
+                        n++;
+                    }
+                }
+                return n;
+            });
+            moved += count != null ? count : 0;
+            skipped += rows.size() - (count != null ? count : 0);
+            scannedId = rows.get(rows.size() - 1).getId();
+            batch = statisticDeltaRepository.findWithoutProduct(scannedId, batchSize);
+        }
+        log.info("Statistics keyed by product: {} rows moved, {} rows without a matching product", moved, skipped);
+    }
+
+    /**
+     * Requests the products of the Core service and returns their ids by name, the names of several products are left out.
+     * @return Map
+     */
+    private Map<String, Long> productIdsByName() {
+        ProductDto[] all = restTemplate.getForObject(coreServiceUrl + "/api/v1/products/all", ProductDto[].class);
+        Map<String, Long> ids = new HashMap<>();
+        Set<String> ambiguous = new HashSet<>();
+        if (all != null) {
+            for (ProductDto product : all) {
+                if (ids.putIfAbsent(product.getName(), product.getId()) != null) {
+                    ambiguous.add(product.getName());
+                }
+            }
+        }
+        ambiguous.forEach(ids::remove);
+        return ids;
+    }
+}
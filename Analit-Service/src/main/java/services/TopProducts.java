@@ -0,0 +1,313 @@
+package services;
+
+import entities.Statistic;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import repositories.StatisticDeltaRepository;
+import webmarket.analitic.StatisticDto;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the most popular products in memory and updates them as the visits are registered, so the list
+ * is answered without a request to the database and without delay.
+ * <p>
+ * The service keeps an exact counter for every product: the number of products is the size of the catalog,
+ * so the counters take little memory and the list is exact. Next to the counters the most popular products
+ * are kept sorted, for all products and for each category. The counters only grow, so a product enters the list
+ * only when its counter passes the last product of the list, and a change of a counter costs a logarithm
+ * of the size of the list. The readers get the last copy of the list made by the writer.
+ * <p>
+ * The counters are loaded from the database at startup, before the listeners of the queue start. Several
+ * instances of the service count different partitions of the queue, so the most popular products of the database
+ * are periodically read again and their counters are raised to the database values. The visits of a batch
+ * are added to the counters after its commit, so the database may already have them when they are added;
+ * the visits of the batches being written are therefore taken off the database values, and a batch is never
+ * counted twice.
+ */
+@Slf4j
+@Component
+public class TopProducts {
+
+    /**
+     * The order of the list: more visits first, then the product id.
+     */
+    private static final Comparator<Counter> ORDER = Comparator.comparingLong((Counter c) -> c.visits).reversed()
+            .thenComparing(c -> c.productId);
+
+    /**
+     * Repository of batched changes of statistics.
+     */
+    private final StatisticDeltaRepository statisticDeltaRepository;
+
+    /**
+     * The number of products in the list of all products.
+     */
+    private final int size;
+
+    /**
+     * The number of products in the list of a category.
+     */
+    private final int categorySize;
+
+    /**
+     * Counters of the products by product id.
+     */
+    private final Map<Long, Counter> counters = new HashMap<>();
+
+    /**
+     * The most popular products of all.
+     */
+    private final Ranking top;
+
+    /**
+     * The most popular products by category.
+     */
+    private final Map<String, Ranking> categories = new HashMap<>();
+
+    /**
+     * The last copy of the list of all products.
+     */
+    private volatile List<StatisticDto> topView = List.of();
+
+    /**
+     * The last copies of the lists of the categories.
+     */
+    private final Map<String, List<StatisticDto>> categoryViews = new ConcurrentHashMap<>();
+
+    /**
+     * The visits of the batches being written to the database by product id.
+     */
+    private final Map<Long, Long> writing = new HashMap<>();
+
+    public TopProducts(StatisticDeltaRepository statisticDeltaRepository,
+                       @Value("${utils.analytics.top.size}") int size,
+                       @Value("${utils.analytics.top.category-size}") int categorySize) {
+        this.statisticDeltaRepository = statisticDeltaRepository;
+        this.size = size;
+        this.categorySize = categorySize;
+        this.top = new Ranking(size);
+    }
+
+    /**
+     * Loads the counters of all products from the database.
+     */
+    @PostConstruct
+    private void init() {
+        statisticDeltaRepository.forEachProduct(this::raise);
+        log.info("Popular products loaded: {} products, {} categories", counters.size(), categories.size());
+    }
+
+    /**
+     * The most popular products of all.
+     * @return List
+     */
+    public List<StatisticDto> top() {
+        return topView;
+    }
+
+    /**
+     * The most popular products of the category.
+     * @param category
+     * @return List, empty if the category has no visits
+     */
+    public List<StatisticDto> top(String category) {
+        return categoryViews.getOrDefault(category, List.of());
+    }
+
+    /**
+     * Adds the visits to the product.
+     * @param productId
+     * @param nameProduct
+     * @param category the category of the product, null keeps the known one
+     * @param delta the number of new visits
+     */
+    public synchronized void add(Long productId, String nameProduct, String category, long delta) {
+        Counter current = counters.get(productId);
+        long visits = current != null ? current.visits + delta : delta;
+        update(current, new Counter(productId, nameProduct, category != null || current == null ? category : current.category, visits));
+    }
+
+    /**
+     * Marks the visits of the product as being written to the database, it is called before the write.
+     * @param productId
+     * @param delta the number of new visits
+     */
+    public synchronized void writing(Long productId, long delta) {
+        writing.merge(productId, delta, Long::sum);
+    }
+
+    /**
+     * Ends the write of the visits of the product and adds them to the counter if they were committed.
+     * @param productId
+     * @param nameProduct
+     * @param category the category of the product, null keeps the known one
+     * @param delta the number of new visits
+     * @param committed whether the write was committed
+     */
+    public synchronized void written(Long productId, String nameProduct, String category, long delta, boolean committed) {
+        writing.computeIfPresent(productId, (id, visits) -> visits > delta ? visits - delta : null);
+        if (committed) {
+            add(productId, nameProduct, category, delta);
+        }
+    }
+
+    /**
+     * Reads the most popular products from the database again and raises their counters to the database values,
+     * so the list includes the visits counted by the other instances.
+     */
+    @Scheduled(fixedDelayString = "${utils.analytics.top.refresh-interval}", initialDelayString = "${utils.analytics.top.refresh-interval}")
+    public void refresh() {
+        try {
+            statisticDeltaRepository.findTop(size).forEach(this::raise);
+            List<String> known;
+            synchronized (this) {
+                known = new ArrayList<>(categories.keySet());
+            }
+            for (String category : known) {
+                statisticDeltaRepository.findTopOfCategory(category, categorySize).forEach(this::raise);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Popular products were not refreshed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Raises the counter of the product to the value from the database without the visits being written,
+     * they are added when their write ends. A counter counted further in memory is left as it is.
+     * @param statistic
+     */
+    private synchronized void raise(Statistic statistic) {
+        Counter current = counters.get(statistic.getProductId());
+        long visits = statistic.getCountVisits() - writing.getOrDefault(statistic.getProductId(), 0L);
+        if (current != null ? current.visits >= visits : visits <= 0) {
+            return;
+        }
+        update(current, new Counter(statistic.getProductId(), statistic.getNameProducts(),
+                statistic.getCategory() != null || current == null ? statistic.getCategory() : current.category,
+                visits));
+    }
+
+    /**
+     * Replaces the counter of the product and updates the lists it is in.
+     * @param current the counter before the change, null if the product is new
+     * @param changed the counter after the change
+     */
+    private void update(Counter current, Counter changed) {
+        counters.put(changed.productId, changed);
+        if (top.offer(current, changed)) {
+            topView = top.view();
+        }
+        if (current != null && current.category != null && !current.category.equals(changed.category)) {
+            Ranking previous = categories.get(current.category);
+            if (previous.remove(current)) {
+                counters.values().stream()
+                        .filter(c -> current.category.equals(c.category))
+                        .forEach(c -> previous.offer(null, c));
+                categoryViews.put(current.category, previous.view());
+            }
+        }
+        if (changed.category != null) {
+            Ranking ranking = categories.computeIfAbsent(changed.category, c -> new Ranking(categorySize));
+            Counter before = current != null && changed.category.equals(current.category) ? current : null;
+            if (ranking.offer(before, changed)) {
+                categoryViews.put(changed.category, ranking.view());
+            }
+        }
+    }
+
+    /**
+     * The counter of a product. It is not changed: every change makes a new one.
+     */
+    private static class Counter {
+
+        private final Long productId;
+
+        private final String nameProduct;
+
+        private final String category;
+
+        private final long visits;
+
+        private Counter(Long productId, String nameProduct, String category, long visits) {
+            this.productId = productId;
+            this.nameProduct = nameProduct;
+            this.category = category;
+            this.visits = visits;
+        }
+    }
+
+    /**
+     * A list of a limited number of the most popular products, sorted by visits.
+     */
+    private static class Ranking {
+
+        private final int limit;
+
+        private final TreeSet<Counter> counters = new TreeSet<>(ORDER);
+
+        /**
+         * The ids of the products in the list.
+         */
+        private final Set<Long> productIds = new HashSet<>();
+
+        private Ranking(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Offers the changed counter to the list. The counter stays in the list if it was there,
+         * otherwise it enters the list if there is a free place or it passes the last counter.
+         * @param current the counter before the change, null if it is not known
+         * @param changed the counter after the change
+         * @return true if the list was changed
+         */
+        private boolean offer(Counter current, Counter changed) {
+            if (current != null && counters.remove(current)) {
+                counters.add(changed);
+                return true;
+            }
+            if (productIds.contains(changed.productId)) {
+                return false;
+            }
+            if (counters.size() < limit) {
+                counters.add(changed);
+                productIds.add(changed.productId);
+                return true;
+            }
+            if (limit > 0 && ORDER.compare(changed, counters.last()) < 0) {
+                productIds.remove(counters.pollLast().productId);
+                counters.add(changed);
+                productIds.add(changed.productId);
+                return true;
+            }
+            return false;
+        }
+
+        private boolean remove(Counter counter) {
+            if (!counters.remove(counter)) {
+                return false;
+            }
+            productIds.remove(counter.productId);
+            return true;
+        }
+
+        private List<StatisticDto> view() {
+            List<StatisticDto> view = new ArrayList<>(counters.size());
+            counters.forEach(c -> view.add(new StatisticDto(c.nameProduct, (int) c.visits)));
+            return List.copyOf(view);
+        }
+    }
+}
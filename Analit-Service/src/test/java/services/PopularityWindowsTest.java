@@ -0,0 +1,202 @@
+package services;
+
+import org.junit.jupiter.api.Test;
+import repositories.StatisticWindowRepository;
+import webmarket.analitic.StatisticDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The windows of statistics: a rollup repeated without new visits changes nothing, a visit later than
+ * the allowed lateness is still rolled up, and a range is read from the coarsest windows that fit into it
+ * without losing or counting twice any visit.
+ */
+class PopularityWindowsTest {
+
+    private static final long PRODUCT_ID = 1L;
+
+    private final InMemoryWindows repository = new InMemoryWindows();
+
+    private final PopularityWindows windows = new PopularityWindows(repository, Duration.ofMinutes(5),
+            Duration.ofDays(2), Duration.ofDays(90), Duration.ofDays(730), 10000);
+
+    private final LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+
+    @Test
+    void repeatedRollupChangesNothing() {
+        visit(now.minusHours(30));
+        visit(now.minusHours(3));
+        visit(now.minusHours(3));
+        windows.rollup();
+        Map<LocalDateTime, Integer> hours = repository.visits(StatisticWindowRepository.Window.HOUR);
+        Map<LocalDateTime, Integer> days = repository.visits(StatisticWindowRepository.Window.DAY);
+
+        windows.rollup();
+
+        assertThat(repository.visits(StatisticWindowRepository.Window.HOUR)).isEqualTo(hours);
+        assertThat(repository.visits(StatisticWindowRepository.Window.DAY)).isEqualTo(days);
+        assertThat(hours.values().stream().mapToInt(Integer::intValue).sum()).isEqualTo(3);
+    }
+
+    @Test
+    void visitLaterThanAllowedLatenessIsRolledUp() {
+        LocalDateTime minute = PopularityWindows.minute(now.minusHours(3).toInstant(ZoneOffset.UTC).toEpochMilli());
+        LocalDateTime hour = StatisticWindowRepository.Window.HOUR.floor(minute);
+        visit(minute);
+        windows.rollup();
+        assertThat(repository.visits(StatisticWindowRepository.Window.HOUR)).containsEntry(hour, 1);
+
+        visit(minute);
+        windows.rollup();
+
+        assertThat(repository.visits(StatisticWindowRepository.Window.HOUR)).containsEntry(hour, 2);
+        assertThat(repository.findWrittenFrom(StatisticWindowRepository.Window.HOUR)).isNull();
+    }
+
+    @Test
+    void rangeIsReadFromCoarsestWindows() {
+        visit(now.minusHours(40));
+        visit(now.minusHours(30));
+        visit(now.minusHours(3));
+        visit(now.minusMinutes(10));
+        windows.rollup();
+
+        LocalDateTime from = now.minusHours(47).minusMinutes(30);
+        List<StatisticDto> top = windows.top(from.toInstant(ZoneOffset.UTC), now.toInstant(ZoneOffset.UTC), 10);
+
+        assertThat(top).extracting(StatisticDto::getCount).containsExactly(4);
+        List<StatisticWindowRepository.Range> ranges = repository.ranges;
+        assertThat(ranges.get(0).getFrom()).isEqualTo(StatisticWindowRepository.Window.MINUTE.floor(from));
+        for (int i = 1; i < ranges.size(); i++) {
+            assertThat(ranges.get(i).getFrom()).isEqualTo(ranges.get(i - 1).getTo());
+        }
+        for (StatisticWindowRepository.Range range : ranges) {
+            assertThat(range.getWindow().floor(range.getFrom())).isEqualTo(range.getFrom());
+            assertThat(range.getWindow().floor(range.getTo())).isEqualTo(range.getTo());
+            assertThat(range.getTo()).isAfter(range.getFrom());
+        }
+        assertThat(ranges).extracting(StatisticWindowRepository.Range::getWindow)
+                .contains(StatisticWindowRepository.Window.HOUR, StatisticWindowRepository.Window.MINUTE);
+        assertThat(ranges.get(ranges.size() - 1).getWindow()).isEqualTo(StatisticWindowRepository.Window.MINUTE);
+    }
+
+    @Test
+    void edgeOlderThanMinutesIsWidenedToHour() {
+        visit(now.minusDays(3));
+        windows.rollup();
+        LocalDateTime from = now.minusDays(3).minusMinutes(30);
+
+        windows.top(from.toInstant(ZoneOffset.UTC), now.toInstant(ZoneOffset.UTC), 10);
+
+        assertThat(repository.ranges.get(0).getFrom()).isEqualTo(StatisticWindowRepository.Window.HOUR.floor(from));
+    }
+
+    private void visit(LocalDateTime time) {
+        repository.addVisits(Map.of(StatisticWindowRepository.Window.MINUTE.floor(time), Map.of(PRODUCT_ID, 1)));
+    }
+
+    /**
+     * Windows of statistics kept in memory instead of the database, with the same rules.
+     */
+    private static class InMemoryWindows extends StatisticWindowRepository {
+
+        private final Map<Window, TreeMap<LocalDateTime, Map<Long, Integer>>> rows = new EnumMap<>(Window.class);
+
+        private final Map<Window, LocalDateTime> rolledUntil = new EnumMap<>(Window.class);
+
+        private final Map<Window, LocalDateTime> writtenFrom = new EnumMap<>(Window.class);
+
+        private List<Range> ranges = List.of();
+
+        private InMemoryWindows() {
+            super(null);
+            for (Window window : Window.values()) {
+                rows.put(window, new TreeMap<>());
+            }
+        }
+
+        private Map<LocalDateTime, Integer> visits(Window window) {
+            Map<LocalDateTime, Integer> visits = new TreeMap<>();
+            rows.get(window).forEach((bucket, products) -> visits.put(bucket, products.values().stream().mapToInt(Integer::intValue).sum()));
+            return visits;
+        }
+
+        @Override
+        public void addVisits(Map<LocalDateTime, Map<Long, Integer>> deltas) {
+            deltas.forEach((minute, products) -> products.forEach((productId, delta) ->
+                    rows.get(Window.MINUTE).computeIfAbsent(minute, m -> new HashMap<>()).merge(productId, delta, Integer::sum)));
+            deltas.keySet().stream().min(LocalDateTime::compareTo).ifPresent(minute -> markWritten(Window.HOUR, minute));
+        }
+
+        @Override
+        public void rollup(Window source, Window target, LocalDateTime from, LocalDateTime to) {
+            Map<LocalDateTime, Map<Long, Integer>> sums = new HashMap<>();
+            rows.get(source).subMap(from, to).forEach((bucket, products) -> products.forEach((productId, visits) ->
+                    sums.computeIfAbsent(target.floor(bucket), b -> new HashMap<>()).merge(productId, visits, Integer::sum)));
+            sums.forEach((bucket, products) -> rows.get(target).computeIfAbsent(bucket, b -> new HashMap<>()).putAll(products));
+        }
+
+        @Override
+        public LocalDateTime findRolledUntil(Window window) {
+            return rolledUntil.get(window);
+        }
+
+        @Override
+        public void saveRolledUntil(Window window, LocalDateTime until) {
+            rolledUntil.merge(window, until, (a, b) -> a.isAfter(b) ? a : b);
+        }
+
+        @Override
+        public void markWritten(Window window, LocalDateTime from) {
+            LocalDateTime rolled = rolledUntil.get(window);
+            if (rolled != null && rolled.isAfter(from)) {
+                writtenFrom.merge(window, from, (a, b) -> a.isBefore(b) ? a : b);
+            }
+        }
+
+        @Override
+        public LocalDateTime findWrittenFrom(Window window) {
+            return writtenFrom.get(window);
+        }
+
+        @Override
+        public LocalDateTime takeWrittenFrom(Window window) {
+            return writtenFrom.remove(window);
+        }
+
+        @Override
+        public int deleteBefore(Window window, LocalDateTime before, int limit) {
+            int removed = 0;
+            Iterator<Map<Long, Integer>> iterator = rows.get(window).headMap(before).values().iterator();
+            while (iterator.hasNext() && removed < limit) {
+                removed += iterator.next().size();
+                iterator.remove();
+            }
+            return removed;
+        }
+
+        @Override
+        public List<StatisticDto> findTop(List<Range> ranges, int limit) {
+            this.ranges = new ArrayList<>(ranges);
+            Map<Long, Integer> visits = new HashMap<>();
+            for (Range range : ranges) {
+                rows.get(range.getWindow()).subMap(range.getFrom(), range.getTo()).values()
+                        .forEach(products -> products.forEach((productId, v) -> visits.merge(productId, v, Integer::sum)));
+            }
+            List<StatisticDto> top = new ArrayList<>();
+            visits.forEach((productId, v) -> top.add(new StatisticDto(productId.toString(), v)));
+            return top;
+        }
+    }
+}
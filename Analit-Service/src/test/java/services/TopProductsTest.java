@@ -0,0 +1,129 @@
+package services;
+
+import entities.Statistic;
+import org.junit.jupiter.api.Test;
+import repositories.StatisticDeltaRepository;
+import webmarket.analitic.StatisticDto;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * The lists of the most popular products: a product passing the last one takes its place, a product changing
+ * its category leaves the list of the old category, and the refresh from the database does not count twice
+ * the visits of a batch committed before they are added in memory.
+ */
+class TopProductsTest {
+
+    private final InMemoryStatistics statistics = new InMemoryStatistics();
+
+    @Test
+    void productPassingTheLastTakesItsPlace() {
+        TopProducts topProducts = new TopProducts(statistics, 2, 2);
+        topProducts.add(1L, "p1", null, 3);
+        topProducts.add(2L, "p2", null, 2);
+        topProducts.add(3L, "p3", null, 1);
+
+        assertThat(topProducts.top()).extracting(StatisticDto::getNameProduct, StatisticDto::getCount)
+                .containsExactly(tuple("p1", 3), tuple("p2", 2));
+
+        topProducts.add(3L, "p3", null, 2);
+
+        assertThat(topProducts.top()).extracting(StatisticDto::getNameProduct, StatisticDto::getCount)
+                .containsExactly(tuple("p1", 3), tuple("p3", 3));
+    }
+
+    @Test
+    void productChangingCategoryLeavesTheListOfOldCategory() {
+        TopProducts topProducts = new TopProducts(statistics, 10, 2);
+        topProducts.add(1L, "p1", "a", 5);
+        topProducts.add(2L, "p2", "a", 2);
+        topProducts.add(3L, "p3", "a", 1);
+
+        assertThat(topProducts.top("a")).extracting(StatisticDto::getNameProduct).containsExactly("p1", "p2");
+
+        topProducts.add(1L, "p1", "b", 1);
+        topProducts.add(1L, "p1", null, 1);
+
+        assertThat(topProducts.top("a")).extracting(StatisticDto::getNameProduct).containsExactly("p2", "p3");
+        assertThat(topProducts.top("b")).extracting(StatisticDto::getNameProduct, StatisticDto::getCount)
+                .containsExactly(tuple("p1", 7));
+    }
+
+    @Test
+    void refreshRaisesCountersButDoesNotLowerThem() {
+        TopProducts topProducts = new TopProducts(statistics, 10, 10);
+        topProducts.add(1L, "p1", null, 3);
+        statistics.save(1L, "p1", null, 10);
+
+        topProducts.refresh();
+        topProducts.add(1L, "p1", null, 1);
+
+        assertThat(topProducts.top()).extracting(StatisticDto::getCount).containsExactly(11);
+
+        statistics.save(1L, "p1", null, 5);
+        topProducts.refresh();
+
+        assertThat(topProducts.top()).extracting(StatisticDto::getCount).containsExactly(11);
+    }
+
+    @Test
+    void batchCommittedBeforeRefreshIsCountedOnce() {
+        TopProducts topProducts = new TopProducts(statistics, 10, 10);
+        topProducts.add(1L, "p1", null, 3);
+        statistics.save(1L, "p1", null, 3);
+
+        topProducts.writing(1L, 2);
+        statistics.save(1L, "p1", null, 5);
+        topProducts.refresh();
+        topProducts.written(1L, "p1", null, 2, true);
+
+        assertThat(topProducts.top()).extracting(StatisticDto::getCount).containsExactly(5);
+
+        topProducts.writing(1L, 4);
+        topProducts.written(1L, "p1", null, 4, false);
+        topProducts.refresh();
+
+        assertThat(topProducts.top()).extracting(StatisticDto::getCount).containsExactly(5);
+    }
+
+    /**
+     * Statistics kept in memory instead of the database.
+     */
+    private static class InMemoryStatistics extends StatisticDeltaRepository {
+
+        private final Map<Long, Statistic> rows = new LinkedHashMap<>();
+
+        private InMemoryStatistics() {
+            super(null);
+        }
+
+        private void save(Long productId, String nameProduct, String category, int visits) {
+            Statistic statistic = new Statistic(productId, nameProduct, visits);
+            statistic.setCategory(category);
+            rows.put(productId, statistic);
+        }
+
+        @Override
+        public List<Statistic> findTop(int limit) {
+            return rows.values().stream()
+                    .sorted(Comparator.comparing(Statistic::getCountVisits).reversed())
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public List<Statistic> findTopOfCategory(String category, int limit) {
+            return findTop(Integer.MAX_VALUE).stream()
+                    .filter(s -> category.equals(s.getCategory()))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+    }
+}
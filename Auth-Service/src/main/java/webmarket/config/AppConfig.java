@@ -0,0 +1,36 @@
+package webmarket.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+
+/**
+ * Configuration of the clients of other services.
+ */
+@Configuration
+public class AppConfig {
+
+    /**
+     * Client for requests to the shopping cart service.
+     * @param builder
+     * @param url
+     * @param connectTimeout
+     * @param readTimeout
+     * @return RestTemplate
+     */
+    @Bean
+    public RestTemplate cartServiceClient(RestTemplateBuilder builder,
+                                          @Value("${integrations.cart-service.url}") String url,
+                                          @Value("${integrations.cart-service.connect-timeout}") Duration connectTimeout,
+                                          @Value("${integrations.cart-service.read-timeout}") Duration readTimeout) {
+        return builder
+                .rootUri(url)
+                .setConnectTimeout(connectTimeout)
+                .setReadTimeout(readTimeout)
+                .build();
+    }
+}
@@ -2,6 +2,7 @@ package webmarket.controllers;
 
 import webmarket.dto.JwtRequest;
 import webmarket.dto.JwtResponse;
+import webmarket.integrations.CartServiceIntegration;
 import webmarket.services.UserService;
 import webmarket.utils.JwtTokenUtil;
 import io.swagger.v3.oas.annotations.Operation;
@@ -29,9 +30,11 @@ public class AuthController {
     private final UserService userService;
     private final JwtTokenUtil jwtTokenUtil;
     private final AuthenticationManager authenticationManager;
+    private final CartServiceIntegration cartServiceIntegration;
 
     /**
-     * Request to receive a user token.
+     * Request to receive a user token. If the id of the guest basket is passed, the guest basket
+     * is merged with the user's basket.
      * http://localhost:5555/auth
      * @param authRequest
      * @return
@@ -54,6 +57,9 @@ public class AuthController {
         }
         UserDetails userDetails = userService.loadUserByUsername(authRequest.getUsername());
         String token = jwtTokenUtil.generateToken(userDetails);
+        if (authRequest.getGuestCartId() != null) {
+            cartServiceIntegration.mergeCarts(userDetails.getUsername(), token, authRequest.getGuestCartId());
+        }
         return ResponseEntity.ok(new JwtResponse(token));
     }
 }
@@ -17,4 +17,9 @@ public class JwtRequest {
      * The user's password.
      */
     private String password;
+
+    /**
+     * The id of the guest basket to be merged with the user's basket, optional.
+     */
+    private String guestCartId;
 }
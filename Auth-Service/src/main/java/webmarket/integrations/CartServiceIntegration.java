@@ -0,0 +1,42 @@
+package webmarket.integrations;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Integration with the shopping cart service.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CartServiceIntegration {
+
+    /**
+     * Client for requests to the shopping cart service.
+     */
+    private final RestTemplate cartServiceClient;
+
+    /**
+     * Asks the shopping cart service to move the guest basket to the user's basket. The request is made
+     * with the token just issued to the user, so the gateway takes the user from the token. A failure does not
+     * prevent the login, the guest basket then stays as it is.
+     * @param username
+     * @param token the token of the user
+     * @param guestCartId
+     */
+    public void mergeCarts(String username, String token, String guestCartId) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+        try {
+            cartServiceClient.exchange("/api/v1/cart/{uuid}/merge", HttpMethod.GET, new HttpEntity<>(headers), Void.class, guestCartId);
+        } catch (RestClientException e) {
+            log.warn("The guest basket {} was not merged with the basket of {}: {}", guestCartId, username, e.getMessage());
+        }
+    }
+}
@@ -2,18 +2,22 @@ package webmarket;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Implements the functionality of the user's shopping cart, receives and stores a list of products in the object
  * recycle bin, then saves it to the Redis database. The basket algorithm implements recalculation
  * of added identical items of goods. When requested from MS Core Service, returns this
  * the object for the formation of the order.
+ * The database of long-idle baskets is configured by the service itself only when it is used.
  */
 @EnableKafka
-@SpringBootApplication
+@SpringBootApplication(exclude = DataSourceAutoConfiguration.class)
 @EnableFeignClients
+@EnableScheduling
 public class CartApplication {
 	public static void main(String[] args) {
 		SpringApplication.run(CartApplication.class, args);
@@ -1,12 +1,15 @@
 package webmarket.configs;
 
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.LongDeserializer;
 import org.apache.kafka.common.serialization.LongSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.config.KafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
@@ -29,7 +32,53 @@ public class KafkaConfig {
     private String server;
 
     /**
-     * Map of producer settings properties.
+     * How long the producer waits for other messages to send them in one batch.
+     */
+    @Value("${utils.analytics.linger-ms}")
+    private int lingerMs;
+
+    /**
+     * The maximum size of one batch of messages in bytes.
+     */
+    @Value("${utils.analytics.batch-size}")
+    private int batchSize;
+
+    /**
+     * Compression of message batches.
+     */
+    @Value("${utils.analytics.compression-type}")
+    private String compressionType;
+
+    /**
+     * The size of the producer buffer for messages not yet sent to the broker, in bytes.
+     */
+    @Value("${utils.analytics.buffer-memory}")
+    private long bufferMemory;
+
+    /**
+     * How long sending waits for space in the buffer or for the topic metadata before giving up.
+     */
+    @Value("${utils.analytics.max-block-ms}")
+    private long maxBlockMs;
+
+    /**
+     * The number of partitions of the analytics topic, the limit of parallel consumers of the analytics service.
+     */
+    @Value("${utils.analytics.partitions}")
+    private int partitions;
+
+    /**
+     * The topic of products added to baskets, created on start if it does not exist.
+     * @return NewTopic
+     */
+    @Bean
+    public NewTopic productAnalitTopic() {
+        return TopicBuilder.name("ProductAnalit").partitions(partitions).build();
+    }
+
+    /**
+     * Map of producer settings properties. Messages are collected into compressed batches in a bounded buffer
+     * and sent in the background, a message that does not fit into the buffer within max-block-ms is dropped.
      * @return
      */
     @Bean
@@ -38,6 +87,12 @@ public class KafkaConfig {
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, server);
         props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, LongSerializer.class);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, bufferMemory);
+        props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, maxBlockMs);
+        props.put(ProducerConfig.ACKS_CONFIG, "1");
         return props;
     }
 
@@ -61,7 +116,7 @@ public class KafkaConfig {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, server);
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
-        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, LongDeserializer.class);
         props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         return props;
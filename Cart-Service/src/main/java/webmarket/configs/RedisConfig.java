@@ -1,12 +1,17 @@
 package webmarket.configs;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import webmarket.serializers.CartRedisSerializer;
 
 /**
  * Defines the settings for using the Redis database.
@@ -15,6 +20,18 @@ import org.springframework.data.redis.serializer.StringRedisSerializer;
 @EnableRedisRepositories
 public class RedisConfig {
 
+    /**
+     * Format of basket values: json or binary.
+     */
+    @Value("${utils.cart.codec}")
+    private String codec;
+
+    /**
+     * The size of the basket in bytes, starting from which the binary format is compressed.
+     */
+    @Value("${utils.cart.compression-threshold}")
+    private int compressionThreshold;
+
     /**
      * Factory for connecting to Redis.
      * @return
@@ -32,8 +49,40 @@ public class RedisConfig {
     public RedisTemplate<String, Object> redisTemplate() {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setKeySerializer(new StringRedisSerializer());
-        template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+        template.setValueSerializer(valueSerializer());
         template.setConnectionFactory(jedisConnectionFactory());
         return template;
     }
+
+    /**
+     * Serializer of values. The binary serializer also reads baskets written in JSON.
+     * @return
+     */
+    @Bean
+    public RedisSerializer<Object> valueSerializer() {
+        if ("binary".equals(codec)) {
+            return new CartRedisSerializer(compressionThreshold);
+        }
+        return new GenericJackson2JsonRedisSerializer();
+    }
+
+    /**
+     * Template for requests to Redis with string keys and values, used for baskets stored as hashes.
+     * @return
+     */
+    @Bean
+    public StringRedisTemplate stringRedisTemplate() {
+        return new StringRedisTemplate(jedisConnectionFactory());
+    }
+
+    /**
+     * Container of listeners of Redis events, used to count expired baskets.
+     * @return
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer() {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(jedisConnectionFactory());
+        return container;
+    }
 }
@@ -0,0 +1,81 @@
+package webmarket.configs;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import webmarket.utils.CartShards;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Settings of the Redis nodes the baskets are spread across, used by the sharded storage of baskets.
+ */
+@Configuration
+@ConditionalOnProperty(name = "utils.cart.storage", havingValue = "sharded")
+public class ShardingConfig {
+
+    /**
+     * Addresses of the nodes, host:port.
+     */
+    @Value("${utils.cart.sharding.nodes}")
+    private List<String> nodes;
+
+    /**
+     * Addresses of the nodes before resharding, empty if no resharding is in progress.
+     */
+    @Value("${utils.cart.sharding.previous-nodes:}")
+    private List<String> previousNodes;
+
+    /**
+     * The number of points of each node on the ring.
+     */
+    @Value("${utils.cart.sharding.virtual-nodes}")
+    private int virtualNodes;
+
+    /**
+     * Nodes of the baskets.
+     * @param valueSerializer
+     * @return
+     */
+    @Bean
+    public CartShards cartShards(RedisSerializer<Object> valueSerializer) {
+        Map<String, CartShards.Shard> shards = new LinkedHashMap<>();
+        Stream.concat(nodes.stream(), previousNodes.stream())
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .distinct()
+                .forEach(node -> shards.put(node, shard(node, valueSerializer)));
+        return new CartShards(shards, nodes.stream().map(String::trim).toList(),
+                previousNodes.stream().map(String::trim).filter(node -> !node.isEmpty()).toList(), virtualNodes);
+    }
+
+    /**
+     * Connects to the node.
+     * @param node
+     * @param valueSerializer
+     * @return
+     */
+    private CartShards.Shard shard(String node, RedisSerializer<Object> valueSerializer) {
+        int colon = node.lastIndexOf(':');
+        String host = node.substring(0, colon);
+        int port = Integer.parseInt(node.substring(colon + 1));
+        JedisConnectionFactory connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        connectionFactory.afterPropertiesSet();
+        RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setValueSerializer(valueSerializer);
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.afterPropertiesSet();
+        return new CartShards.Shard(node, host, port, connectionFactory, redisTemplate, new StringRedisTemplate(connectionFactory));
+    }
+}
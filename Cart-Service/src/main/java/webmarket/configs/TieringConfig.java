@@ -0,0 +1,50 @@
+package webmarket.configs;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * Settings of the database of long-idle baskets, used only when the baskets are tiered.
+ */
+@Configuration
+@ConditionalOnProperty(name = "utils.cart.tiering.enabled", havingValue = "true")
+public class TieringConfig {
+
+    @Value("${utils.cart.tiering.datasource.url}")
+    private String url;
+
+    @Value("${utils.cart.tiering.datasource.username}")
+    private String username;
+
+    @Value("${utils.cart.tiering.datasource.password}")
+    private String password;
+
+    /**
+     * Connections to the database of long-idle baskets.
+     * @return DataSource
+     */
+    @Bean
+    public DataSource coldCartDataSource() {
+        return DataSourceBuilder.create()
+                .driverClassName("org.postgresql.Driver")
+                .url(url)
+                .username(username)
+                .password(password)
+                .build();
+    }
+
+    /**
+     * Template for requests to the database of long-idle baskets.
+     * @return JdbcTemplate
+     */
+    @Bean
+    public JdbcTemplate coldCartJdbcTemplate() {
+        return new JdbcTemplate(coldCartDataSource());
+    }
+}
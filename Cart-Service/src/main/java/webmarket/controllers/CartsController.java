@@ -1,6 +1,7 @@
 package webmarket.controllers;
 
 import webmarket.model.Cart;
+import webmarket.model.CartView;
 import webmarket.services.CartService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -9,11 +10,22 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import webmarket.cart.CartOperationDto;
 import webmarket.dto.StringResponse;
 
+import java.util.List;
+
 /**
  * The controller defines the methods of working with the bucket.
+ * The version of the basket is returned as ETag by reading the basket and by every change, a request
+ * for the basket with a matching If-None-Match is answered with 304 without reading the basket.
+ * The basket is sent as the ready JSON kept by the storage, without building the basket object.
  */
 @RestController
 @Data
@@ -32,6 +44,7 @@ public class CartsController {
      * http://localhost:5555/cart/api/v1/cart/{uuid}
      * @param username
      * @param uuid
+     * @param webRequest
      * @return Cart
      */
     @GetMapping("/{uuid}")
@@ -41,11 +54,21 @@ public class CartsController {
                     @ApiResponse(
                             description = "Successful response", responseCode = "200",
                             content = @Content(schema = @Schema(implementation = Cart.class))
-                    )
+                    ),
+                    @ApiResponse(description = "The basket has not changed", responseCode = "304")
             }
     )
-    public Cart getCart(@RequestHeader(required = false) String username, @PathVariable String uuid) {
-        return cartService.getCurrentCart(getCurrentCartUuid(username, uuid));
+    public ResponseEntity<byte[]> getCart(@RequestHeader(required = false) String username, @PathVariable String uuid, WebRequest webRequest) {
+        String cartKey = getCurrentCartUuid(username, uuid);
+        if (webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) != null && webRequest.checkNotModified(eTag(cartService.getCartVersion(cartKey)))) {
+            return null;
+        }
+        CartView view = cartService.getCurrentCartView(cartKey);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache())
+                .eTag(eTag(view.getVersion()))
+                .body(view.getJson());
     }
 
     /**
@@ -84,8 +107,8 @@ public class CartsController {
                     )
             }
     )
-    public void add(@RequestHeader(required = false) String username, @PathVariable String uuid, @PathVariable Long productId) {
-        cartService.addToCart(getCurrentCartUuid(username, uuid), productId);
+    public ResponseEntity<Void> add(@RequestHeader(required = false) String username, @PathVariable String uuid, @PathVariable Long productId) {
+        return changed(cartService.addToCart(getCurrentCartUuid(username, uuid), productId));
     }
 
     /**
@@ -105,8 +128,8 @@ public class CartsController {
                     )
             }
     )
-    public void decrement(@RequestHeader(required = false) String username, @PathVariable String uuid, @PathVariable Long productId) {
-        cartService.decrementItem(getCurrentCartUuid(username, uuid), productId);
+    public ResponseEntity<Void> decrement(@RequestHeader(required = false) String username, @PathVariable String uuid, @PathVariable Long productId) {
+        return changed(cartService.decrementItem(getCurrentCartUuid(username, uuid), productId));
     }
 
     /**
@@ -126,8 +149,31 @@ public class CartsController {
                     )
             }
     )
-    public void remove(@RequestHeader(required = false) String username, @PathVariable String uuid, @PathVariable Long productId) {
-        cartService.removeItemFromCart(getCurrentCartUuid(username, uuid), productId);
+    public ResponseEntity<Void> remove(@RequestHeader(required = false) String username, @PathVariable String uuid, @PathVariable Long productId) {
+        return changed(cartService.removeItemFromCart(getCurrentCartUuid(username, uuid), productId));
+    }
+
+    /**
+     * Request to apply several changes to the basket at once.
+     * http://localhost:5555/cart/api/v1/cart/{uuid}/batch
+     * @param username
+     * @param uuid
+     * @param operations
+     * @return Cart
+     */
+    @PostMapping("/{uuid}/batch")
+    @Operation(
+            summary = "Request to apply several changes to the basket at once",
+            responses = {
+                    @ApiResponse(
+                            description = "Successful response", responseCode = "200",
+                            content = @Content(schema = @Schema(implementation = Cart.class))
+                    )
+            }
+    )
+    public ResponseEntity<Cart> batch(@RequestHeader(required = false) String username, @PathVariable String uuid, @RequestBody List<CartOperationDto> operations) {
+        Cart cart = cartService.applyBatch(getCurrentCartUuid(username, uuid), operations);
+        return ResponseEntity.ok().eTag(eTag(cart.getVersion())).body(cart);
     }
 
     /**
@@ -146,8 +192,8 @@ public class CartsController {
                     )
             }
     )
-    public void clear(@RequestHeader(required = false) String username, @PathVariable String uuid) {
-        cartService.clearCart(getCurrentCartUuid(username, uuid));
+    public ResponseEntity<Void> clear(@RequestHeader(required = false) String username, @PathVariable String uuid) {
+        return changed(cartService.clearCart(getCurrentCartUuid(username, uuid)));
     }
 
     /**
@@ -166,11 +212,29 @@ public class CartsController {
                     )
             }
     )
-    public void merge(@RequestHeader(required = false) String username, @PathVariable String uuid) {
-        cartService.merge(
+    public ResponseEntity<Void> merge(@RequestHeader(required = false) String username, @PathVariable String uuid) {
+        return changed(cartService.merge(
                 getCurrentCartUuid(username, null),
                 getCurrentCartUuid(null, uuid)
-        );
+        ));
+    }
+
+    /**
+     * Response to a change of the basket with its new version.
+     * @param version
+     * @return ResponseEntity
+     */
+    private ResponseEntity<Void> changed(long version) {
+        return ResponseEntity.ok().eTag(eTag(version)).build();
+    }
+
+    /**
+     * ETag of the basket version.
+     * @param version
+     * @return String
+     */
+    private String eTag(long version) {
+        return "\"" + version + "\"";
     }
 
     /**
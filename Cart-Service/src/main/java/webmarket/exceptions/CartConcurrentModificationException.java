@@ -0,0 +1,10 @@
+package webmarket.exceptions;
+
+/**
+ * An exception is thrown if the basket could not be changed because of parallel changes of the same basket.
+ */
+public class CartConcurrentModificationException extends RuntimeException {
+    public CartConcurrentModificationException(String message) {
+        super(message);
+    }
+}
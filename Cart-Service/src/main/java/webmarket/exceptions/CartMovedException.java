@@ -0,0 +1,10 @@
+package webmarket.exceptions;
+
+/**
+ * An exception is thrown if the basket could not be read or changed in Redis because it was moved to the database.
+ */
+public class CartMovedException extends CartConcurrentModificationException {
+    public CartMovedException(String message) {
+        super(message);
+    }
+}
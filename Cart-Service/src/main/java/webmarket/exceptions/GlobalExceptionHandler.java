@@ -35,4 +35,26 @@ public class GlobalExceptionHandler {
         log.error(e.getMessage(), e);
         return new ResponseEntity<>(new AppError(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
     }
-}
\ No newline at end of file
+
+    /**
+     * Exception interceptor CartConcurrentModificationException.
+     * @param e CartConcurrentModificationException
+     * @return
+     */
+    @ExceptionHandler
+    public ResponseEntity<AppError> catchCartConcurrentModificationException(CartConcurrentModificationException e) {
+        log.error(e.getMessage(), e);
+        return new ResponseEntity<>(new AppError(HttpStatus.CONFLICT.value(), e.getMessage()), HttpStatus.CONFLICT);
+    }
+
+    /**
+     * Exception interceptor InvalidCartOperationException.
+     * @param e InvalidCartOperationException
+     * @return
+     */
+    @ExceptionHandler
+    public ResponseEntity<AppError> catchInvalidCartOperationException(InvalidCartOperationException e) {
+        log.error(e.getMessage(), e);
+        return new ResponseEntity<>(new AppError(HttpStatus.BAD_REQUEST.value(), e.getMessage()), HttpStatus.BAD_REQUEST);
+    }
+}
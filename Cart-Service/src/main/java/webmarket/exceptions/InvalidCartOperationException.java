@@ -0,0 +1,10 @@
+package webmarket.exceptions;
+
+/**
+ * An exception is thrown if a batch of basket changes contains an invalid change.
+ */
+public class InvalidCartOperationException extends RuntimeException {
+    public InvalidCartOperationException(String message) {
+        super(message);
+    }
+}
@@ -4,10 +4,17 @@ import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import webmarket.core.ProductDto;
 
+import java.util.Collection;
+import java.util.List;
+
 @FeignClient(value = "productService", url = "${integrations.core-service.url}")
 public interface ClientFeignProductService {
     @RequestMapping(method = RequestMethod.GET, value = "/api/v1/products/{id}")
     ProductDto findById(@PathVariable("id") Long id);
+
+    @RequestMapping(method = RequestMethod.GET, value = "/api/v1/products/batch")
+    List<ProductDto> findAllById(@RequestParam("ids") Collection<Long> ids);
 }
\ No newline at end of file
@@ -1,30 +1,292 @@
 package webmarket.integrations;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import feign.FeignException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 import webmarket.core.ProductDto;
+import webmarket.exceptions.BadConnectionServiceException;
+import webmarket.utils.CallGuard;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
  * Responsible for integration with the Core service.
+ * Products are cached in two tiers: a bounded in-process cache with expiration and background refresh,
+ * and optionally a cache in Redis shared by all instances of the service. Copies of the product are dropped
+ * when the Core service reports its change to the ProductChanged topic.
+ * Several products missing from the cache are loaded together: one MGET from the shared cache and
+ * one request to the Core service per batch of ids.
+ * <p>
+ * Requests to the Core service go through a circuit breaker and a bulkhead, so a slow Core service does not
+ * hold the threads of the service. If the request fails or is rejected, the last known copy of the product
+ * is returned; the last known copies are kept longer than the cache and dropped only when the product changes.
  */
 @Data
 @Component
 public class ProductServiceIntegration {
 
+    /**
+     * Prefix of the product keys in the shared cache.
+     */
+    private static final String SHARED_PREFIX = "SPRING_WEB_PRODUCT_";
+
+    /**
+     * The maximum number of products in one request to the Core service.
+     */
+    private static final int BATCH_SIZE = 100;
+
     /**
      * Feign Client Product Service.
      */
     private final ClientFeignProductService productService;
 
     /**
-     * Sends a request to the Core service requests the product by its Id.
+     * Template for working with the shared cache in Redis.
+     */
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    /**
+     * Whether the shared cache in Redis is used.
+     */
+    private final boolean shared;
+
+    /**
+     * The lifetime of the product in the shared cache.
+     */
+    private final Duration sharedTtl;
+
+    /**
+     * In-process product cache.
+     */
+    private final LoadingCache<Long, ProductDto> cache;
+
+    /**
+     * The last known copies of products, returned when the Core service is not available.
+     */
+    private final Cache<Long, ProductDto> lastKnown;
+
+    /**
+     * Protection of the requests to the Core service.
+     */
+    private final CallGuard guard;
+
+    /**
+     * Registry of service metrics.
+     */
+    private final MeterRegistry meterRegistry;
+
+    public ProductServiceIntegration(ClientFeignProductService productService,
+                                     RedisTemplate<String, Object> redisTemplate,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${integrations.core-service.cache.maximum-size}") long maximumSize,
+                                     @Value("${integrations.core-service.cache.expire-after-write}") Duration expireAfterWrite,
+                                     @Value("${integrations.core-service.cache.refresh-after-write}") Duration refreshAfterWrite,
+                                     @Value("${integrations.core-service.cache.shared}") boolean shared,
+                                     @Value("${integrations.core-service.cache.shared-ttl}") Duration sharedTtl,
+                                     @Value("${integrations.core-service.resilience.failure-threshold}") int failureThreshold,
+                                     @Value("${integrations.core-service.resilience.open-duration}") Duration openDuration,
+                                     @Value("${integrations.core-service.resilience.max-concurrent-calls}") int maxConcurrentCalls,
+                                     @Value("${integrations.core-service.resilience.max-wait}") Duration maxWait) {
+        this.productService = productService;
+        this.meterRegistry = meterRegistry;
+        this.redisTemplate = redisTemplate;
+        this.shared = shared;
+        this.sharedTtl = sharedTtl;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .refreshAfterWrite(refreshAfterWrite)
+                .recordStats()
+                .build(new CacheLoader<>() {
+                    @Override
+                    public ProductDto load(Long id) {
+                        ProductDto productDto = findShared(id);
+                        return productDto != null ? productDto : request(id);
+                    }
+
+                    @Override
+                    public Map<Long, ProductDto> loadAll(Iterable<? extends Long> ids) {
+                        return loadProducts(ids);
+                    }
+
+                    @Override
+                    public ProductDto reload(Long id, ProductDto oldValue) {
+                        return request(id);
+                    }
+                });
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "products");
+        this.lastKnown = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+        this.guard = new CallGuard("core-service", failureThreshold, openDuration, maxConcurrentCalls, maxWait,
+                e -> !(e instanceof FeignException f && f.status() >= 400 && f.status() < 500), meterRegistry);
+    }
+
+    /**
+     * Returns the product by its Id, the Core service is requested only if the product is not in the cache.
      * @param id
      * @return
      */
     public Optional <ProductDto> findById(Long id){
-        ProductDto productDto = productService.findById(id);
-        return Optional.of(productDto);
+        return Optional.ofNullable(cache.get(id));
+    }
+
+    /**
+     * Returns the products by their Ids in one lookup, only the products missing from the cache are requested.
+     * @param ids
+     * @return the found products by id
+     */
+    public Map<Long, ProductDto> findAllById(Collection<Long> ids) {
+        return cache.getAll(ids);
+    }
+
+    /**
+     * Drops the cached copies of the product.
+     * @param id
+     */
+    public void evict(Long id) {
+        cache.invalidate(id);
+        lastKnown.invalidate(id);
+        if (shared) {
+            redisTemplate.delete(SHARED_PREFIX + id);
+        }
+    }
+
+    /**
+     * The listener receives messages about product changes from the Core service. Each instance of the service
+     * listens in its own group, so that the copies are dropped in all instances. The group is named after the host
+     * and the port of the instance, so a restarted instance comes back to its group instead of leaving a new one
+     * in the broker after every start.
+     * @param product
+     */
+    @KafkaListener(topics = "ProductChanged", groupId = "${integrations.core-service.cache.changes-group}")
+    public void productChanged(ProductDto product) {
+        evict(product.getId());
+    }
+
+    /**
+     * Sends a request to the Core service requests the product by its Id and puts it in the shared cache.
+     * @param id
+     * @return the product or null if it is not found
+     */
+    private ProductDto request(Long id) {
+        ProductDto productDto;
+        try {
+            productDto = guard.call(() -> productService.findById(id));
+        } catch (FeignException.NotFound e) {
+            return null;
+        } catch (CallGuard.CallRejectedException | FeignException e) {
+            return fallback(List.of(id), e).get(id);
+        }
+        if (productDto == null) {
+            return null;
+        }
+        lastKnown.put(id, productDto);
+        if (shared) {
+            redisTemplate.opsForValue().set(SHARED_PREFIX + id, productDto, sharedTtl);
+        }
+        return productDto;
+    }
+
+    /**
+     * Loads the products missing from the in-process cache, first from the shared cache and then the rest
+     * from the Core service in batches.
+     * @param ids
+     * @return the found products by id
+     */
+    private Map<Long, ProductDto> loadProducts(Iterable<? extends Long> ids) {
+        List<Long> missing = new ArrayList<>();
+        ids.forEach(missing::add);
+        Map<Long, ProductDto> products = new HashMap<>();
+        if (shared) {
+            List<Object> cached = redisTemplate.opsForValue().multiGet(missing.stream().map(id -> SHARED_PREFIX + id).toList());
+            List<Long> notCached = new ArrayList<>();
+            for (int i = 0; i < missing.size(); i++) {
+                Object productDto = cached != null ? cached.get(i) : null;
+                if (productDto != null) {
+                    products.put(missing.get(i), (ProductDto) productDto);
+                    lastKnown.put(missing.get(i), (ProductDto) productDto);
+                } else {
+                    notCached.add(missing.get(i));
+                }
+            }
+            missing = notCached;
+        }
+        List<ProductDto> requested = new ArrayList<>();
+        for (int from = 0; from < missing.size(); from += BATCH_SIZE) {
+            List<Long> batch = missing.subList(from, Math.min(from + BATCH_SIZE, missing.size()));
+            try {
+                requested.addAll(guard.call(() -> productService.findAllById(batch)));
+            } catch (CallGuard.CallRejectedException | FeignException e) {
+                products.putAll(fallback(batch, e));
+            }
+        }
+        for (ProductDto productDto : requested) {
+            products.put(productDto.getId(), productDto);
+            lastKnown.put(productDto.getId(), productDto);
+        }
+        if (shared && !requested.isEmpty()) {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, Object> productOperations = (RedisOperations<String, Object>) operations;
+                    for (ProductDto productDto : requested) {
+                        productOperations.opsForValue().set(SHARED_PREFIX + productDto.getId(), productDto, sharedTtl);
+                    }
+                    return null;
+                }
+            });
+        }
+        return products;
+    }
+
+    /**
+     * Returns the product from the shared cache.
+     * @param id
+     * @return the product or null if it is not in the cache
+     */
+    private ProductDto findShared(Long id) {
+        ProductDto productDto = shared ? (ProductDto) redisTemplate.opsForValue().get(SHARED_PREFIX + id) : null;
+        if (productDto != null) {
+            lastKnown.put(id, productDto);
+        }
+        return productDto;
+    }
+
+    /**
+     * Returns the last known copies of the products that could not be requested from the Core service.
+     * @param ids
+     * @param e the failure of the request
+     * @return the products by id
+     * @throws BadConnectionServiceException if some of the products have no known copy
+     */
+    private Map<Long, ProductDto> fallback(List<Long> ids, RuntimeException e) {
+        Map<Long, ProductDto> products = lastKnown.getAllPresent(ids);
+        if (products.size() < ids.size()) {
+            meterRegistry.counter("cart.integration.fallbacks", "service", "core-service", "outcome", "missing").increment();
+            throw new BadConnectionServiceException("The Core service is not available: " + e.getMessage(),
+                    BadConnectionServiceException.CartServiceErrors.SERVICE_SHUTDOWN);
+        }
+        meterRegistry.counter("cart.integration.fallbacks", "service", "core-service", "outcome", "stale").increment();
+        return products;
     }
 }
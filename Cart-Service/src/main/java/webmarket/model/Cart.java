@@ -1,35 +1,132 @@
 package webmarket.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import io.swagger.v3.oas.annotations.media.Schema;
-import lombok.Data;
+import webmarket.cart.CartOperationDto;
+import webmarket.core.Money;
 import webmarket.core.ProductDto;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Basket model.
+ * Positions are kept in an index by product id in the order of addition, and the cost of the basket
+ * is changed by the difference of each change instead of being recalculated from all positions.
+ * The cost is kept as Money and converted to BigDecimal only for the response.
  */
-@Data
 @Schema(description = "Корзина продуктов")
+@JsonIgnoreProperties(value = "totalPrice", allowGetters = true)
 public class Cart {
 
+    /**
+     * Positions of the basket by product id.
+     */
+    private final Map<Long, CartItem> items = new LinkedHashMap<>();
+
+    /**
+     * Basket price.
+     */
+    private Money totalPrice = Money.ZERO;
+
+    /**
+     * The version of the basket in the storage, it is not stored in the basket itself.
+     */
+    private long version;
+
+    /**
+     * The products whose units were added by the changes applied to this copy of the basket, one entry per change,
+     * it is not stored in the basket itself.
+     */
+    private List<Long> addedProducts = new ArrayList<>();
+
+    public Cart() {
+    }
+
+    /**
+     * Assembles the basket from ready-made positions and calculates its cost.
+     * @param items
+     */
+    public Cart(List<CartItem> items) {
+        setItems(items);
+    }
+
     /**
      * List of products.
+     * @return List
      */
     @Schema(description = "Список продуктов", required = true)
-    private List<CartItem> items;
+    public List<CartItem> getItems() {
+        return new ArrayList<>(items.values());
+    }
+
+    /**
+     * Replaces the positions of the basket and calculates its cost.
+     * @param items
+     */
+    public void setItems(List<CartItem> items) {
+        this.items.clear();
+        for (CartItem item : items) {
+            this.items.put(item.getProductId(), item);
+        }
+        recalculate();
+    }
 
     /**
      * Basket price.
+     * @return BigDecimal
      */
     @Schema(description = "Цена корзины", required = true, example = "122.21")
-    private BigDecimal totalPrice;
+    public BigDecimal getTotalPrice() {
+        return totalPrice.toBigDecimal();
+    }
 
-    public Cart() {
-        this.items = new ArrayList<>();
+    /**
+     * The cost of the basket.
+     * @return Money
+     */
+    @JsonIgnore
+    public Money getTotal() {
+        return totalPrice;
+    }
+
+    /**
+     * The version of the basket.
+     * @return long
+     */
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * The products whose units were added by the applied changes.
+     * @return List
+     */
+    @JsonIgnore
+    public List<Long> getAddedProducts() {
+        return addedProducts;
+    }
+
+    public void setAddedProducts(List<Long> addedProducts) {
+        this.addedProducts = addedProducts;
+    }
+
+    /**
+     * Whether the basket has no positions.
+     * @return boolean
+     */
+    @JsonIgnore
+    public boolean isEmpty() {
+        return items.isEmpty();
     }
 
     /**
@@ -40,19 +137,34 @@ public class Cart {
         if (add(productDto.getId())) {
             return;
         }
-        items.add(new CartItem(productDto));
-        recalculate();
+        CartItem item = new CartItem(productDto);
+        items.put(item.getProductId(), item);
+        totalPrice = totalPrice.plus(item.getLinePrice());
+    }
+
+    /**
+     * Adds units of the product to the cart.
+     * @param productDto
+     * @param quantity
+     */
+    public void add(ProductDto productDto, int quantity) {
+        CartItem item = items.get(productDto.getId());
+        if (item != null) {
+            totalPrice = totalPrice.plus(item.changeQuantity(quantity));
+            return;
+        }
+        item = new CartItem(productDto.getId(), productDto.getName(), quantity, Money.of(productDto.getPrice()));
+        items.put(item.getProductId(), item);
+        totalPrice = totalPrice.plus(item.getLinePrice());
     }
 
     public boolean add(Long id) {
-        for (CartItem o : items) {
-            if (o.getProductId().equals(id)) {
-                o.changeQuantity(1);
-                recalculate();
-                return true;
-            }
+        CartItem item = items.get(id);
+        if (item == null) {
+            return false;
         }
-        return false;
+        totalPrice = totalPrice.plus(item.changeQuantity(1));
+        return true;
     }
 
     /**
@@ -60,18 +172,74 @@ public class Cart {
      * @param productId
      */
     public void decrement(Long productId) {
-        Iterator<CartItem> iter = items.iterator();
-        while (iter.hasNext()) {
-            CartItem o = iter.next();
-            if (o.getProductId().equals(productId)) {
-                o.changeQuantity(-1);
-                if (o.getQuantity() <= 0) {
-                    iter.remove();
+        decrement(productId, 1);
+    }
+
+    /**
+     * Reduces the number of products in the product position by several units.
+     * @param productId
+     * @param quantity
+     */
+    public void decrement(Long productId, int quantity) {
+        CartItem item = items.get(productId);
+        if (item == null) {
+            return;
+        }
+        totalPrice = totalPrice.plus(item.changeQuantity(-quantity));
+        if (item.getQuantity() <= 0) {
+            remove(productId);
+        }
+    }
+
+    /**
+     * Sets the number of units of the product, the position is removed if the number is zero.
+     * @param productDto
+     * @param quantity
+     */
+    public void setQuantity(ProductDto productDto, int quantity) {
+        CartItem item = items.get(productDto.getId());
+        if (quantity <= 0) {
+            remove(productDto.getId());
+        } else if (item != null) {
+            totalPrice = totalPrice.plus(item.changeQuantity(quantity - item.getQuantity()));
+        } else {
+            add(productDto, quantity);
+        }
+    }
+
+    /**
+     * Applies one change of a batch request and records the product if the change added its units.
+     * @param operation
+     * @param productDto the product of the change, needed only to add units or set a positive number
+     */
+    public void apply(CartOperationDto operation, ProductDto productDto) {
+        int before = quantity(operation.getProductId());
+        switch (operation.getType()) {
+            case ADD -> add(productDto, operation.getQuantity());
+            case DECREMENT -> decrement(operation.getProductId(), operation.getQuantity());
+            case SET -> {
+                if (operation.getQuantity() > 0) {
+                    setQuantity(productDto, operation.getQuantity());
+                } else {
+                    remove(operation.getProductId());
                 }
-                recalculate();
-                return;
             }
+            case REMOVE -> remove(operation.getProductId());
+            case CLEAR -> clear();
         }
+        if (quantity(operation.getProductId()) > before) {
+            addedProducts.add(operation.getProductId());
+        }
+    }
+
+    /**
+     * The number of units of the product in the basket.
+     * @param productId
+     * @return the number of units, 0 if the product is not in the basket
+     */
+    private int quantity(Long productId) {
+        CartItem item = items.get(productId);
+        return item != null ? item.getQuantity() : 0;
     }
 
     /**
@@ -79,8 +247,10 @@ public class Cart {
      * @param productId
      */
     public void remove(Long productId) {
-        items.removeIf(o -> o.getProductId().equals(productId));
-        recalculate();
+        CartItem item = items.remove(productId);
+        if (item != null) {
+            totalPrice = totalPrice.minus(item.getLinePrice());
+        }
     }
 
     /**
@@ -88,39 +258,48 @@ public class Cart {
      */
     public void clear() {
         items.clear();
-        totalPrice = BigDecimal.ZERO;
+        totalPrice = totalPrice.zero();
     }
 
     /**
      * Recalculates the total cost of the basket.
      */
     private void recalculate() {
-        totalPrice = BigDecimal.ZERO;
-        for (CartItem o : items) {
-            totalPrice = totalPrice.add(o.getPrice());
+        totalPrice = totalPrice.zero();
+        for (CartItem o : items.values()) {
+            totalPrice = totalPrice.plus(o.getLinePrice());
         }
     }
 
+    /**
+     * Returns a copy of the basket with copies of its positions.
+     * @return Cart
+     */
+    public Cart copy() {
+        Cart copy = new Cart();
+        for (CartItem item : items.values()) {
+            copy.items.put(item.getProductId(), new CartItem(item.getProductId(), item.getProductName(), item.getQuantity(), item.getUnitPrice()));
+        }
+        copy.totalPrice = totalPrice;
+        copy.version = version;
+        return copy;
+    }
+
     /**
      * Combines data from the trash of an unregistered user
      * with the basket of the registered user.
      * @param another
      */
     public void merge(Cart another) {
-        for (CartItem anotherItem : another.items) {
-            boolean merged = false;
-            for (CartItem myItem : items) {
-                if (myItem.getProductId().equals(anotherItem.getProductId())) {
-                    myItem.changeQuantity(anotherItem.getQuantity());
-                    merged = true;
-                    break;
-                }
-            }
-            if (!merged) {
-                items.add(anotherItem);
+        for (CartItem anotherItem : another.items.values()) {
+            CartItem myItem = items.get(anotherItem.getProductId());
+            if (myItem != null) {
+                totalPrice = totalPrice.plus(myItem.changeQuantity(anotherItem.getQuantity()));
+            } else {
+                items.put(anotherItem.getProductId(), anotherItem);
+                totalPrice = totalPrice.plus(anotherItem.getLinePrice());
             }
         }
-        recalculate();
         another.clear();
     }
-}
\ No newline at end of file
+}
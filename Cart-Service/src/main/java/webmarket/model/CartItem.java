@@ -1,20 +1,25 @@
 package webmarket.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import io.swagger.v3.oas.annotations.media.Schema;
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import webmarket.core.Money;
 import webmarket.core.ProductDto;
 
 import java.math.BigDecimal;
 
 /**
  * The model of the position in the basket.
+ * Prices are kept as Money and converted to BigDecimal only for the response.
  */
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 @Schema(description = "Позиция в списке корзины")
+@JsonIgnoreProperties(value = "price", allowGetters = true)
+@JsonPropertyOrder({"productId", "productName", "quantity", "pricePerProduct", "price"})
 public class CartItem {
 
     /**
@@ -38,29 +43,61 @@ public class CartItem {
     /**
      * Price per unit of product.
      */
+    @JsonIgnore
+    private Money unitPrice;
+
+    public CartItem(ProductDto productDto) {
+        this.productId = productDto.getId();
+        this.productName = productDto.getName();
+        this.quantity = 1;
+        this.unitPrice = Money.of(productDto.getPrice());
+    }
+
+    public CartItem(Long productId, String productName, int quantity, Money unitPrice) {
+        this.productId = productId;
+        this.productName = productName;
+        this.quantity = quantity;
+        this.unitPrice = unitPrice;
+    }
+
+    /**
+     * Price per unit of product.
+     * @return BigDecimal
+     */
     @Schema(description = "Цена за одну единицу продукта", required = true, example = "122.21")
-    private BigDecimal pricePerProduct;
+    public BigDecimal getPricePerProduct() {
+        return unitPrice.toBigDecimal();
+    }
+
+    public void setPricePerProduct(BigDecimal pricePerProduct) {
+        this.unitPrice = Money.of(pricePerProduct);
+    }
 
     /**
      * The price per unit of product multiplied by the quantity.
+     * @return BigDecimal
      */
     @Schema(description = "Цена за одну единицу продукта умноженную на колличество", required = true, example = "855.47")
-    private BigDecimal price;
+    public BigDecimal getPrice() {
+        return getLinePrice().toBigDecimal();
+    }
 
-    public CartItem(ProductDto productDto) {
-        this.productId = productDto.getId();
-        this.productName = productDto.getName();
-        this.quantity = 1;
-        this.pricePerProduct = productDto.getPrice();
-        this.price = productDto.getPrice();
+    /**
+     * The price of the position.
+     * @return Money
+     */
+    @JsonIgnore
+    public Money getLinePrice() {
+        return unitPrice.times(quantity);
     }
 
     /**
      * Changes the quantity of the product.
      * @param delta
+     * @return the change of the position price
      */
-    public void changeQuantity(int delta) {
+    public Money changeQuantity(int delta) {
         this.quantity += delta;
-        this.price = this.pricePerProduct.multiply(BigDecimal.valueOf(this.quantity));
+        return unitPrice.times(delta);
     }
 }
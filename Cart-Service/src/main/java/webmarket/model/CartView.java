@@ -0,0 +1,22 @@
+package webmarket.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The basket as the ready JSON of the response together with its version.
+ */
+@Getter
+@RequiredArgsConstructor
+public class CartView {
+
+    /**
+     * The version of the basket.
+     */
+    private final long version;
+
+    /**
+     * JSON of the basket in the form of the response.
+     */
+    private final byte[] json;
+}
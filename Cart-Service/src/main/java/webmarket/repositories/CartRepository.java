@@ -0,0 +1,112 @@
+package webmarket.repositories;
+
+import webmarket.cart.CartOperationDto;
+import webmarket.core.ProductDto;
+import webmarket.model.Cart;
+import webmarket.model.CartView;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of user baskets in Redis. The way the basket is laid out in the database
+ * is selected by the utils.cart.storage property.
+ * Every change increases the version of the basket and returns the new version.
+ */
+public interface CartRepository {
+
+    /**
+     * The version passed to a conditional write that is made whatever the version of the basket is.
+     */
+    long ANY_VERSION = -1;
+
+    /**
+     * Returns the basket by its key.
+     * @param cartKey
+     * @return Cart
+     */
+    Cart findByKey(String cartKey);
+
+    /**
+     * Returns the basket as the ready JSON of the response, if the storage keeps it.
+     * @param cartKey
+     * @return CartView or null if the storage has no ready JSON of the basket
+     */
+    CartView findView(String cartKey);
+
+    /**
+     * Returns the version of the basket without reading the basket.
+     * @param cartKey
+     * @return the version, 0 if the basket has never been changed
+     */
+    long findVersion(String cartKey);
+
+    /**
+     * Adds one unit of the product to the basket.
+     * @param cartKey
+     * @param productDto
+     * @return the version of the basket
+     */
+    long add(String cartKey, ProductDto productDto);
+
+    /**
+     * Reduces the number of products in the product position.
+     * @param cartKey
+     * @param productId
+     * @return the version of the basket
+     */
+    long decrement(String cartKey, Long productId);
+
+    /**
+     * Removes the product position from the basket.
+     * @param cartKey
+     * @param productId
+     * @return the version of the basket
+     */
+    long remove(String cartKey, Long productId);
+
+    /**
+     * Clears the basket.
+     * @param cartKey
+     * @return the version of the basket
+     */
+    long clear(String cartKey);
+
+    /**
+     * Applies the changes to the basket in order in one atomic write.
+     * @param cartKey
+     * @param operations
+     * @param products the products of the changes that add units, by id
+     * @return the basket after the changes with its version
+     */
+    Cart apply(String cartKey, List<CartOperationDto> operations, Map<Long, ProductDto> products);
+
+    /**
+     * Moves the positions of the guest basket to the basket of the registered user and deletes the guest basket
+     * in one atomic step, so a parallel change of either basket is not lost.
+     * @param userCartKey
+     * @param guestCartKey
+     * @return the version of the user basket
+     */
+    long merge(String userCartKey, String guestCartKey);
+
+    /**
+     * Overwrites the basket entirely.
+     * @param cartKey
+     * @param cart
+     * @return the version of the basket
+     */
+    default long save(String cartKey, Cart cart) {
+        return save(cartKey, cart, ANY_VERSION);
+    }
+
+    /**
+     * Overwrites the basket entirely if its version is still the expected one, checked in the same atomic step
+     * as the write.
+     * @param cartKey
+     * @param cart
+     * @param expectedVersion the version the basket must have, ANY_VERSION to write it anyway
+     * @return the version of the basket, -1 if the basket has another version and was not written
+     */
+    long save(String cartKey, Cart cart, long expectedVersion);
+}
@@ -0,0 +1,140 @@
+package webmarket.repositories;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Repository;
+import webmarket.exceptions.CartMovedException;
+import webmarket.utils.CartExpiration;
+
+import java.util.List;
+
+/**
+ * Versions of baskets. The version is a counter in a separate key, it is increased by every change
+ * of the basket in the same request as the change, so it can be checked without reading the basket itself.
+ * The key of the version lives as long as the basket and is not removed when the basket is cleared,
+ * so the version never goes back.
+ */
+@Repository
+@RequiredArgsConstructor
+public class CartVersionRepository {
+
+    /**
+     * The prefix of the version key. It is placed before the basket key, so that versions are not
+     * taken for baskets when walking the keys of baskets.
+     */
+    private static final String PREFIX = "VERSION_";
+
+    /**
+     * The prefix of the mark of a basket moved to the database. The value of the mark is the version of the basket
+     * that was moved.
+     */
+    private static final String MOVED_PREFIX = "COLD_";
+
+    /**
+     * The result of a script of a basket that was moved to the database, nothing is read or written then.
+     */
+    public static final long MOVED = -2;
+
+    /**
+     * Template for working with Redis.
+     */
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * Lifetime of baskets.
+     */
+    private final CartExpiration cartExpiration;
+
+    /**
+     * Script for raising the version.
+     */
+    private final RedisScript<Long> raiseScript = RedisScript.of(new ClassPathResource("scripts/cart-version-raise.lua"), Long.class);
+
+    /**
+     * Returns the key of the basket version.
+     * @param cartKey
+     * @return String
+     */
+    public String key(String cartKey) {
+        return PREFIX + cartKey;
+    }
+
+    /**
+     * Returns the key of the mark of the basket moved to the database. Every read and write of the basket checks
+     * the mark in the same request, so a basket is never served or written in Redis while it is in the database.
+     * @param cartKey
+     * @return String
+     */
+    public String movedKey(String cartKey) {
+        return MOVED_PREFIX + cartKey;
+    }
+
+    /**
+     * Checks the result of a read or write of the basket.
+     * @param cartKey
+     * @param result the version returned by the request
+     * @return the version
+     * @throws CartMovedException if the basket was moved to the database
+     */
+    public long checkMoved(String cartKey, long result) {
+        if (result == MOVED) {
+            throw moved(cartKey);
+        }
+        return result;
+    }
+
+    /**
+     * The exception of the basket moved to the database.
+     * @param cartKey
+     * @return CartMovedException
+     */
+    public CartMovedException moved(String cartKey) {
+        return new CartMovedException("The basket is moved to the database: " + cartKey);
+    }
+
+    /**
+     * Returns the version of the basket and renews the lifetime of the basket, its version and its related keys.
+     * @param cartKey
+     * @param relatedKeys keys stored together with the basket, for example its snapshot
+     * @return the version, 0 if the basket has never been changed
+     * @throws CartMovedException if the basket was moved to the database
+     */
+    public long find(String cartKey, String... relatedKeys) {
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        byte[] key = serializer.serialize(cartKey);
+        byte[] versionKey = serializer.serialize(key(cartKey));
+        long ttl = cartExpiration.ttl(cartKey).toMillis();
+        byte[] movedKey = serializer.serialize(movedKey(cartKey));
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(versionKey);
+            connection.keyCommands().pExpire(versionKey, ttl);
+            connection.keyCommands().pExpire(key, ttl);
+            connection.keyCommands().exists(movedKey);
+            for (String relatedKey : relatedKeys) {
+                connection.keyCommands().pExpire(serializer.serialize(relatedKey), ttl);
+            }
+            return null;
+        });
+        if (Boolean.TRUE.equals(results.get(3))) {
+            throw moved(cartKey);
+        }
+        Object version = results.get(0);
+        return version != null ? Long.parseLong((String) version) : 0;
+    }
+
+    /**
+     * Raises the version of the basket to the given one, if the version in Redis is lower.
+     * @param cartKey
+     * @param version
+     * @return the version of the basket
+     */
+    public long raise(String cartKey, long version) {
+        Long raised = redisTemplate.execute(raiseScript, List.of(key(cartKey)),
+                String.valueOf(version), String.valueOf(cartExpiration.ttl(cartKey).toMillis()));
+        return raised != null ? raised : version;
+    }
+}
@@ -0,0 +1,78 @@
+package webmarket.repositories;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import webmarket.model.Cart;
+import webmarket.serializers.CartRedisSerializer;
+
+import java.util.List;
+
+/**
+ * Long-idle baskets in the relational database. A basket is kept as one row with its version and
+ * the basket in the compact binary format, the same as in Redis.
+ */
+@Repository
+@ConditionalOnProperty(name = "utils.cart.tiering.enabled", havingValue = "true")
+public class ColdCartRepository {
+
+    /**
+     * Template for requests to the database.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Serializer of baskets.
+     */
+    private final CartRedisSerializer serializer;
+
+    public ColdCartRepository(JdbcTemplate jdbcTemplate,
+                              @Value("${utils.cart.compression-threshold}") int compressionThreshold) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.serializer = new CartRedisSerializer(compressionThreshold);
+    }
+
+    /**
+     * Returns the basket with its version.
+     * @param cartKey
+     * @return Cart or null if the basket is not in the database
+     */
+    public Cart find(String cartKey) {
+        List<Cart> carts = jdbcTemplate.query("select version, cart from cold_carts where cart_key = ?", (rs, i) -> {
+            Cart cart = (Cart) serializer.deserialize(rs.getBytes("cart"));
+            cart.setVersion(rs.getLong("version"));
+            return cart;
+        }, cartKey);
+        return carts.isEmpty() ? null : carts.get(0);
+    }
+
+    /**
+     * Saves the basket, replacing the basket saved before.
+     * @param cartKey
+     * @param cart
+     */
+    public void save(String cartKey, Cart cart) {
+        jdbcTemplate.update("insert into cold_carts (cart_key, version, cart, demoted_at) values (?, ?, ?, current_timestamp) " +
+                        "on conflict (cart_key) do update set version = excluded.version, cart = excluded.cart, demoted_at = excluded.demoted_at",
+                cartKey, cart.getVersion(), serializer.serialize(cart));
+    }
+
+    /**
+     * Removes the basket if it is still the given version, so a basket saved again meanwhile is kept.
+     * @param cartKey
+     * @param version
+     */
+    public void delete(String cartKey, long version) {
+        jdbcTemplate.update("delete from cold_carts where cart_key = ? and version = ?", cartKey, version);
+    }
+
+    /**
+     * Returns the number of baskets in the database.
+     * @return long
+     */
+    public long count() {
+        Long count = jdbcTemplate.queryForObject("select count(*) from cold_carts", Long.class);
+        return count != null ? count : 0;
+    }
+}
@@ -0,0 +1,281 @@
+package webmarket.repositories;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Repository;
+import webmarket.cart.CartOperationDto;
+import webmarket.core.Money;
+import webmarket.core.ProductDto;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+import webmarket.model.CartView;
+import webmarket.utils.CartExpiration;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores the basket as a Redis hash. Each position takes two fields: {productId} keeps the quantity
+ * and {productId}:item keeps the order of addition, the price per unit and the name of the product.
+ * Changing the quantity is an atomic increment of one field, so each command is one request to Redis
+ * and only the affected position is written. Every read and write renews the lifetime of the basket
+ * in the same request, and every write increases the version of the basket in the same request.
+ * The ready JSON of the basket is not stored, the basket is read from the fields.
+ */
+@Repository
+@ConditionalOnProperty(name = "utils.cart.storage", havingValue = "hash")
+public class HashCartRepository implements CartRepository {
+
+    /**
+     * The suffix of the field with the description of the position.
+     */
+    private static final String ITEM_SUFFIX = ":item";
+
+    /**
+     * The prefix of the service fields of the basket.
+     */
+    private static final String SERVICE_PREFIX = "#";
+
+    /**
+     * Template for working with Redis.
+     */
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * Lifetime of baskets.
+     */
+    private final CartExpiration cartExpiration;
+
+    /**
+     * Versions of baskets.
+     */
+    private final CartVersionRepository versions;
+
+    /**
+     * Script for adding units of the product.
+     */
+    private final RedisScript<Long> addScript;
+
+    /**
+     * Script for reducing the number of units of the product.
+     */
+    private final RedisScript<Long> decrementScript;
+
+    /**
+     * Script for removing the position or the whole basket.
+     */
+    private final RedisScript<Long> removeScript;
+
+    /**
+     * Script for moving the guest basket to the user basket.
+     */
+    private final RedisScript<Long> mergeScript;
+
+    /**
+     * Script for applying a batch of changes.
+     */
+    private final RedisScript<List> batchScript;
+
+    /**
+     * Script for overwriting the basket.
+     */
+    private final RedisScript<Long> saveScript;
+
+    public HashCartRepository(StringRedisTemplate redisTemplate, CartExpiration cartExpiration, CartVersionRepository versions) {
+        this.redisTemplate = redisTemplate;
+        this.cartExpiration = cartExpiration;
+        this.versions = versions;
+        this.addScript = script("scripts/cart-add.lua", Long.class);
+        this.decrementScript = script("scripts/cart-decrement.lua", Long.class);
+        this.removeScript = script("scripts/cart-remove.lua", Long.class);
+        this.mergeScript = script("scripts/cart-merge.lua", Long.class);
+        this.batchScript = script("scripts/cart-batch.lua", List.class);
+        this.saveScript = script("scripts/cart-save.lua", Long.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Cart findByKey(String cartKey) {
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        byte[] key = serializer.serialize(cartKey);
+        byte[] versionKey = serializer.serialize(versions.key(cartKey));
+        long ttl = cartExpiration.ttl(cartKey).toMillis();
+        byte[] movedKey = serializer.serialize(versions.movedKey(cartKey));
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(versionKey);
+            connection.hashCommands().hGetAll(key);
+            connection.keyCommands().pExpire(key, ttl);
+            connection.keyCommands().pExpire(versionKey, ttl);
+            connection.keyCommands().exists(movedKey);
+            return null;
+        });
+        if (Boolean.TRUE.equals(results.get(4))) {
+            throw versions.moved(cartKey);
+        }
+        Cart cart = toCart((Map<Object, Object>) results.get(1));
+        cart.setVersion(results.get(0) != null ? Long.parseLong((String) results.get(0)) : 0);
+        return cart;
+    }
+
+    @Override
+    public CartView findView(String cartKey) {
+        return null;
+    }
+
+    @Override
+    public long findVersion(String cartKey) {
+        return versions.find(cartKey);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Cart apply(String cartKey, List<CartOperationDto> operations, Map<Long, ProductDto> products) {
+        List<String> args = new ArrayList<>(1 + operations.size() * 5);
+        args.add(ttl(cartKey));
+        for (CartOperationDto operation : operations) {
+            ProductDto productDto = products.get(operation.getProductId());
+            args.add(operation.getType().name());
+            args.add(String.valueOf(operation.getProductId()));
+            args.add(String.valueOf(operation.getQuantity()));
+            args.add(productDto != null ? Money.of(productDto.getPrice()).toBigDecimal().toPlainString() : "");
+            args.add(productDto != null ? productDto.getName() : "");
+        }
+        List<Object> values = redisTemplate.execute(batchScript, keys(cartKey), args.toArray());
+        versions.checkMoved(cartKey, (Long) values.get(0));
+        Map<Object, Object> fields = new HashMap<>();
+        for (int i = 2; i + 1 < values.size(); i += 2) {
+            fields.put(values.get(i), values.get(i + 1));
+        }
+        Cart cart = toCart(fields);
+        cart.setVersion(Long.parseLong(String.valueOf(values.get(0))));
+        for (Object productId : (List<Object>) values.get(1)) {
+            cart.getAddedProducts().add(Long.valueOf((String) productId));
+        }
+        return cart;
+    }
+
+    /**
+     * Assembles the basket from the fields of the hash.
+     * @param fields
+     * @return Cart
+     */
+    private Cart toCart(Map<Object, Object> fields) {
+        Map<String, Integer> quantities = new HashMap<>();
+        Map<String, String[]> descriptions = new HashMap<>();
+        for (Map.Entry<Object, Object> field : fields.entrySet()) {
+            String name = (String) field.getKey();
+            if (name.startsWith(SERVICE_PREFIX)) {
+                continue;
+            }
+            if (name.endsWith(ITEM_SUFFIX)) {
+                descriptions.put(name.substring(0, name.length() - ITEM_SUFFIX.length()), ((String) field.getValue()).split("\\|", 3));
+            } else {
+                quantities.put(name, Integer.valueOf((String) field.getValue()));
+            }
+        }
+        Map<Long, CartItem> items = new TreeMap<>();
+        descriptions.forEach((productId, description) -> {
+            Integer quantity = quantities.get(productId);
+            if (quantity != null && quantity > 0) {
+                items.put(Long.valueOf(description[0]), new CartItem(Long.valueOf(productId), description[2], quantity,
+                        Money.of(new BigDecimal(description[1]))));
+            }
+        });
+        return new Cart(new ArrayList<>(items.values()));
+    }
+
+    @Override
+    public long add(String cartKey, ProductDto productDto) {
+        return add(cartKey, productDto.getId(), 1, Money.of(productDto.getPrice()), productDto.getName());
+    }
+
+    @Override
+    public long decrement(String cartKey, Long productId) {
+        return versions.checkMoved(cartKey, redisTemplate.execute(decrementScript, keys(cartKey), productId.toString(), ttl(cartKey)));
+    }
+
+    @Override
+    public long remove(String cartKey, Long productId) {
+        return versions.checkMoved(cartKey, redisTemplate.execute(removeScript, keys(cartKey), productId.toString(), ttl(cartKey)));
+    }
+
+    @Override
+    public long clear(String cartKey) {
+        return versions.checkMoved(cartKey, redisTemplate.execute(removeScript, keys(cartKey), "", ttl(cartKey)));
+    }
+
+    @Override
+    public long merge(String userCartKey, String guestCartKey) {
+        return versions.checkMoved(userCartKey, redisTemplate.execute(mergeScript, List.of(userCartKey, guestCartKey,
+                versions.key(userCartKey), versions.key(guestCartKey), versions.movedKey(userCartKey)), ttl(userCartKey), ttl(guestCartKey)));
+    }
+
+    @Override
+    public long save(String cartKey, Cart cart, long expectedVersion) {
+        List<String> args = new ArrayList<>(2 + cart.getItems().size() * 4);
+        args.add(expectedVersion != ANY_VERSION ? Long.toString(expectedVersion) : "");
+        args.add(ttl(cartKey));
+        for (CartItem item : cart.getItems()) {
+            args.add(item.getProductId().toString());
+            args.add(Integer.toString(item.getQuantity()));
+            args.add(item.getUnitPrice().toBigDecimal().toPlainString());
+            args.add(item.getProductName());
+        }
+        return versions.checkMoved(cartKey, redisTemplate.execute(saveScript, keys(cartKey), args.toArray()));
+    }
+
+    /**
+     * Adds units of the product to the position in one request.
+     * @param cartKey
+     * @param productId
+     * @param quantity
+     * @param unitPrice
+     * @param productName
+     * @return the new version of the basket
+     */
+    private long add(String cartKey, Long productId, int quantity, Money unitPrice, String productName) {
+        return versions.checkMoved(cartKey, redisTemplate.execute(addScript, keys(cartKey),
+                productId.toString(), Integer.toString(quantity), unitPrice.toBigDecimal().toPlainString(), productName, ttl(cartKey)));
+    }
+
+    /**
+     * Returns the keys of the basket for the scripts: the basket, its version and the mark of the basket moved
+     * to the database.
+     * @param cartKey
+     * @return List
+     */
+    private List<String> keys(String cartKey) {
+        return List.of(cartKey, versions.key(cartKey), versions.movedKey(cartKey));
+    }
+
+    /**
+     * Returns the lifetime of the basket in milliseconds for the scripts.
+     * @param cartKey
+     * @return String
+     */
+    private String ttl(String cartKey) {
+        return Long.toString(cartExpiration.ttl(cartKey).toMillis());
+    }
+
+    /**
+     * Loads the Lua script from the resources.
+     * @param path
+     * @param resultType
+     * @return RedisScript
+     */
+    private static <T> RedisScript<T> script(String path, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(resultType);
+        return script;
+    }
+}
@@ -0,0 +1,327 @@
+package webmarket.repositories;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+import webmarket.cart.CartOperationDto;
+import webmarket.core.ProductDto;
+import webmarket.model.Cart;
+import webmarket.model.CartView;
+import webmarket.serializers.CartJsonView;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the hot baskets in the memory of the instance in front of the storage of baskets. The gateway routes
+ * all the requests of a basket to the same instance, so the instance owns the baskets it keeps and reads
+ * of the basket in a burst of requests are served from memory without accessing Redis.
+ * <p>
+ * Changes are applied in memory and written to the storage behind: the changed baskets are written
+ * periodically, several changes of a basket between two writes are written once as the last state.
+ * Every change increases the version in memory, and the version in Redis is raised to it on the write,
+ * so the version the client got as ETag is not issued again for another state of the basket.
+ * <p>
+ * The write is conditional: the basket is written only if its version in Redis is still the version the state
+ * in memory is based on. If the basket was changed meanwhile by another instance, for example merged into
+ * the user basket by the instance of the user, the outdated state is not written over it and is dropped
+ * from memory.
+ * <p>
+ * If the instance stops, the baskets are written out; if another instance takes over the baskets,
+ * it loads them from Redis. A basket is kept in memory only while it is requested, so an instance that gets
+ * the basket back after a failover does not serve it from memory for longer than the lifetime in memory.
+ */
+@Slf4j
+@Primary
+@Repository
+@ConditionalOnProperty(name = "utils.cart.local.enabled", havingValue = "true")
+public class LocalCartRepository implements CartRepository {
+
+    /**
+     * Storage of baskets in Redis.
+     */
+    private final CartRepository storage;
+
+    /**
+     * Versions of baskets.
+     */
+    private final CartVersionRepository versions;
+
+    /**
+     * Writer of the JSON of baskets.
+     */
+    private final CartJsonView cartJsonView;
+
+    /**
+     * Baskets in memory.
+     */
+    private final Cache<String, LocalCart> carts;
+
+    /**
+     * Baskets changed in memory and not written yet, the last state of each.
+     */
+    private final Map<String, LocalCart> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Registry of service metrics.
+     */
+    private final MeterRegistry meterRegistry;
+
+    public LocalCartRepository(CartRepository storage,
+                               CartVersionRepository versions,
+                               CartJsonView cartJsonView,
+                               MeterRegistry meterRegistry,
+                               @Value("${utils.cart.local.maximum-size}") long maximumSize,
+                               @Value("${utils.cart.local.expire-after-access}") Duration expireAfterAccess) {
+        if (storage instanceof ShardedCartRepository) {
+            throw new IllegalStateException("Baskets in memory are not supported with the sharded storage of baskets");
+        }
+        this.storage = storage;
+        this.versions = versions;
+        this.cartJsonView = cartJsonView;
+        this.meterRegistry = meterRegistry;
+        this.carts = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, carts, "carts");
+        Gauge.builder("cart.local.pending", pending, Map::size).register(meterRegistry);
+    }
+
+    @Override
+    public Cart findByKey(String cartKey) {
+        LocalCart cart = carts.get(cartKey, this::load);
+        Cart copy = cart.cart.copy();
+        copy.setVersion(cart.version);
+        return copy;
+    }
+
+    @Override
+    public CartView findView(String cartKey) {
+        LocalCart cart = carts.get(cartKey, this::load);
+        return new CartView(cart.version, cart.json);
+    }
+
+    @Override
+    public long findVersion(String cartKey) {
+        return carts.get(cartKey, this::load).version;
+    }
+
+    @Override
+    public long add(String cartKey, ProductDto productDto) {
+        return change(cartKey, c -> c.add(productDto)).version;
+    }
+
+    @Override
+    public long decrement(String cartKey, Long productId) {
+        return change(cartKey, c -> c.decrement(productId)).version;
+    }
+
+    @Override
+    public long remove(String cartKey, Long productId) {
+        return change(cartKey, c -> c.remove(productId)).version;
+    }
+
+    @Override
+    public long clear(String cartKey) {
+        return change(cartKey, Cart::clear).version;
+    }
+
+    @Override
+    public Cart apply(String cartKey, List<CartOperationDto> operations, Map<Long, ProductDto> products) {
+        LocalCart cart = change(cartKey, c -> operations.forEach(o -> c.apply(o, products.get(o.getProductId()))));
+        Cart copy = cart.cart.copy();
+        copy.setVersion(cart.version);
+        copy.setAddedProducts(cart.cart.getAddedProducts());
+        return copy;
+    }
+
+    /**
+     * The gateway routes the merge by the user, so it is made by the instance of the user basket. Both baskets
+     * are written out and the merge is made by the storage, the user basket is then loaded from Redis again.
+     * The merge raises the version of the guest basket, so the instance of the guest basket does not write
+     * its outdated state back.
+     * @param userCartKey
+     * @param guestCartKey
+     * @return the version of the user basket
+     */
+    @Override
+    public long merge(String userCartKey, String guestCartKey) {
+        flush(guestCartKey);
+        carts.invalidate(guestCartKey);
+        long[] version = new long[1];
+        carts.asMap().compute(userCartKey, (key, cart) -> {
+            write(key, cart);
+            version[0] = storage.merge(userCartKey, guestCartKey);
+            return null;
+        });
+        return version[0];
+    }
+
+    @Override
+    public long save(String cartKey, Cart cart, long expectedVersion) {
+        Cart copy = cart.copy();
+        boolean[] saved = new boolean[1];
+        LocalCart result = carts.asMap().compute(cartKey, (key, current) -> {
+            LocalCart base = current != null ? current : load(key);
+            if (expectedVersion != ANY_VERSION && base.version != expectedVersion) {
+                return base;
+            }
+            saved[0] = true;
+            return changed(key, base, copy);
+        });
+        return saved[0] ? result.version : -1;
+    }
+
+    /**
+     * Writes the changed baskets to the storage.
+     */
+    @Scheduled(fixedDelayString = "${utils.cart.local.flush-interval}")
+    public void flush() {
+        pending.keySet().forEach(this::flush);
+    }
+
+    /**
+     * Writes the changed baskets before the instance stops, so that the instance that takes over
+     * the baskets finds them in Redis.
+     */
+    @PreDestroy
+    public void destroy() {
+        flush();
+        if (!pending.isEmpty()) {
+            log.warn("{} baskets were not written before stopping", pending.size());
+        }
+    }
+
+    /**
+     * Changes the basket in memory and queues it for writing.
+     * @param cartKey
+     * @param action
+     * @return the basket after the change
+     */
+    private LocalCart change(String cartKey, Consumer<Cart> action) {
+        return carts.asMap().compute(cartKey, (key, current) -> {
+            LocalCart base = current != null ? current : load(key);
+            Cart cart = base.cart.copy();
+            action.accept(cart);
+            return changed(key, base, cart);
+        });
+    }
+
+    /**
+     * Makes the next state of the basket in memory and queues it for writing.
+     * @param cartKey
+     * @param base the current state
+     * @param cart the changed basket
+     * @return LocalCart
+     */
+    private LocalCart changed(String cartKey, LocalCart base, Cart cart) {
+        LocalCart changed = new LocalCart(cart, base.version + 1, cartJsonView.write(cart), base.stored);
+        pending.put(cartKey, changed);
+        return changed;
+    }
+
+    /**
+     * Writes the last state of the basket to the storage if it was changed. The basket stays queued if
+     * the write fails and is written again by the next flush.
+     * @param cartKey
+     */
+    private void flush(String cartKey) {
+        try {
+            carts.asMap().compute(cartKey, this::write);
+        } catch (DataAccessException e) {
+            log.warn("The basket {} was not written: {}", cartKey, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the last state of the basket to the storage if it was changed, while the basket is locked in memory.
+     * The basket is written only if its version in Redis is still the one the state is based on, and the version
+     * in Redis is then raised to the version in memory.
+     * @param cartKey
+     * @param current the basket in memory, null if it is not there
+     * @return the basket in memory after the write, null if the basket was changed by another instance
+     * and the state in memory is outdated
+     * @throws DataAccessException if the write failed, the basket stays queued
+     */
+    private LocalCart write(String cartKey, LocalCart current) {
+        LocalCart queued = pending.remove(cartKey);
+        if (queued == null) {
+            return current;
+        }
+        long stored;
+        try {
+            stored = storage.save(cartKey, queued.cart.copy(), queued.stored);
+        } catch (DataAccessException e) {
+            pending.putIfAbsent(cartKey, queued);
+            meterRegistry.counter("cart.local.flushed", "outcome", "failed").increment();
+            throw e;
+        }
+        if (stored < 0) {
+            meterRegistry.counter("cart.local.flushed", "outcome", "outdated").increment();
+            log.info("The basket {} was changed by another instance, the state in memory is dropped", cartKey);
+            return null;
+        }
+        meterRegistry.counter("cart.local.flushed", "outcome", "written").increment();
+        if (stored < queued.version) {
+            stored = versions.raise(cartKey, queued.version);
+        }
+        return current != null ? new LocalCart(queued.cart, Math.max(queued.version, stored), queued.json, stored) : null;
+    }
+
+    /**
+     * Loads the basket into memory. A basket that was removed from memory before it was written
+     * is taken from the queue of writing.
+     * @param cartKey
+     * @return LocalCart
+     */
+    private LocalCart load(String cartKey) {
+        LocalCart queued = pending.get(cartKey);
+        if (queued != null) {
+            return queued;
+        }
+        Cart cart = storage.findByKey(cartKey);
+        return new LocalCart(cart, cart.getVersion(), cartJsonView.write(cart), cart.getVersion());
+    }
+
+    /**
+     * The basket in memory. It is not changed: every change makes a new one.
+     */
+    private static class LocalCart {
+
+        private final Cart cart;
+
+        private final long version;
+
+        /**
+         * JSON of the basket in the form of the response.
+         */
+        private final byte[] json;
+
+        /**
+         * The version of the basket in Redis the state is based on.
+         */
+        private final long stored;
+
+        private LocalCart(Cart cart, long version, byte[] json, long stored) {
+            this.cart = cart;
+            this.version = version;
+            this.json = json;
+            this.stored = stored;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package webmarket.repositories;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.stereotype.Repository;
+import webmarket.cart.CartOperationDto;
+import webmarket.core.ProductDto;
+import webmarket.exceptions.CartConcurrentModificationException;
+import webmarket.model.Cart;
+import webmarket.model.CartView;
+import webmarket.serializers.CartJsonView;
+import webmarket.utils.CartExpiration;
+import webmarket.utils.CartShards;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Spreads the baskets across several Redis nodes. Each basket with its version and its ready JSON is kept
+ * whole on the node chosen by consistent hashing of its key and is stored there as a single object value,
+ * the same way as by {@link ValueCartRepository}, so every change stays a transaction on one node.
+ * <p>
+ * While resharding, the previous set of nodes is configured as well. Before a basket whose node changed is accessed
+ * for the first time, its keys are moved with MIGRATE from the node it belonged to before, if they are still there.
+ * The baskets that are not accessed are moved in the background by {@link webmarket.services.CartMigrator};
+ * once it finds no basket left to move on a previous node, the requests no longer check that node.
+ * If the basket cannot be moved, the request fails and nothing is written on the new node, so a new basket
+ * on the new node never hides the basket left on the previous one.
+ */
+@Slf4j
+@Repository
+@ConditionalOnProperty(name = "utils.cart.storage", havingValue = "sharded")
+public class ShardedCartRepository implements CartRepository {
+
+    /**
+     * The nodes of baskets.
+     */
+    private final CartShards cartShards;
+
+    /**
+     * The storage of baskets on each node, by the address of the node.
+     */
+    private final Map<String, ValueCartRepository> repositories = new HashMap<>();
+
+    /**
+     * The versions of baskets on each node, by the address of the node.
+     */
+    private final Map<String, CartVersionRepository> versions = new HashMap<>();
+
+    /**
+     * The time of the requests to each node, by the address of the node.
+     */
+    private final Map<String, Timer> timers = new HashMap<>();
+
+    /**
+     * Timeout of moving a basket between nodes, in milliseconds.
+     */
+    private final long migrateTimeout;
+
+    /**
+     * The maximum number of attempts of the merge while the guest basket keeps changing on its node.
+     */
+    private final int maxAttempts;
+
+    /**
+     * The baskets already moved from the previous node or found missing there, so they are not checked again.
+     */
+    private final Cache<String, Boolean> settled;
+
+    /**
+     * The previous nodes with no basket left to move.
+     */
+    private final Set<String> drained = ConcurrentHashMap.newKeySet();
+
+    public ShardedCartRepository(CartShards cartShards,
+                                 CartExpiration cartExpiration,
+                                 CartJsonView cartJsonView,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${utils.cart.json-view}") boolean jsonView,
+                                 @Value("${utils.cart.max-attempts:10}") int maxAttempts,
+                                 @Value("${utils.cart.sharding.migrate-timeout}") long migrateTimeout,
+                                 @Value("${utils.cart.sharding.settled-cache-size}") long settledCacheSize) {
+        this.cartShards = cartShards;
+        this.migrateTimeout = migrateTimeout;
+        this.maxAttempts = maxAttempts;
+        this.settled = Caffeine.newBuilder().maximumSize(settledCacheSize).build();
+        for (CartShards.Shard shard : cartShards.getShards().values()) {
+            CartVersionRepository shardVersions = new CartVersionRepository(shard.getStringRedisTemplate(), cartExpiration);
+            versions.put(shard.getName(), shardVersions);
+            repositories.put(shard.getName(), new ValueCartRepository(shard.getRedisTemplate(), cartExpiration,
+                    shardVersions, cartJsonView, jsonView, maxAttempts));
+            timers.put(shard.getName(), meterRegistry.timer("cart.shard.requests", "shard", shard.getName()));
+            Gauge.builder("cart.shard.keys", shard, ShardedCartRepository::size)
+                    .tag("shard", shard.getName())
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    public Cart findByKey(String cartKey) {
+        return route(cartKey, r -> r.findByKey(cartKey));
+    }
+
+    @Override
+    public CartView findView(String cartKey) {
+        return route(cartKey, r -> r.findView(cartKey));
+    }
+
+    @Override
+    public long findVersion(String cartKey) {
+        return route(cartKey, r -> r.findVersion(cartKey));
+    }
+
+    @Override
+    public long add(String cartKey, ProductDto productDto) {
+        return route(cartKey, r -> r.add(cartKey, productDto));
+    }
+
+    @Override
+    public long decrement(String cartKey, Long productId) {
+        return route(cartKey, r -> r.decrement(cartKey, productId));
+    }
+
+    @Override
+    public long remove(String cartKey, Long productId) {
+        return route(cartKey, r -> r.remove(cartKey, productId));
+    }
+
+    @Override
+    public long clear(String cartKey) {
+        return route(cartKey, r -> r.clear(cartKey));
+    }
+
+    @Override
+    public Cart apply(String cartKey, List<CartOperationDto> operations, Map<Long, ProductDto> products) {
+        return route(cartKey, r -> r.apply(cartKey, operations, products));
+    }
+
+    /**
+     * If the baskets are on different nodes, the guest basket is moved to the node of the user basket first,
+     * so that they are merged in one transaction. The guest basket on its own node is the current one, so it replaces
+     * whatever an earlier merge left on the node of the user basket, such as the version of the guest basket.
+     * <p>
+     * The version of the merged guest basket is kept on its node as well, so the guest basket does not get
+     * the versions it had again. The guest basket may be changed on its node after it was moved and before it was
+     * merged. The node of the guest basket is checked again after the merge, and a basket found there is merged as well.
+     * @param userCartKey
+     * @param guestCartKey
+     * @return the version of the user basket
+     * @throws CartConcurrentModificationException if the guest basket keeps changing
+     */
+    @Override
+    public long merge(String userCartKey, String guestCartKey) {
+        CartShards.Shard guestShard = cartShards.shard(guestCartKey);
+        CartShards.Shard userShard = cartShards.shard(userCartKey);
+        return route(userCartKey, r -> {
+            settle(guestCartKey, guestShard);
+            for (int attempt = 0; attempt < maxAttempts; attempt++) {
+                migrate(guestCartKey, guestShard, userShard, false);
+                long version = r.merge(userCartKey, guestCartKey);
+                if (guestShard == userShard) {
+                    return version;
+                }
+                versions.get(guestShard.getName()).raise(guestCartKey, versions.get(userShard.getName()).find(guestCartKey));
+                if (!Boolean.TRUE.equals(guestShard.getStringRedisTemplate().hasKey(guestCartKey))) {
+                    return version;
+                }
+            }
+            throw new CartConcurrentModificationException("The guest basket keeps changing, try again: " + guestCartKey);
+        });
+    }
+
+    @Override
+    public long save(String cartKey, Cart cart, long expectedVersion) {
+        return route(cartKey, r -> r.save(cartKey, cart, expectedVersion));
+    }
+
+    /**
+     * Moves the basket from the previous node to its node in the background and remembers that it needs
+     * no more checks. A basket that could not be moved is counted as left to move.
+     * @param cartKey
+     * @param source the previous node
+     * @return true if keys of the basket were found on the previous node or could not be moved
+     */
+    public boolean moveFromPrevious(String cartKey, CartShards.Shard source) {
+        CartShards.Shard target = cartShards.shard(cartKey);
+        if (source == target) {
+            return false;
+        }
+        try {
+            boolean moved = migrate(cartKey, source, target, true);
+            settled.put(cartKey, Boolean.TRUE);
+            return moved;
+        } catch (DataAccessException e) {
+            log.warn("The basket {} was not moved from {} to {}: {}", cartKey, source.getName(), target.getName(), e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Marks the previous node as having no basket left to move, the requests no longer check it.
+     * @param source
+     */
+    public void drained(CartShards.Shard source) {
+        drained.add(source.getName());
+    }
+
+    /**
+     * Checks whether no basket is left to move from any previous node.
+     * @return boolean
+     */
+    public boolean isMigrated() {
+        return cartShards.getPrevious().stream().allMatch(s -> drained.contains(s.getName()));
+    }
+
+    /**
+     * Performs the action on the node of the basket, moving the basket to it first if it is still on the node
+     * it belonged to before resharding.
+     * @param cartKey
+     * @param action
+     * @return the result of the action
+     */
+    private <T> T route(String cartKey, Function<ValueCartRepository, T> action) {
+        CartShards.Shard shard = cartShards.shard(cartKey);
+        return timers.get(shard.getName()).record(() -> {
+            settle(cartKey, shard);
+            return action.apply(repositories.get(shard.getName()));
+        });
+    }
+
+    /**
+     * Moves the basket from the previous node, unless the basket did not change its node, was already moved or
+     * checked by this instance, or the previous node has no basket left to move.
+     * @param cartKey
+     * @param shard the node of the basket
+     * @throws CartConcurrentModificationException if the basket could not be moved
+     */
+    private void settle(String cartKey, CartShards.Shard shard) {
+        CartShards.Shard source = cartShards.previousShard(cartKey);
+        if (source == null || source == shard || drained.contains(source.getName()) || settled.getIfPresent(cartKey) != null) {
+            return;
+        }
+        try {
+            migrate(cartKey, source, shard, true);
+        } catch (DataAccessException e) {
+            log.warn("The basket {} was not moved from {} to {}: {}", cartKey, source.getName(), shard.getName(), e.getMessage());
+            throw new CartConcurrentModificationException("The basket is being moved to another node, try again: " + cartKey);
+        }
+        settled.put(cartKey, Boolean.TRUE);
+    }
+
+    /**
+     * Moves all the keys of the basket from one node to another with MIGRATE. The keys are moved atomically and
+     * removed from the source node, replacing the keys left on the target node. If the basket is not on the source
+     * node, nothing happens.
+     * <p>
+     * While resharding, a basket or a version already on the target node means the basket was changed there after
+     * resharding, so the target node keeps it and the outdated copy on the source node is removed instead.
+     * Anything else left on the target node, such as an outdated ready JSON, is removed before the move.
+     * @param cartKey
+     * @param source the node to move from, null if there is none
+     * @param target the node to move to
+     * @param keepNewer whether a basket already on the target node is kept
+     * @return true if keys of the basket were found on the source node
+     * @throws DataAccessException if the keys could not be moved
+     */
+    private boolean migrate(String cartKey, CartShards.Shard source, CartShards.Shard target, boolean keepNewer) {
+        if (source == null || source == target) {
+            return false;
+        }
+        List<String> keys = repositories.get(source.getName()).keys(cartKey);
+        if (keepNewer) {
+            Long existing = target.getStringRedisTemplate().countExistingKeys(keys.subList(0, 2));
+            if (existing != null && existing > 0) {
+                Long removed = source.getStringRedisTemplate().delete(keys);
+                if (removed != null && removed > 0) {
+                    log.info("The basket {} on {} is newer than on {}, the copy on {} was removed",
+                            cartKey, target.getName(), source.getName(), source.getName());
+                    return true;
+                }
+                return false;
+            }
+            target.getStringRedisTemplate().delete(keys.subList(2, keys.size()));
+        }
+        if ("NOKEY".equals(migrate(source, target, keys))) {
+            return false;
+        }
+        log.info("The basket {} was moved from {} to {}", cartKey, source.getName(), target.getName());
+        return true;
+    }
+
+    /**
+     * Runs MIGRATE of the keys.
+     * @param source
+     * @param target
+     * @param keys
+     * @return the status of MIGRATE: OK or NOKEY
+     */
+    private String migrate(CartShards.Shard source, CartShards.Shard target, List<String> keys) {
+        List<byte[]> args = new ArrayList<>();
+        args.add(bytes(target.getHost()));
+        args.add(bytes(String.valueOf(target.getPort())));
+        args.add(new byte[0]);
+        args.add(bytes("0"));
+        args.add(bytes(String.valueOf(migrateTimeout)));
+        args.add(bytes("REPLACE"));
+        args.add(bytes("KEYS"));
+        keys.forEach(key -> args.add(bytes(key)));
+        Object result = source.getStringRedisTemplate().execute((RedisCallback<Object>) connection ->
+                connection.execute("MIGRATE", args.toArray(new byte[0][])));
+        return result instanceof byte[] status ? new String(status, StandardCharsets.UTF_8) : String.valueOf(result);
+    }
+
+    /**
+     * Returns the number of keys on the node.
+     * @param shard
+     * @return double
+     */
+    private static double size(CartShards.Shard shard) {
+        Long size = shard.getStringRedisTemplate().execute((RedisCallback<Long>) connection -> connection.serverCommands().dbSize());
+        return size != null ? size : Double.NaN;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
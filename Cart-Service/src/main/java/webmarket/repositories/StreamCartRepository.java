@@ -0,0 +1,387 @@
+package webmarket.repositories;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.stereotype.Repository;
+import webmarket.cart.CartOperationDto;
+import webmarket.core.Money;
+import webmarket.core.ProductDto;
+import webmarket.exceptions.CartConcurrentModificationException;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+import webmarket.model.CartView;
+import webmarket.serializers.CartJsonView;
+import webmarket.utils.CartExpiration;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the basket as a Redis stream of events: every change is appended as a small event and the basket
+ * is assembled by replaying the events. When the number of events after the last snapshot reaches the limit,
+ * the assembled basket is saved as a snapshot and the events before it are trimmed from the stream.
+ * Every event is also appended to a common stream of basket activity, which can be read by other services.
+ */
+@Repository
+@ConditionalOnProperty(name = "utils.cart.storage", havingValue = "stream")
+public class StreamCartRepository implements CartRepository {
+
+    /**
+     * The prefix of the snapshot key, it is placed before the basket key.
+     */
+    static final String SNAPSHOT_PREFIX = "SNAPSHOT_";
+
+    /**
+     * Template for working with Redis.
+     */
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * Lifetime of baskets.
+     */
+    private final CartExpiration cartExpiration;
+
+    /**
+     * Versions of baskets.
+     */
+    private final CartVersionRepository versions;
+
+    /**
+     * Writer of the JSON of baskets, the snapshots are kept in JSON.
+     */
+    private final CartJsonView cartJsonView;
+
+    /**
+     * Mapper for reading the snapshots.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * The key of the common stream of basket activity.
+     */
+    private final String feedKey;
+
+    /**
+     * The approximate maximum length of the common stream.
+     */
+    private final long feedMaxLength;
+
+    /**
+     * The number of events after the snapshot, starting from which a new snapshot is saved.
+     */
+    private final int snapshotEvery;
+
+    /**
+     * The number of attempts to merge the baskets when competing with parallel requests.
+     */
+    private final int maxAttempts;
+
+    /**
+     * Script for appending events.
+     */
+    private final RedisScript<List> appendScript;
+
+    /**
+     * Script for reading the snapshot and the events after it.
+     */
+    private final RedisScript<List> readScript;
+
+    /**
+     * Script for merging the guest basket into the user basket.
+     */
+    private final RedisScript<Long> mergeScript;
+
+    /**
+     * Script for saving the snapshot.
+     */
+    private final RedisScript<Long> snapshotScript;
+
+    public StreamCartRepository(StringRedisTemplate redisTemplate,
+                                CartExpiration cartExpiration,
+                                CartVersionRepository versions,
+                                CartJsonView cartJsonView,
+                                ObjectMapper objectMapper,
+                                @Value("${utils.cart.stream.feed-key}") String feedKey,
+                                @Value("${utils.cart.stream.feed-max-length}") long feedMaxLength,
+                                @Value("${utils.cart.stream.snapshot-every}") int snapshotEvery,
+                                @Value("${utils.cart.max-attempts:10}") int maxAttempts) {
+        this.redisTemplate = redisTemplate;
+        this.cartExpiration = cartExpiration;
+        this.versions = versions;
+        this.cartJsonView = cartJsonView;
+        this.objectMapper = objectMapper;
+        this.feedKey = feedKey;
+        this.feedMaxLength = feedMaxLength;
+        this.snapshotEvery = snapshotEvery;
+        this.maxAttempts = maxAttempts;
+        this.appendScript = script("scripts/cart-stream-append.lua", List.class);
+        this.readScript = script("scripts/cart-stream-read.lua", List.class);
+        this.mergeScript = script("scripts/cart-stream-merge.lua", Long.class);
+        this.snapshotScript = script("scripts/cart-stream-snapshot.lua", Long.class);
+    }
+
+    @Override
+    public Cart findByKey(String cartKey) {
+        return read(cartKey, ttl(cartKey), true);
+    }
+
+    @Override
+    public CartView findView(String cartKey) {
+        return null;
+    }
+
+    @Override
+    public long findVersion(String cartKey) {
+        return versions.find(cartKey, SNAPSHOT_PREFIX + cartKey);
+    }
+
+    @Override
+    public long add(String cartKey, ProductDto productDto) {
+        return append(cartKey, List.<String[]>of(event(CartOperationDto.Type.ADD, productDto.getId(), 1, productDto)));
+    }
+
+    @Override
+    public long decrement(String cartKey, Long productId) {
+        return append(cartKey, List.<String[]>of(event(CartOperationDto.Type.DECREMENT, productId, 1, null)));
+    }
+
+    @Override
+    public long remove(String cartKey, Long productId) {
+        return append(cartKey, List.<String[]>of(event(CartOperationDto.Type.REMOVE, productId, 0, null)));
+    }
+
+    @Override
+    public long clear(String cartKey) {
+        return append(cartKey, List.<String[]>of(event(CartOperationDto.Type.CLEAR, null, 0, null)));
+    }
+
+    @Override
+    public Cart apply(String cartKey, List<CartOperationDto> operations, Map<Long, ProductDto> products) {
+        List<String[]> events = new ArrayList<>(operations.size());
+        for (CartOperationDto operation : operations) {
+            events.add(event(operation.getType(), operation.getProductId(), operation.getQuantity(), products.get(operation.getProductId())));
+        }
+        List<Object> result = append(cartKey, events, true, ANY_VERSION);
+        return assemble(cartKey, (Long) result.get(0), (String) result.get(2), events(result.get(3)), true, events.size());
+    }
+
+    /**
+     * The positions of the guest basket are appended to the user basket as additions, which gives the same result
+     * as merging the baskets. The guest basket is deleted by the same script that appends the events, and only
+     * if its version did not change since it was read, otherwise the merge is repeated, so a parallel change
+     * of the guest basket is not lost.
+     */
+    @Override
+    public long merge(String userCartKey, String guestCartKey) {
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            Cart guestCart = read(guestCartKey, "0", false);
+            if (guestCart.isEmpty()) {
+                return versions.find(userCartKey, SNAPSHOT_PREFIX + userCartKey);
+            }
+            List<String> args = new ArrayList<>();
+            args.add(ttl(userCartKey));
+            args.add(Long.toString(feedMaxLength));
+            args.add(Long.toString(guestCart.getVersion()));
+            args.add(ttl(guestCartKey));
+            for (CartItem item : guestCart.getItems()) {
+                args.addAll(List.of(event(CartOperationDto.Type.ADD, item.getProductId(), item.getQuantity(),
+                        new ProductDto(item.getProductId(), item.getProductName(), item.getPricePerProduct()))));
+            }
+            Long version = redisTemplate.execute(mergeScript, List.of(userCartKey, versions.key(userCartKey), feedKey,
+                    guestCartKey, SNAPSHOT_PREFIX + guestCartKey, versions.key(guestCartKey), versions.movedKey(userCartKey),
+                    SNAPSHOT_PREFIX + userCartKey), args.toArray());
+            if (version != null && versions.checkMoved(userCartKey, version) >= 0) {
+                return version;
+            }
+        }
+        throw new CartConcurrentModificationException("The basket is being changed by parallel requests, try again: " + guestCartKey);
+    }
+
+    @Override
+    public long save(String cartKey, Cart cart, long expectedVersion) {
+        List<String[]> events = new ArrayList<>();
+        events.add(event(CartOperationDto.Type.CLEAR, null, 0, null));
+        for (CartItem item : cart.getItems()) {
+            events.add(event(CartOperationDto.Type.SET, item.getProductId(), item.getQuantity(),
+                    new ProductDto(item.getProductId(), item.getProductName(), item.getPricePerProduct())));
+        }
+        return append(cartKey, events, expectedVersion);
+    }
+
+    /**
+     * Assembles the basket from the snapshot and the events after it.
+     * @param cartKey
+     * @param ttl the lifetime of the basket in milliseconds, 0 to read without renewing it
+     * @param snapshot whether a new snapshot may be saved
+     * @return Cart
+     */
+    private Cart read(String cartKey, String ttl, boolean snapshot) {
+        List<Object> result = redisTemplate.execute(readScript,
+                List.of(cartKey, SNAPSHOT_PREFIX + cartKey, versions.key(cartKey), versions.movedKey(cartKey)), ttl);
+        versions.checkMoved(cartKey, Long.parseLong((String) result.get(0)));
+        return assemble(cartKey, Long.parseLong((String) result.get(0)), (String) result.get(2), events(result.get(3)), snapshot, 0);
+    }
+
+    /**
+     * Replays the events after the snapshot and saves a new snapshot if there were many events.
+     * @param cartKey
+     * @param version the version of the basket read together with the events
+     * @param json the snapshot, empty if there is none
+     * @param events the events after the snapshot
+     * @param snapshot whether a new snapshot may be saved
+     * @param written the number of the last events written by this request, only their additions are recorded
+     * @return Cart
+     */
+    @SuppressWarnings("unchecked")
+    private Cart assemble(String cartKey, long version, String json, List<List<Object>> events, boolean snapshot, int written) {
+        Cart cart = json.isEmpty() ? new Cart() : readSnapshot(json);
+        int own = events.size() - Math.min(written, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            if (i == own) {
+                cart.setAddedProducts(new ArrayList<>());
+            }
+            replay(cart, (List<Object>) events.get(i).get(1));
+        }
+        cart.setVersion(version);
+        if (snapshot && events.size() >= snapshotEvery) {
+            String lastId = (String) events.get(events.size() - 1).get(0);
+            redisTemplate.execute(snapshotScript, List.of(cartKey, SNAPSHOT_PREFIX + cartKey),
+                    lastId, new String(cartJsonView.write(cart), StandardCharsets.UTF_8), ttl(cartKey));
+        }
+        return cart;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<List<Object>> events(Object events) {
+        return (List<List<Object>>) events;
+    }
+
+    /**
+     * Applies the event to the basket.
+     * @param cart
+     * @param fields the fields of the event as a flat list of names and values
+     */
+    private void replay(Cart cart, List<Object> fields) {
+        Map<String, String> event = new HashMap<>();
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            event.put((String) fields.get(i), (String) fields.get(i + 1));
+        }
+        String productId = event.get("productId");
+        String price = event.get("price");
+        CartOperationDto operation = new CartOperationDto(CartOperationDto.Type.valueOf(event.get("type")),
+                productId.isEmpty() ? null : Long.valueOf(productId), Integer.valueOf(event.get("quantity")));
+        ProductDto productDto = price.isEmpty() ? null : new ProductDto(operation.getProductId(), event.get("name"), new BigDecimal(price));
+        cart.apply(operation, productDto);
+    }
+
+    /**
+     * Appends the events to the stream of the basket and saves a snapshot if the stream has grown long.
+     * @param cartKey
+     * @param events
+     * @return the new version of the basket
+     */
+    private long append(String cartKey, List<String[]> events) {
+        return append(cartKey, events, ANY_VERSION);
+    }
+
+    /**
+     * Appends the events to the stream of the basket if its version is still the expected one and saves a snapshot
+     * if the stream has grown long.
+     * @param cartKey
+     * @param events
+     * @param expectedVersion the version the basket must have, ANY_VERSION to append anyway
+     * @return the new version of the basket, -1 if the basket has another version
+     */
+    private long append(String cartKey, List<String[]> events, long expectedVersion) {
+        List<Object> result = append(cartKey, events, false, expectedVersion);
+        if ((Long) result.get(1) > snapshotEvery) {
+            findByKey(cartKey);
+        }
+        return (Long) result.get(0);
+    }
+
+    /**
+     * Appends the events to the stream of the basket.
+     * @param cartKey
+     * @param events
+     * @param read whether the basket is read in the same script after the events
+     * @param expectedVersion the version the basket must have, ANY_VERSION to append anyway
+     * @return the version of the basket, the length of its stream and, if read, the snapshot and the events after it
+     */
+    private List<Object> append(String cartKey, List<String[]> events, boolean read, long expectedVersion) {
+        List<String> args = new ArrayList<>(4 + events.size() * 5);
+        args.add(ttl(cartKey));
+        args.add(Long.toString(feedMaxLength));
+        args.add(read ? "1" : "0");
+        args.add(expectedVersion != ANY_VERSION ? Long.toString(expectedVersion) : "");
+        events.forEach(e -> args.addAll(List.of(e)));
+        List<Object> result = redisTemplate.execute(appendScript,
+                List.of(cartKey, versions.key(cartKey), feedKey, SNAPSHOT_PREFIX + cartKey, versions.movedKey(cartKey)), args.toArray());
+        versions.checkMoved(cartKey, (Long) result.get(0));
+        return result;
+    }
+
+    /**
+     * Builds the arguments of one event.
+     * @param type
+     * @param productId
+     * @param quantity
+     * @param productDto the product, needed for the events that add units
+     * @return type, product id, number of units, price per unit and product name
+     */
+    private static String[] event(CartOperationDto.Type type, Long productId, int quantity, ProductDto productDto) {
+        return new String[]{
+                type.name(),
+                productId != null ? productId.toString() : "",
+                Integer.toString(quantity),
+                productDto != null ? Money.of(productDto.getPrice()).toBigDecimal().toPlainString() : "",
+                productDto != null ? productDto.getName() : ""
+        };
+    }
+
+    /**
+     * Reads the basket from the snapshot.
+     * @param json
+     * @return Cart
+     */
+    private Cart readSnapshot(String json) {
+        try {
+            return objectMapper.readValue(json, Cart.class);
+        } catch (JsonProcessingException e) {
+            throw new SerializationException("Could not read the snapshot of the basket", e);
+        }
+    }
+
+    /**
+     * Returns the lifetime of the basket in milliseconds for the scripts.
+     * @param cartKey
+     * @return String
+     */
+    private String ttl(String cartKey) {
+        return Long.toString(cartExpiration.ttl(cartKey).toMillis());
+    }
+
+    /**
+     * Loads the Lua script from the resources.
+     * @param path
+     * @param resultType
+     * @return RedisScript
+     */
+    private static <T> DefaultRedisScript<T> script(String path, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(resultType);
+        return script;
+    }
+}
@@ -0,0 +1,270 @@
+package webmarket.repositories;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+import webmarket.cart.CartOperationDto;
+import webmarket.core.ProductDto;
+import webmarket.exceptions.CartConcurrentModificationException;
+import webmarket.exceptions.CartMovedException;
+import webmarket.model.Cart;
+import webmarket.model.CartView;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Keeps long-idle baskets of registered users in the relational database instead of Redis.
+ * A basket idle for longer than the threshold is moved to the database and marked in Redis as moved.
+ * The storages check the mark in the same request that reads or writes the basket and refuse to serve
+ * a marked basket; the refused request moves the basket back to Redis and is repeated once.
+ * Only one request moves the basket back, the others wait for it. The lock of moving back is released only
+ * by its holder; if the lock expired and another request moved the basket back meanwhile, the newer basket
+ * in Redis is kept.
+ * <p>
+ * The version of the basket is kept in the database with the basket, and the version in Redis is raised to it
+ * when the basket is moved back, so the versions of the basket never go back.
+ */
+@Slf4j
+@Primary
+@Repository
+@ConditionalOnProperty(name = "utils.cart.tiering.enabled", havingValue = "true")
+public class TieredCartRepository implements CartRepository {
+
+    /**
+     * The prefix of the lock of moving the basket back to Redis.
+     */
+    private static final String PROMOTE_PREFIX = "PROMOTE_";
+
+    /**
+     * The prefixes of the keys kept next to the basket by the storages of baskets.
+     */
+    private static final List<String> BASKET_PREFIXES = List.of("", "VIEW_", "SNAPSHOT_");
+
+    /**
+     * Storage of baskets in Redis.
+     */
+    private final CartRepository storage;
+
+    /**
+     * Storage of baskets in the database.
+     */
+    private final ColdCartRepository coldCarts;
+
+    /**
+     * Versions of baskets.
+     */
+    private final CartVersionRepository versions;
+
+    /**
+     * Template for working with Redis.
+     */
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * How long a request waits for the basket to be moved back to Redis.
+     */
+    private final Duration promoteTimeout;
+
+    /**
+     * Time of moving baskets back to Redis.
+     */
+    private final Timer promotions;
+
+    /**
+     * Script for removing the basket from Redis after it was saved to the database.
+     */
+    private final RedisScript<Long> demoteScript = RedisScript.of(new ClassPathResource("scripts/cart-demote.lua"), Long.class);
+
+    /**
+     * Script for removing a key that still holds the given value.
+     */
+    private final RedisScript<Long> deleteIfScript = RedisScript.of(new ClassPathResource("scripts/cart-delete-if.lua"), Long.class);
+
+    public TieredCartRepository(CartRepository storage,
+                                ColdCartRepository coldCarts,
+                                CartVersionRepository versions,
+                                StringRedisTemplate redisTemplate,
+                                MeterRegistry meterRegistry,
+                                @Value("${utils.cart.tiering.promote-timeout}") Duration promoteTimeout) {
+        if (storage instanceof ShardedCartRepository || storage instanceof LocalCartRepository) {
+            throw new IllegalStateException("Tiering of baskets is supported only over a single Redis storage without baskets in memory");
+        }
+        this.storage = storage;
+        this.coldCarts = coldCarts;
+        this.versions = versions;
+        this.redisTemplate = redisTemplate;
+        this.promoteTimeout = promoteTimeout;
+        this.promotions = meterRegistry.timer("cart.tier.promotions");
+    }
+
+    @Override
+    public Cart findByKey(String cartKey) {
+        return restoring(cartKey, () -> storage.findByKey(cartKey));
+    }
+
+    @Override
+    public CartView findView(String cartKey) {
+        return restoring(cartKey, () -> storage.findView(cartKey));
+    }
+
+    @Override
+    public long findVersion(String cartKey) {
+        return restoring(cartKey, () -> storage.findVersion(cartKey));
+    }
+
+    @Override
+    public long add(String cartKey, ProductDto productDto) {
+        return restoring(cartKey, () -> storage.add(cartKey, productDto));
+    }
+
+    @Override
+    public long decrement(String cartKey, Long productId) {
+        return restoring(cartKey, () -> storage.decrement(cartKey, productId));
+    }
+
+    @Override
+    public long remove(String cartKey, Long productId) {
+        return restoring(cartKey, () -> storage.remove(cartKey, productId));
+    }
+
+    @Override
+    public long clear(String cartKey) {
+        return restoring(cartKey, () -> storage.clear(cartKey));
+    }
+
+    @Override
+    public Cart apply(String cartKey, List<CartOperationDto> operations, Map<Long, ProductDto> products) {
+        return restoring(cartKey, () -> storage.apply(cartKey, operations, products));
+    }
+
+    @Override
+    public long merge(String userCartKey, String guestCartKey) {
+        return restoring(userCartKey, () -> storage.merge(userCartKey, guestCartKey));
+    }
+
+    @Override
+    public long save(String cartKey, Cart cart, long expectedVersion) {
+        return restoring(cartKey, () -> storage.save(cartKey, cart, expectedVersion));
+    }
+
+    /**
+     * Moves the basket to the database. The basket is read, saved to the database and removed from Redis
+     * only if it was not changed in the meantime, otherwise it stays in Redis.
+     * @param cartKey
+     * @return true if the basket was moved
+     */
+    public boolean demote(String cartKey) {
+        Cart cart;
+        try {
+            cart = storage.findByKey(cartKey);
+        } catch (CartMovedException e) {
+            return false;
+        }
+        if (cart.isEmpty()) {
+            return false;
+        }
+        coldCarts.save(cartKey, cart);
+        List<String> keys = new ArrayList<>();
+        keys.add(versions.key(cartKey));
+        keys.add(versions.movedKey(cartKey));
+        BASKET_PREFIXES.forEach(prefix -> keys.add(prefix + cartKey));
+        Long demoted = redisTemplate.execute(demoteScript, keys, String.valueOf(cart.getVersion()));
+        if (demoted == null || demoted == 0) {
+            coldCarts.delete(cartKey, cart.getVersion());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Serves the request and, if the storage refused it because the basket was moved to the database,
+     * moves the basket back to Redis and serves the request once more.
+     * @param cartKey
+     * @param action the request to the storage
+     * @return the result of the request
+     */
+    private <T> T restoring(String cartKey, Supplier<T> action) {
+        try {
+            return action.get();
+        } catch (CartMovedException e) {
+            promote(cartKey);
+            return action.get();
+        }
+    }
+
+    /**
+     * Moves the basket back to Redis. The request that takes the lock moves the basket,
+     * the other requests of the basket wait until the mark is removed.
+     * @param cartKey
+     */
+    private void promote(String cartKey) {
+        String movedKey = versions.movedKey(cartKey);
+        promotions.record(() -> {
+            long deadline = System.currentTimeMillis() + promoteTimeout.toMillis();
+            String lockKey = PROMOTE_PREFIX + cartKey;
+            String token = UUID.randomUUID().toString();
+            while (Boolean.TRUE.equals(redisTemplate.hasKey(movedKey))) {
+                if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(lockKey, token, promoteTimeout))) {
+                    try {
+                        String mark = redisTemplate.opsForValue().get(movedKey);
+                        if (mark != null) {
+                            restore(cartKey, mark);
+                        }
+                    } finally {
+                        redisTemplate.execute(deleteIfScript, List.of(lockKey), token);
+                    }
+                    return;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new CartConcurrentModificationException("The basket is being restored, try again: " + cartKey);
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CartConcurrentModificationException("The basket is being restored, try again: " + cartKey);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the basket from the database to Redis and removes the mark in the same write,
+     * then removes the basket from the database. The basket is written only over the version it was moved with,
+     * so a basket already moved back and changed in Redis is not overwritten.
+     * @param cartKey
+     * @param mark the value of the mark, the version of the basket when it was moved
+     */
+    private void restore(String cartKey, String mark) {
+        Cart cart = coldCarts.find(cartKey);
+        if (cart == null) {
+            log.warn("The basket {} is marked as moved to the database, but it is not there", cartKey);
+            redisTemplate.execute(deleteIfScript, List.of(versions.movedKey(cartKey)), mark);
+            return;
+        }
+        versions.raise(cartKey, cart.getVersion());
+        long saved;
+        try {
+            saved = storage.save(cartKey, cart, cart.getVersion());
+        } catch (CartMovedException e) {
+            saved = -1;
+        }
+        if (saved < 0) {
+            log.warn("The basket {} was not moved back, the basket in Redis is newer than the one in the database", cartKey);
+            return;
+        }
+        coldCarts.delete(cartKey, cart.getVersion());
+    }
+}
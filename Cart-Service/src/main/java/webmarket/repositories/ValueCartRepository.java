@@ -0,0 +1,398 @@
+package webmarket.repositories;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Repository;
+import webmarket.cart.CartOperationDto;
+import webmarket.core.ProductDto;
+import webmarket.exceptions.CartConcurrentModificationException;
+import webmarket.exceptions.CartMovedException;
+import webmarket.model.Cart;
+import webmarket.model.CartView;
+import webmarket.serializers.CartJsonView;
+import webmarket.utils.CartExpiration;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Stores the basket as a single object value: every change reads the whole basket,
+ * changes it and writes it back. The write is made in a transaction under WATCH, so if the basket
+ * was changed by a parallel request between reading and writing, the change is repeated
+ * on the fresh basket instead of overwriting it.
+ * The basket is written to Redis only on the first real change, until then an empty basket is
+ * returned without accessing the database for writing.
+ * Every read and write renews the lifetime of the basket in the same request, and every write increases
+ * the version of the basket in the same transaction.
+ * Next to the basket the ready JSON of the response is written in the same transaction, so reading the basket
+ * for the client does not need to deserialize it and write it to JSON again.
+ */
+@Repository
+@ConditionalOnProperty(name = "utils.cart.storage", havingValue = "value", matchIfMissing = true)
+public class ValueCartRepository implements CartRepository {
+
+    /**
+     * The prefix of the key of the ready JSON, it is placed before the basket key.
+     */
+    private static final String VIEW_PREFIX = "VIEW_";
+
+    /**
+     * Template for working with Redis.
+     */
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    /**
+     * Lifetime of baskets.
+     */
+    private final CartExpiration cartExpiration;
+
+    /**
+     * Versions of baskets.
+     */
+    private final CartVersionRepository versions;
+
+    /**
+     * Writer of the ready JSON of baskets.
+     */
+    private final CartJsonView cartJsonView;
+
+    /**
+     * Whether the ready JSON of baskets is stored.
+     */
+    private final boolean jsonView;
+
+    /**
+     * The number of attempts to change the basket when competing with parallel requests.
+     */
+    private final int maxAttempts;
+
+    public ValueCartRepository(RedisTemplate<String, Object> redisTemplate,
+                               CartExpiration cartExpiration,
+                               CartVersionRepository versions,
+                               CartJsonView cartJsonView,
+                               @Value("${utils.cart.json-view}") boolean jsonView,
+                               @Value("${utils.cart.max-attempts:10}") int maxAttempts) {
+        this.redisTemplate = redisTemplate;
+        this.cartExpiration = cartExpiration;
+        this.versions = versions;
+        this.cartJsonView = cartJsonView;
+        this.jsonView = jsonView;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public Cart findByKey(String cartKey) {
+        RedisSerializer<String> keySerializer = RedisSerializer.string();
+        byte[] key = keySerializer.serialize(cartKey);
+        byte[] versionKey = keySerializer.serialize(versions.key(cartKey));
+        Duration ttl = cartExpiration.ttl(cartKey);
+        byte[] movedKey = keySerializer.serialize(versions.movedKey(cartKey));
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(versionKey);
+            connection.stringCommands().getEx(key, Expiration.from(ttl));
+            connection.keyCommands().pExpire(versionKey, ttl.toMillis());
+            connection.keyCommands().exists(movedKey);
+            return null;
+        }, RedisSerializer.byteArray());
+        if (Boolean.TRUE.equals(results.get(3))) {
+            throw versions.moved(cartKey);
+        }
+        Cart cart = (Cart) redisTemplate.getValueSerializer().deserialize((byte[]) results.get(1));
+        if (cart == null) {
+            cart = new Cart();
+        }
+        byte[] version = (byte[]) results.get(0);
+        cart.setVersion(version != null ? Long.parseLong(new String(version, StandardCharsets.UTF_8)) : 0);
+        return cart;
+    }
+
+    @Override
+    public CartView findView(String cartKey) {
+        if (!jsonView) {
+            return null;
+        }
+        RedisSerializer<String> keySerializer = RedisSerializer.string();
+        byte[] key = keySerializer.serialize(cartKey);
+        byte[] versionKey = keySerializer.serialize(versions.key(cartKey));
+        byte[] viewKey = keySerializer.serialize(VIEW_PREFIX + cartKey);
+        long ttl = cartExpiration.ttl(cartKey).toMillis();
+        byte[] movedKey = keySerializer.serialize(versions.movedKey(cartKey));
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(versionKey);
+            connection.stringCommands().get(viewKey);
+            connection.keyCommands().pExpire(key, ttl);
+            connection.keyCommands().pExpire(versionKey, ttl);
+            connection.keyCommands().pExpire(viewKey, ttl);
+            connection.keyCommands().exists(movedKey);
+            return null;
+        }, RedisSerializer.byteArray());
+        if (Boolean.TRUE.equals(results.get(5))) {
+            throw versions.moved(cartKey);
+        }
+        byte[] json = (byte[]) results.get(1);
+        if (json == null) {
+            // the lifetime was renewed, so the basket exists but was written without the ready JSON
+            if (Boolean.TRUE.equals(results.get(2))) {
+                return null;
+            }
+            json = cartJsonView.write(new Cart());
+        }
+        byte[] version = (byte[]) results.get(0);
+        return new CartView(version != null ? Long.parseLong(new String(version, StandardCharsets.UTF_8)) : 0, json);
+    }
+
+    @Override
+    public long findVersion(String cartKey) {
+        return versions.find(cartKey);
+    }
+
+    @Override
+    public long add(String cartKey, ProductDto productDto) {
+        return execute(cartKey, c -> c.add(productDto)).getVersion();
+    }
+
+    @Override
+    public long decrement(String cartKey, Long productId) {
+        return execute(cartKey, c -> c.decrement(productId)).getVersion();
+    }
+
+    @Override
+    public long remove(String cartKey, Long productId) {
+        return execute(cartKey, c -> c.remove(productId)).getVersion();
+    }
+
+    @Override
+    public long clear(String cartKey) {
+        return transaction(List.of(cartKey, versions.movedKey(cartKey)), operations -> {
+            checkNotMoved(operations, cartKey);
+            operations.multi();
+            increaseVersion(operations, cartKey);
+            operations.delete(List.of(cartKey, VIEW_PREFIX + cartKey));
+            return true;
+        });
+    }
+
+    @Override
+    public Cart apply(String cartKey, List<CartOperationDto> operations, Map<Long, ProductDto> products) {
+        return execute(cartKey, c -> operations.forEach(o -> c.apply(o, products.get(o.getProductId()))));
+    }
+
+    @Override
+    public long merge(String userCartKey, String guestCartKey) {
+        Long version = transaction(List.of(userCartKey, guestCartKey, versions.movedKey(userCartKey)), operations -> {
+            checkNotMoved(operations, userCartKey);
+            Cart guestCart = read(operations, guestCartKey);
+            if (guestCart == null || guestCart.isEmpty()) {
+                return false;
+            }
+            Cart userCart = read(operations, userCartKey);
+            if (userCart == null) {
+                userCart = new Cart();
+            }
+            userCart.merge(guestCart);
+            operations.multi();
+            increaseVersion(operations, userCartKey);
+            operations.opsForValue().set(userCartKey, userCart, cartExpiration.ttl(userCartKey));
+            writeView(operations, userCartKey, userCart);
+            operations.delete(List.of(guestCartKey, VIEW_PREFIX + guestCartKey));
+            increaseVersion(operations, guestCartKey);
+            return true;
+        });
+        return version != null ? version : versions.find(userCartKey);
+    }
+
+    /**
+     * The version is watched together with the basket, so the expected version is checked in the same transaction
+     * as the write. A basket moved to the database is written only when it is moved back: the expected version
+     * is then the version kept in the mark, and the mark is removed in the same transaction.
+     * @param cartKey
+     * @param cart
+     * @param expectedVersion the version the basket must have, ANY_VERSION to write it anyway
+     * @return the version of the basket, -1 if the basket has another version and was not written
+     */
+    @Override
+    public long save(String cartKey, Cart cart, long expectedVersion) {
+        String versionKey = versions.key(cartKey);
+        String movedKey = versions.movedKey(cartKey);
+        Long version = transaction(List.of(cartKey, versionKey, movedKey), operations -> {
+            String moved = get(operations, movedKey);
+            if (moved != null && (expectedVersion == ANY_VERSION || !moved.equals(Long.toString(expectedVersion)))) {
+                operations.unwatch();
+                throw versions.moved(cartKey);
+            }
+            if (expectedVersion != ANY_VERSION && version(operations, versionKey) != expectedVersion) {
+                return false;
+            }
+            operations.multi();
+            increaseVersion(operations, cartKey);
+            operations.opsForValue().set(cartKey, cart, cartExpiration.ttl(cartKey));
+            writeView(operations, cartKey, cart);
+            if (moved != null) {
+                operations.delete(movedKey);
+            }
+            return true;
+        });
+        return version != null ? version : -1;
+    }
+
+    /**
+     * Executes a command for the bucket.
+     * @param cartKey
+     * @param action
+     * @return the basket after the command with its version
+     */
+    private Cart execute(String cartKey, Consumer<Cart> action) {
+        Cart[] result = new Cart[1];
+        Long version = transaction(List.of(cartKey, versions.movedKey(cartKey)), operations -> {
+            checkNotMoved(operations, cartKey);
+            Cart cart = read(operations, cartKey);
+            if (cart == null) {
+                cart = new Cart();
+                action.accept(cart);
+                result[0] = cart;
+                if (cart.isEmpty()) {
+                    return false;
+                }
+            } else {
+                action.accept(cart);
+                result[0] = cart;
+            }
+            operations.multi();
+            increaseVersion(operations, cartKey);
+            operations.opsForValue().set(cartKey, cart, cartExpiration.ttl(cartKey));
+            writeView(operations, cartKey, cart);
+            return true;
+        });
+        result[0].setVersion(version != null ? version : versions.find(cartKey));
+        return result[0];
+    }
+
+    /**
+     * Returns all the keys of the basket: the basket, its version and its ready JSON.
+     * @param cartKey
+     * @return List
+     */
+    List<String> keys(String cartKey) {
+        return List.of(cartKey, versions.key(cartKey), VIEW_PREFIX + cartKey);
+    }
+
+    /**
+     * Queues the increase of the basket version, it must be the first command after MULTI.
+     * @param operations
+     * @param cartKey
+     */
+    private void increaseVersion(RedisOperations<String, Object> operations, String cartKey) {
+        String versionKey = versions.key(cartKey);
+        operations.opsForValue().increment(versionKey);
+        operations.expire(versionKey, cartExpiration.ttl(cartKey));
+    }
+
+    /**
+     * Queues the write of the ready JSON of the basket. If the ready JSON is not stored,
+     * the JSON left from before is removed so that it does not get outdated.
+     * @param operations
+     * @param cartKey
+     * @param cart
+     */
+    private void writeView(RedisOperations<String, Object> operations, String cartKey, Cart cart) {
+        if (!jsonView) {
+            operations.delete(VIEW_PREFIX + cartKey);
+            return;
+        }
+        byte[] viewKey = RedisSerializer.string().serialize(VIEW_PREFIX + cartKey);
+        byte[] json = cartJsonView.write(cart);
+        Expiration expiration = Expiration.from(cartExpiration.ttl(cartKey));
+        operations.execute((RedisCallback<Object>) connection ->
+                connection.stringCommands().set(viewKey, json, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * Performs a read-modify-write of the baskets under WATCH and repeats it
+     * if one of the keys was changed before EXEC.
+     * @param cartKeys
+     * @param action reads the baskets, calls MULTI and queues the increase of the version first and then the writes,
+     *               returns false if there is nothing to write
+     * @return the new version of the first basket or null if nothing was written
+     */
+    private Long transaction(List<String> cartKeys, Predicate<RedisOperations<String, Object>> action) {
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            List<Object> result = redisTemplate.execute(new SessionCallback<List<Object>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, Object> cartOperations = (RedisOperations<String, Object>) operations;
+                    cartOperations.watch(cartKeys);
+                    if (!action.test(cartOperations)) {
+                        cartOperations.unwatch();
+                        return List.of(Boolean.FALSE);
+                    }
+                    return cartOperations.exec();
+                }
+            });
+            if (result != null && !result.isEmpty()) {
+                return result.get(0) instanceof Long version ? version : null;
+            }
+        }
+        throw new CartConcurrentModificationException("The basket is being changed by parallel requests, try again: " + cartKeys);
+    }
+
+    /**
+     * Reads the basket inside the transaction.
+     * @param operations
+     * @param cartKey
+     * @return Cart or null if the basket has not been saved yet
+     */
+    private Cart read(RedisOperations<String, Object> operations, String cartKey) {
+        return (Cart) operations.opsForValue().get(cartKey);
+    }
+
+    /**
+     * Reads the version of the basket inside the transaction without renewing its lifetime, which would
+     * break the watch of the version.
+     * @param operations
+     * @param versionKey
+     * @return the version, 0 if the basket has never been changed
+     */
+    private long version(RedisOperations<String, Object> operations, String versionKey) {
+        String version = get(operations, versionKey);
+        return version != null ? Long.parseLong(version) : 0;
+    }
+
+    /**
+     * Stops the transaction if the basket was moved to the database. The mark is watched, so the basket
+     * moved before EXEC makes the transaction repeat and stop here.
+     * @param operations
+     * @param cartKey
+     * @throws CartMovedException if the basket was moved to the database
+     */
+    private void checkNotMoved(RedisOperations<String, Object> operations, String cartKey) {
+        if (get(operations, versions.movedKey(cartKey)) != null) {
+            operations.unwatch();
+            throw versions.moved(cartKey);
+        }
+    }
+
+    /**
+     * Reads a string value inside the transaction.
+     * @param operations
+     * @param key
+     * @return String or null if there is no key
+     */
+    private String get(RedisOperations<String, Object> operations, String key) {
+        byte[] value = operations.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(RedisSerializer.string().serialize(key)));
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+}
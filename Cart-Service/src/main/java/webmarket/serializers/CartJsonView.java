@@ -0,0 +1,35 @@
+package webmarket.serializers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.stereotype.Component;
+import webmarket.model.Cart;
+
+/**
+ * Writes the basket to JSON exactly as it is returned by the controller. The same ObjectMapper as for
+ * the HTTP responses is used, so the stored JSON can be sent to the client as it is.
+ */
+@Component
+@RequiredArgsConstructor
+public class CartJsonView {
+
+    /**
+     * Mapper of the HTTP responses.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Writes the basket to JSON.
+     * @param cart
+     * @return JSON bytes in UTF-8
+     */
+    public byte[] write(Cart cart) {
+        try {
+            return objectMapper.writeValueAsBytes(cart);
+        } catch (JsonProcessingException e) {
+            throw new SerializationException("Could not write the basket to JSON", e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package webmarket.serializers;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import webmarket.core.Money;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary serializer of baskets for Redis.
+ * <p>
+ * Layout: the marker byte, the format version, flags, and then the body. The body holds the currency and scale
+ * of the prices, the number of positions and for each position the product id, name, quantity and the price
+ * per unit in minor units. The position price and the basket total are not stored, they are calculated when reading.
+ * Version 1, where the price per unit was written as scale and unscaled value, is still read.
+ * If the body is larger than the threshold, it is compressed with LZ4 and preceded by its original length.
+ * <p>
+ * Values that do not start with the marker are read as JSON, so baskets saved by the previous serializer
+ * keep working. Objects other than baskets are written as JSON too.
+ */
+public class CartRedisSerializer implements RedisSerializer<Object> {
+
+    /**
+     * The first byte of the binary basket. JSON values always start with '{', '[' or '"'.
+     */
+    private static final byte MARKER = (byte) 0xCA;
+
+    /**
+     * Format version.
+     */
+    private static final byte VERSION = 2;
+
+    /**
+     * The first version of the format, with prices as scale and unscaled value.
+     */
+    private static final byte VERSION_DECIMAL = 1;
+
+    /**
+     * The flag of the compressed body.
+     */
+    private static final byte COMPRESSED = 1;
+
+    /**
+     * The length of the header: marker, version and flags.
+     */
+    private static final int HEADER_LENGTH = 3;
+
+    /**
+     * Serializer of values in the old format and of other objects.
+     */
+    private final GenericJackson2JsonRedisSerializer jsonSerializer = new GenericJackson2JsonRedisSerializer();
+
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+
+    private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    /**
+     * The size of the body in bytes, starting from which it is compressed.
+     */
+    private final int compressionThreshold;
+
+    public CartRedisSerializer(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (!(value instanceof Cart)) {
+            return jsonSerializer.serialize(value);
+        }
+        byte[] body = write((Cart) value);
+        if (body.length < compressionThreshold) {
+            return ByteBuffer.allocate(HEADER_LENGTH + body.length)
+                    .put(MARKER).put(VERSION).put((byte) 0)
+                    .put(body)
+                    .array();
+        }
+        byte[] compressed = new byte[compressor.maxCompressedLength(body.length)];
+        int compressedLength = compressor.compress(body, 0, body.length, compressed, 0);
+        return ByteBuffer.allocate(HEADER_LENGTH + Integer.BYTES + compressedLength)
+                .put(MARKER).put(VERSION).put(COMPRESSED)
+                .putInt(body.length)
+                .put(compressed, 0, compressedLength)
+                .array();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MARKER) {
+            return jsonSerializer.deserialize(bytes);
+        }
+        byte version = bytes[1];
+        if (version != VERSION && version != VERSION_DECIMAL) {
+            throw new SerializationException("Unknown version of the basket format: " + version);
+        }
+        if ((bytes[2] & COMPRESSED) != 0) {
+            int length = ByteBuffer.wrap(bytes, HEADER_LENGTH, Integer.BYTES).getInt();
+            byte[] body = decompressor.decompress(bytes, HEADER_LENGTH + Integer.BYTES, length);
+            return read(version, body, 0, body.length);
+        }
+        return read(version, bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+    }
+
+    /**
+     * Writes the positions of the basket.
+     * @param cart
+     * @return body
+     */
+    private byte[] write(Cart cart) {
+        List<CartItem> items = cart.getItems();
+        Money total = cart.getTotal();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + items.size() * 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(total.getCurrency());
+            out.writeByte(total.getScale());
+            out.writeInt(items.size());
+            for (CartItem item : items) {
+                out.writeLong(item.getProductId());
+                out.writeUTF(item.getProductName());
+                out.writeInt(item.getQuantity());
+                out.writeLong(item.getUnitPrice().getMinorUnits());
+            }
+        } catch (IOException e) {
+            throw new SerializationException("Could not write the basket", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the positions of the basket.
+     * @param version
+     * @param body
+     * @param offset
+     * @param length
+     * @return Cart
+     */
+    private Cart read(byte version, byte[] body, int offset, int length) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, offset, length))) {
+            String currency = version == VERSION ? in.readUTF() : Money.DEFAULT_CURRENCY;
+            int currencyScale = version == VERSION ? in.readByte() : Money.DEFAULT_SCALE;
+            int size = in.readInt();
+            List<CartItem> items = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                long productId = in.readLong();
+                String productName = in.readUTF();
+                int quantity = in.readInt();
+                Money unitPrice;
+                if (version == VERSION) {
+                    unitPrice = Money.ofMinor(in.readLong(), currencyScale, currency);
+                } else {
+                    int scale = in.readByte();
+                    byte[] unscaled = new byte[in.readUnsignedByte()];
+                    in.readFully(unscaled);
+                    unitPrice = Money.of(new BigDecimal(new BigInteger(unscaled), scale), currencyScale, currency);
+                }
+                items.add(new CartItem(productId, productName, quantity, unitPrice));
+            }
+            return new Cart(items);
+        } catch (IOException e) {
+            throw new SerializationException("Could not read the basket", e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package webmarket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import webmarket.repositories.ColdCartRepository;
+import webmarket.repositories.TieredCartRepository;
+import webmarket.utils.CartExpiration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically walks the baskets in Redis with SCAN in batches and moves the baskets of registered users
+ * that were not accessed for longer than the threshold to the database. The idle time of the basket is
+ * known from its sliding lifetime: the lifetime is renewed on every access, so the basket was idle for
+ * the full lifetime minus the remaining one.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "utils.cart.tiering.enabled", havingValue = "true")
+public class CartDemoter {
+
+    /**
+     * Template for working with Redis.
+     */
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * Tiered storage of baskets.
+     */
+    private final TieredCartRepository tieredCarts;
+
+    /**
+     * Storage of baskets in the database.
+     */
+    private final ColdCartRepository coldCarts;
+
+    /**
+     * Lifetime of baskets.
+     */
+    private final CartExpiration cartExpiration;
+
+    /**
+     * Prefix for each basket.
+     */
+    private final String cartPrefix;
+
+    /**
+     * The idle time after which the basket is moved to the database.
+     */
+    private final Duration demoteAfter;
+
+    /**
+     * The number of keys requested by one SCAN and checked by one pipeline.
+     */
+    private final int batchSize;
+
+    /**
+     * The number of user baskets in Redis found by the last walk.
+     */
+    private final AtomicLong hot = new AtomicLong();
+
+    /**
+     * The number of baskets in the database after the last walk.
+     */
+    private final AtomicLong cold = new AtomicLong();
+
+    /**
+     * The number of baskets moved to the database.
+     */
+    private final Counter demoted;
+
+    public CartDemoter(StringRedisTemplate redisTemplate,
+                       TieredCartRepository tieredCarts,
+                       ColdCartRepository coldCarts,
+                       CartExpiration cartExpiration,
+                       MeterRegistry meterRegistry,
+                       @Value("${utils.cart.prefix}") String cartPrefix,
+                       @Value("${utils.cart.tiering.demote-after}") Duration demoteAfter,
+                       @Value("${utils.cart.tiering.batch-size}") int batchSize) {
+        this.redisTemplate = redisTemplate;
+        this.tieredCarts = tieredCarts;
+        this.coldCarts = coldCarts;
+        this.cartExpiration = cartExpiration;
+        this.cartPrefix = cartPrefix;
+        this.demoteAfter = demoteAfter;
+        this.batchSize = batchSize;
+        Gauge.builder("cart.tier.carts", hot, AtomicLong::get).tag("tier", "redis").register(meterRegistry);
+        Gauge.builder("cart.tier.carts", cold, AtomicLong::get).tag("tier", "database").register(meterRegistry);
+        this.demoted = meterRegistry.counter("cart.tier.demoted");
+    }
+
+    /**
+     * Walks all the baskets.
+     */
+    @Scheduled(fixedDelayString = "${utils.cart.tiering.interval}", initialDelayString = "${utils.cart.tiering.interval}")
+    public void demote() {
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        ScanOptions options = ScanOptions.scanOptions().match(cartPrefix + "*").count(batchSize).build();
+        long[] counts = new long[2];
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            try (Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+                List<String> batch = new ArrayList<>(batchSize);
+                while (cursor.hasNext()) {
+                    String key = serializer.deserialize(cursor.next());
+                    if (!cartExpiration.isGuest(key)) {
+                        batch.add(key);
+                    }
+                    if (batch.size() == batchSize) {
+                        demote(batch, counts);
+                        batch.clear();
+                    }
+                }
+                demote(batch, counts);
+            }
+            return null;
+        });
+        hot.set(counts[0] - counts[1]);
+        cold.set(coldCarts.count());
+        demoted.increment(counts[1]);
+        log.info("Baskets checked: {} user baskets, {} moved to the database", counts[0], counts[1]);
+    }
+
+    /**
+     * Requests the remaining lifetime of the baskets of the batch in one pipeline and moves the idle ones.
+     * @param batch
+     * @param counts user baskets, baskets moved
+     */
+    private void demote(List<String> batch, long[] counts) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        List<Object> ttls = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : batch) {
+                connection.keyCommands().pTtl(serializer.serialize(key));
+            }
+            return null;
+        });
+        for (int i = 0; i < batch.size(); i++) {
+            String key = batch.get(i);
+            Long ttl = (Long) ttls.get(i);
+            if (ttl == null || ttl == -2) {
+                continue;
+            }
+            counts[0]++;
+            if (ttl == -1 || cartExpiration.ttl(key).toMillis() - ttl < demoteAfter.toMillis()) {
+                continue;
+            }
+            try {
+                if (tieredCarts.demote(key)) {
+                    counts[1]++;
+                }
+            } catch (DataAccessException e) {
+                log.warn("The basket {} was not moved to the database: {}", key, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package webmarket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.KeyExpirationEventMessageListener;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Counts the baskets removed by Redis when their lifetime ran out.
+ * On start the listener enables keyspace notifications of Redis.
+ */
+@Component
+public class CartExpiredListener extends KeyExpirationEventMessageListener {
+
+    /**
+     * Prefix for each basket.
+     */
+    private final String cartPrefix;
+
+    /**
+     * The number of expired baskets.
+     */
+    private final Counter expired;
+
+    public CartExpiredListener(RedisMessageListenerContainer listenerContainer,
+                               MeterRegistry meterRegistry,
+                               @Value("${utils.cart.prefix}") String cartPrefix) {
+        super(listenerContainer);
+        this.cartPrefix = cartPrefix;
+        this.expired = meterRegistry.counter("cart.carts.expired");
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (new String(message.getBody(), StandardCharsets.UTF_8).startsWith(cartPrefix)) {
+            expired.increment();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package webmarket.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import webmarket.repositories.CartVersionRepository;
+import webmarket.repositories.ShardedCartRepository;
+import webmarket.utils.CartShards;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Moves the baskets that are not accessed while resharding. The previous nodes are walked with SCAN in batches
+ * and every basket whose node changed is moved to its node. A previous node on which a walk finds no basket
+ * left to move is drained; when all the previous nodes are drained, the resharding is complete.
+ * <p>
+ * While the resharding is not complete, a mark with the previous nodes is kept on the current nodes. An instance
+ * started without the previous nodes refuses to start while the mark is there, so the previous nodes cannot be
+ * removed from the settings before all the baskets are moved from them.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "utils.cart.storage", havingValue = "sharded")
+public class CartMigrator {
+
+    /**
+     * The key of the mark of the resharding in progress, its value is the previous nodes.
+     */
+    public static final String RESHARDING_KEY = "CART_RESHARDING";
+
+    /**
+     * The nodes of baskets.
+     */
+    private final CartShards cartShards;
+
+    /**
+     * The sharded storage of baskets.
+     */
+    private final ShardedCartRepository shardedCarts;
+
+    /**
+     * Prefix for each basket.
+     */
+    private final String cartPrefix;
+
+    /**
+     * The prefix of the versions of baskets, a cleared basket keeps only its version.
+     */
+    private final String versionPrefix;
+
+    /**
+     * The number of keys requested by one SCAN.
+     */
+    private final int batchSize;
+
+    /**
+     * The number of baskets left to move found by the last walk.
+     */
+    private final AtomicLong pending = new AtomicLong();
+
+    public CartMigrator(CartShards cartShards,
+                        ShardedCartRepository shardedCarts,
+                        CartVersionRepository versions,
+                        MeterRegistry meterRegistry,
+                        @Value("${utils.cart.prefix}") String cartPrefix,
+                        @Value("${utils.cart.sharding.migrate-batch-size}") int batchSize) {
+        this.cartShards = cartShards;
+        this.shardedCarts = shardedCarts;
+        this.cartPrefix = cartPrefix;
+        this.versionPrefix = versions.key("");
+        this.batchSize = batchSize;
+        Gauge.builder("cart.shard.migration.pending", pending, AtomicLong::get).register(meterRegistry);
+    }
+
+    /**
+     * Marks the resharding as in progress, or checks that no resharding was left incomplete.
+     */
+    @PostConstruct
+    public void check() {
+        if (cartShards.getPrevious().isEmpty()) {
+            for (CartShards.Shard shard : cartShards.getCurrent()) {
+                String previous = shard.getStringRedisTemplate().opsForValue().get(RESHARDING_KEY);
+                if (previous != null) {
+                    throw new IllegalStateException("The baskets are not moved yet from the previous nodes " + previous
+                            + ", keep them in utils.cart.sharding.previous-nodes until the resharding is complete");
+                }
+            }
+            return;
+        }
+        String previous = cartShards.getPrevious().stream().map(CartShards.Shard::getName).collect(Collectors.joining(","));
+        cartShards.getCurrent().forEach(shard -> shard.getStringRedisTemplate().opsForValue().set(RESHARDING_KEY, previous));
+    }
+
+    /**
+     * Walks the previous nodes that are not drained yet.
+     */
+    @Scheduled(fixedDelayString = "${utils.cart.sharding.migrate-interval}")
+    public void migrate() {
+        if (cartShards.getPrevious().isEmpty() || shardedCarts.isMigrated()) {
+            return;
+        }
+        long found = 0;
+        for (CartShards.Shard source : cartShards.getPrevious()) {
+            long left = walk(source);
+            if (left == 0) {
+                shardedCarts.drained(source);
+            }
+            found += left;
+        }
+        pending.set(found);
+        if (shardedCarts.isMigrated()) {
+            cartShards.getCurrent().forEach(shard -> shard.getStringRedisTemplate().delete(RESHARDING_KEY));
+            log.info("Resharding is complete, the previous nodes can be removed from the settings");
+        } else {
+            log.info("Resharding: {} baskets found on the previous nodes and moved", found);
+        }
+    }
+
+    /**
+     * Moves the baskets of the previous node whose node changed.
+     * @param source the previous node
+     * @return the number of baskets found that had to be moved
+     */
+    private long walk(CartShards.Shard source) {
+        long found = 0;
+        for (String cartKey : scan(source, cartPrefix, "")) {
+            if (cartShards.shard(cartKey) != source && shardedCarts.moveFromPrevious(cartKey, source)) {
+                found++;
+            }
+        }
+        for (String cartKey : scan(source, versionPrefix + cartPrefix, versionPrefix)) {
+            if (cartShards.shard(cartKey) != source && shardedCarts.moveFromPrevious(cartKey, source)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Walks the keys of the node with SCAN in batches.
+     * @param source
+     * @param prefix the prefix of the keys walked
+     * @param stripped the prefix removed to get the basket key
+     * @return the keys of baskets
+     */
+    private List<String> scan(CartShards.Shard source, String prefix, String stripped) {
+        StringRedisTemplate redisTemplate = source.getStringRedisTemplate();
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(batchSize).build();
+        List<String> cartKeys = new ArrayList<>();
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            try (Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+                while (cursor.hasNext()) {
+                    cartKeys.add(serializer.deserialize(cursor.next()).substring(stripped.length()));
+                }
+            }
+            return null;
+        });
+        return cartKeys;
+    }
+}
@@ -0,0 +1,165 @@
+package webmarket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import webmarket.utils.CartExpiration;
+import webmarket.utils.CartShards;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically walks the baskets in Redis with SCAN in batches, counts live guest and user baskets and
+ * sets the lifetime on the baskets that have none, for example those written before the lifetime was introduced.
+ * Such baskets are then removed by Redis itself.
+ * If the baskets are spread across several nodes, every node is walked.
+ */
+@Slf4j
+@Component
+public class CartReaper {
+
+    /**
+     * Templates for working with the Redis nodes that keep baskets.
+     */
+    private final List<StringRedisTemplate> redisTemplates;
+
+    /**
+     * Lifetime of baskets.
+     */
+    private final CartExpiration cartExpiration;
+
+    /**
+     * Prefix for each basket.
+     */
+    private final String cartPrefix;
+
+    /**
+     * The number of keys requested by one SCAN and checked by one pipeline.
+     */
+    private final int batchSize;
+
+    /**
+     * The number of guest baskets found by the last walk.
+     */
+    private final AtomicLong liveGuests = new AtomicLong();
+
+    /**
+     * The number of user baskets found by the last walk.
+     */
+    private final AtomicLong liveUsers = new AtomicLong();
+
+    /**
+     * The number of baskets that were given a lifetime.
+     */
+    private final Counter reaped;
+
+    public CartReaper(StringRedisTemplate redisTemplate,
+                      ObjectProvider<CartShards> cartShards,
+                      CartExpiration cartExpiration,
+                      MeterRegistry meterRegistry,
+                      @Value("${utils.cart.prefix}") String cartPrefix,
+                      @Value("${utils.cart.reaper.batch-size}") int batchSize) {
+        CartShards shards = cartShards.getIfAvailable();
+        this.redisTemplates = shards == null ? List.of(redisTemplate) : shards.getShards().values().stream()
+                .map(CartShards.Shard::getStringRedisTemplate)
+                .collect(Collectors.toList());
+        this.cartExpiration = cartExpiration;
+        this.cartPrefix = cartPrefix;
+        this.batchSize = batchSize;
+        Gauge.builder("cart.carts.live", liveGuests, AtomicLong::get).tag("type", "guest").register(meterRegistry);
+        Gauge.builder("cart.carts.live", liveUsers, AtomicLong::get).tag("type", "user").register(meterRegistry);
+        this.reaped = meterRegistry.counter("cart.carts.reaped");
+    }
+
+    /**
+     * Walks all the baskets.
+     */
+    @Scheduled(fixedDelayString = "${utils.cart.reaper.interval}", initialDelayString = "${utils.cart.reaper.interval}")
+    public void reap() {
+        long[] counts = new long[3];
+        redisTemplates.forEach(redisTemplate -> reap(redisTemplate, counts));
+        liveGuests.set(counts[0]);
+        liveUsers.set(counts[1]);
+        reaped.increment(counts[2]);
+        log.info("Baskets checked: {} guest, {} user, {} given a lifetime", counts[0], counts[1], counts[2]);
+    }
+
+    /**
+     * Walks the baskets of one node.
+     * @param redisTemplate
+     * @param counts guest baskets, user baskets, baskets given a lifetime
+     */
+    private void reap(StringRedisTemplate redisTemplate, long[] counts) {
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        ScanOptions options = ScanOptions.scanOptions().match(cartPrefix + "*").count(batchSize).build();
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            try (Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+                List<String> batch = new ArrayList<>(batchSize);
+                while (cursor.hasNext()) {
+                    batch.add(serializer.deserialize(cursor.next()));
+                    if (batch.size() == batchSize) {
+                        expire(redisTemplate, batch, counts);
+                        batch.clear();
+                    }
+                }
+                expire(redisTemplate, batch, counts);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Requests the lifetime of the baskets of the batch in one pipeline and sets it for those that have none.
+     * @param redisTemplate
+     * @param batch
+     * @param counts guest baskets, user baskets, baskets given a lifetime
+     */
+    private void expire(StringRedisTemplate redisTemplate, List<String> batch, long[] counts) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        List<Object> ttls = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : batch) {
+                connection.keyCommands().pTtl(serializer.serialize(key));
+            }
+            return null;
+        });
+        List<String> orphans = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String key = batch.get(i);
+            Long ttl = (Long) ttls.get(i);
+            if (ttl == null || ttl == -2) {
+                continue;
+            }
+            counts[cartExpiration.isGuest(key) ? 0 : 1]++;
+            if (ttl == -1) {
+                orphans.add(key);
+            }
+        }
+        if (orphans.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : orphans) {
+                connection.keyCommands().pExpire(serializer.serialize(key), cartExpiration.ttl(key).toMillis());
+            }
+            return null;
+        });
+        counts[2] += orphans.size();
+    }
+}
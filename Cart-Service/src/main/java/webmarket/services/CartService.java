@@ -2,21 +2,33 @@ package webmarket.services;
 
 import webmarket.integrations.ProductServiceIntegration;
 import webmarket.model.Cart;
+import webmarket.model.CartView;
+import webmarket.repositories.CartRepository;
+import webmarket.serializers.CartJsonView;
+import webmarket.utils.CartExpiration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.springframework.core.NestedExceptionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
-import org.springframework.util.concurrent.ListenableFuture;
+import webmarket.cart.CartOperationDto;
 import webmarket.core.ProductDto;
+import webmarket.exceptions.InvalidCartOperationException;
 import webmarket.exceptions.ResourceNotFoundException;
 
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.function.Consumer;
 
 /**
  * A service for working with a basket, the main tasks are to issue a basket object to the user.
@@ -24,6 +36,7 @@ import java.util.function.Consumer;
  */
 @Service
 @Data
+@Slf4j
 @RequiredArgsConstructor
 public class CartService {
 
@@ -33,9 +46,19 @@ public class CartService {
     private final ProductServiceIntegration productsService;
 
     /**
-     * Template for working with Redis.
+     * Storage of baskets.
      */
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final CartRepository cartRepository;
+
+    /**
+     * Lifetime of baskets, also tells guest baskets from user baskets.
+     */
+    private final CartExpiration cartExpiration;
+
+    /**
+     * Writer of the JSON of baskets.
+     */
+    private final CartJsonView cartJsonView;
 
     /**
      * Prefix for each basket.
@@ -43,6 +66,12 @@ public class CartService {
     @Value("${utils.cart.prefix}")
     private String cartPrefix;
 
+    /**
+     * The maximum number of changes in one batch request.
+     */
+    @Value("${utils.cart.max-batch-size}")
+    private int maxBatchSize;
+
     /**
      * A template for sending messages to the kafka data exchange bus.
      */
@@ -50,6 +79,11 @@ public class CartService {
     @Autowired
     private KafkaTemplate<Long, ProductDto> kafkaTemplate;
 
+    /**
+     * Registry of service metrics.
+     */
+    private final MeterRegistry meterRegistry;
+
     /**
      * Issues a unique bucket number with a suffix.
      * @param suffix
@@ -74,10 +108,31 @@ public class CartService {
      * @return
      */
     public Cart getCurrentCart(String cartKey) {
-        if (!redisTemplate.hasKey(cartKey)) {
-            redisTemplate.opsForValue().set(cartKey, new Cart());
+        return cartRepository.findByKey(cartKey);
+    }
+
+    /**
+     * Returns the basket as the ready JSON of the response. If the storage does not keep the ready JSON
+     * of the basket, the basket is read and written to JSON.
+     * @param cartKey
+     * @return CartView
+     */
+    public CartView getCurrentCartView(String cartKey) {
+        CartView view = cartRepository.findView(cartKey);
+        if (view != null) {
+            return view;
         }
-        return (Cart) redisTemplate.opsForValue().get(cartKey);
+        Cart cart = cartRepository.findByKey(cartKey);
+        return new CartView(cart.getVersion(), cartJsonView.write(cart));
+    }
+
+    /**
+     * Returns the version of the basket without reading the basket itself.
+     * @param cartKey
+     * @return long
+     */
+    public long getCartVersion(String cartKey) {
+        return cartRepository.findVersion(cartKey);
     }
 
     /**
@@ -85,73 +140,174 @@ public class CartService {
      * kafka to the analytics service about adding a product to the cart.
      * @param cartKey
      * @param productId
+     * @return the version of the basket
      */
-    public void addToCart(String cartKey, Long productId) {
+    public long addToCart(String cartKey, Long productId) {
         ProductDto productDto = productsService.findById(productId).orElseThrow(() -> new ResourceNotFoundException("Невозможно добавить продукт в корзину. Продукт не найдет, id: " + productId));
-        execute(cartKey, c -> {
-            c.add(productDto);
-        });
-        ListenableFuture<SendResult<Long, ProductDto>> future = kafkaTemplate.send("ProductAnalit", productDto);
-        //future.addCallback(System.out::println, System.err::println);
-        kafkaTemplate.flush();
+        long version = cartRepository.add(cartKey, productDto);
+        publish(productDto);
+        return version;
+    }
+
+    /**
+     * Applies a batch of changes to the basket. The products of all the changes are resolved in one lookup
+     * before the basket is touched, then the changes are applied in order and the basket is written once.
+     * If any change is invalid or refers to an unknown product, the basket is not changed. The analytics service
+     * is notified only of the changes that actually added units of a product.
+     * @param cartKey
+     * @param operations
+     * @return the basket after the changes
+     */
+    public Cart applyBatch(String cartKey, List<CartOperationDto> operations) {
+        if (operations.size() > maxBatchSize) {
+            throw new InvalidCartOperationException("Too many changes in one request: " + operations.size() + ", at most " + maxBatchSize);
+        }
+        Set<Long> productIds = new LinkedHashSet<>();
+        for (CartOperationDto operation : operations) {
+            validate(operation);
+            if (needsProduct(operation)) {
+                productIds.add(operation.getProductId());
+            }
+        }
+        Map<Long, ProductDto> products = productIds.isEmpty() ? Map.of() : productsService.findAllById(productIds);
+        for (Long productId : productIds) {
+            if (!products.containsKey(productId)) {
+                throw new ResourceNotFoundException("Невозможно добавить продукт в корзину. Продукт не найдет, id: " + productId);
+            }
+        }
+        Cart cart = cartRepository.apply(cartKey, operations, products);
+        for (Long productId : cart.getAddedProducts()) {
+            publish(products.get(productId));
+        }
+        return cart;
+    }
+
+    /**
+     * Checks the change and sets the default number of units.
+     * @param operation
+     */
+    private void validate(CartOperationDto operation) {
+        if (operation == null) {
+            throw new InvalidCartOperationException("The change is not specified");
+        }
+        if (operation.getType() == null) {
+            throw new InvalidCartOperationException("The type of the change is not specified");
+        }
+        if (operation.getType() == CartOperationDto.Type.CLEAR) {
+            return;
+        }
+        if (operation.getProductId() == null) {
+            throw new InvalidCartOperationException("The product is not specified for the change " + operation.getType());
+        }
+        if (operation.getQuantity() == null) {
+            if (operation.getType() == CartOperationDto.Type.SET) {
+                throw new InvalidCartOperationException("The number of units is not specified for the product " + operation.getProductId());
+            }
+            operation.setQuantity(1);
+        }
+        int min = operation.getType() == CartOperationDto.Type.SET ? 0 : 1;
+        if (operation.getQuantity() < min) {
+            throw new InvalidCartOperationException("Invalid number of units " + operation.getQuantity() + " for the product " + operation.getProductId());
+        }
+    }
+
+    /**
+     * Whether the change may add units of the product, so the product must be known.
+     * @param operation
+     * @return boolean
+     */
+    private boolean needsProduct(CartOperationDto operation) {
+        return operation.getType() == CartOperationDto.Type.ADD
+                || operation.getType() == CartOperationDto.Type.SET && operation.getQuantity() > 0;
+    }
+
+    /**
+     * Sends a message to the analytics service without waiting for the broker. The message is keyed by the product id,
+     * so the messages of one product go to one partition and are counted in order. The message goes to the
+     * producer buffer and is sent in a batch; if the buffer is full and kafka does not free it in time,
+     * the message is dropped so that adding to the cart does not depend on the broker.
+     * @param productDto
+     */
+    private void publish(ProductDto productDto) {
+        try {
+            kafkaTemplate.send("ProductAnalit", productDto.getId(), productDto).addCallback(
+                    result -> counter("sent").increment(),
+                    e -> failed(productDto, e));
+        } catch (KafkaException e) {
+            failed(productDto, e);
+        }
+    }
+
+    /**
+     * Records an unsent message, a timeout means that the message was dropped because kafka is slow.
+     * @param productDto
+     * @param e
+     */
+    private void failed(ProductDto productDto, Throwable e) {
+        String outcome = NestedExceptionUtils.getMostSpecificCause(e) instanceof TimeoutException ? "dropped" : "failed";
+        counter(outcome).increment();
+        log.warn("The product {} was not sent to analytics ({}): {}", productDto.getId(), outcome, e.getMessage());
+    }
+
+    /**
+     * Returns the counter of messages sent to analytics with the given outcome.
+     * @param outcome
+     * @return Counter
+     */
+    private Counter counter(String outcome) {
+        return meterRegistry.counter("cart.analytics.messages", "outcome", outcome);
     }
 
     /**
      * Clears the trash.
      * @param cartKey
+     * @return the version of the basket
      */
-    public void clearCart(String cartKey) {
-        execute(cartKey, Cart::clear);
+    public long clearCart(String cartKey) {
+        return cartRepository.clear(cartKey);
     }
 
     /**
      * Removes an item from the trash.
      * @param cartKey
      * @param productId
+     * @return the version of the basket
      */
-    public void removeItemFromCart(String cartKey, Long productId) {
-        execute(cartKey, c -> c.remove(productId));
+    public long removeItemFromCart(String cartKey, Long productId) {
+        return cartRepository.remove(cartKey, productId);
     }
 
     /**
      * Reduces the amount of product.
      * @param cartKey
      * @param productId
+     * @return the version of the basket
      */
-    public void decrementItem(String cartKey, Long productId) {
-        execute(cartKey, c -> c.decrement(productId));
+    public long decrementItem(String cartKey, Long productId) {
+        return cartRepository.decrement(cartKey, productId);
     }
 
     /**
-     * Combines the guest basket with the basket of the registered user.
+     * Combines the guest basket with the basket of the registered user. Only a guest basket can be merged,
+     * so that the basket of another user cannot be taken by its key.
      * @param userCartKey
      * @param guestCartKey
+     * @return the version of the user basket
      */
-    public void merge(String userCartKey, String guestCartKey) {
-        Cart guestCart = getCurrentCart(guestCartKey);
-        Cart userCart = getCurrentCart(userCartKey);
-        userCart.merge(guestCart);
-        updateCart(guestCartKey, guestCart);
-        updateCart(userCartKey, userCart);
-    }
-
-    /**
-     * Executes a command for the bucket.
-     * @param cartKey
-     * @param action
-     */
-    private void execute(String cartKey, Consumer<Cart> action) {
-        Cart cart = getCurrentCart(cartKey);
-        action.accept(cart);
-        redisTemplate.opsForValue().set(cartKey, cart);
+    public long merge(String userCartKey, String guestCartKey) {
+        if (!cartExpiration.isGuest(guestCartKey) || guestCartKey.equals(userCartKey)) {
+            return cartRepository.findVersion(userCartKey);
+        }
+        return cartRepository.merge(userCartKey, guestCartKey);
     }
 
     /**
      * Updates the bucket object in the Redis database.
      * @param cartKey
      * @param cart
+     * @return the version of the basket
      */
-    public void updateCart(String cartKey, Cart cart) {
-        redisTemplate.opsForValue().set(cartKey, cart);
+    public long updateCart(String cartKey, Cart cart) {
+        return cartRepository.save(cartKey, cart);
     }
 }
\ No newline at end of file
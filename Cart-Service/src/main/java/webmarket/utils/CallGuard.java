@@ -0,0 +1,210 @@
+package webmarket.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Protects the calls to a remote service with a circuit breaker and a bulkhead.
+ * <p>
+ * The breaker opens after a number of failed calls in a row and then rejects the calls without making them,
+ * so a slow service does not hold the threads of the requests. After the open period one trial call is let
+ * through: if it succeeds, the breaker closes, otherwise it opens again.
+ * <p>
+ * The bulkhead limits the number of calls made at the same time; a call that does not get a place in time
+ * is rejected, so the threads waiting for the service never take the whole pool of the web server.
+ */
+public class CallGuard {
+
+    /**
+     * States of the breaker.
+     */
+    public enum State {
+        /**
+         * The calls are made.
+         */
+        CLOSED,
+        /**
+         * The calls are rejected.
+         */
+        OPEN,
+        /**
+         * One trial call is made, the others are rejected.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * The name of the service in the metrics.
+     */
+    private final String name;
+
+    /**
+     * The number of failed calls in a row that opens the breaker.
+     */
+    private final int failureThreshold;
+
+    /**
+     * How long the breaker stays open.
+     */
+    private final long openMillis;
+
+    /**
+     * Places of the bulkhead.
+     */
+    private final Semaphore bulkhead;
+
+    /**
+     * How long a call waits for a place in the bulkhead.
+     */
+    private final long maxWaitMillis;
+
+    /**
+     * Tells the failures of the service from the answers of the service, such as "not found".
+     */
+    private final Predicate<RuntimeException> isFailure;
+
+    private final MeterRegistry meterRegistry;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long openedAt;
+
+    public CallGuard(String name, int failureThreshold, Duration openDuration, int maxConcurrentCalls, Duration maxWait,
+                     Predicate<RuntimeException> isFailure, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openDuration.toMillis();
+        this.bulkhead = new Semaphore(maxConcurrentCalls);
+        this.maxWaitMillis = maxWait.toMillis();
+        this.isFailure = isFailure;
+        this.meterRegistry = meterRegistry;
+        for (State s : State.values()) {
+            Gauge.builder("cart.integration.breaker.state", this, g -> g.getState() == s ? 1 : 0)
+                    .tag("service", name)
+                    .tag("state", s.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+        Gauge.builder("cart.integration.bulkhead.available", bulkhead, Semaphore::availablePermits)
+                .tag("service", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * The state of the breaker.
+     * @return State
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Makes the call if the breaker and the bulkhead let it through. The breaker is checked first, so the calls
+     * are rejected at once while it is open and never wait for a place in the bulkhead.
+     * @param call
+     * @return the result of the call
+     * @throws CallRejectedException if the call was not made
+     */
+    public <T> T call(Supplier<T> call) {
+        State admitted = acquire();
+        if (admitted == null) {
+            count("rejected_breaker");
+            throw new CallRejectedException("The circuit breaker of " + name + " is open");
+        }
+        boolean permitted;
+        try {
+            permitted = bulkhead.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permitted = false;
+        }
+        if (!permitted) {
+            if (admitted == State.HALF_OPEN) {
+                cancelTrial();
+            }
+            count("rejected_bulkhead");
+            throw new CallRejectedException("Too many calls to " + name + " at the same time");
+        }
+        try {
+            T result = call.get();
+            release(true);
+            count("success");
+            return result;
+        } catch (RuntimeException e) {
+            boolean failure = isFailure.test(e);
+            release(!failure);
+            count(failure ? "failure" : "success");
+            throw e;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Lets the call through the breaker.
+     * @return the state in which the call is let through, HALF_OPEN for the trial call, null if the call is rejected
+     */
+    private synchronized State acquire() {
+        State current = getState();
+        if (current == State.OPEN) {
+            return null;
+        }
+        if (current == State.HALF_OPEN) {
+            if (state == State.HALF_OPEN) {
+                // the trial call is already being made
+                return null;
+            }
+            state = State.HALF_OPEN;
+        }
+        return current;
+    }
+
+    /**
+     * Gives back the trial call that was not made, the open period is over, so the next call becomes the trial one.
+     */
+    private synchronized void cancelTrial() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * Records the outcome of the call.
+     * @param success
+     */
+    private synchronized void release(boolean success) {
+        if (success) {
+            failures = 0;
+            state = State.CLOSED;
+            return;
+        }
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    private void count(String outcome) {
+        meterRegistry.counter("cart.integration.calls", "service", name, "outcome", outcome).increment();
+    }
+
+    /**
+     * An exception is thrown if the call was rejected by the breaker or the bulkhead.
+     */
+    public static class CallRejectedException extends RuntimeException {
+        public CallRejectedException(String message) {
+            super(message);
+        }
+    }
+}
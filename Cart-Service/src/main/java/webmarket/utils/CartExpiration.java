@@ -0,0 +1,57 @@
+package webmarket.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+/**
+ * Determines the lifetime of baskets. Guest baskets are keyed by a generated uuid, user baskets by the username,
+ * and each kind has its own lifetime. The lifetime is sliding: it is renewed on every access to the basket.
+ */
+@Component
+public class CartExpiration {
+
+    /**
+     * The suffix of a guest basket key.
+     */
+    private static final Pattern GUEST_SUFFIX = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    /**
+     * Prefix for each basket.
+     */
+    @Value("${utils.cart.prefix}")
+    private String cartPrefix;
+
+    /**
+     * Lifetime of a guest basket.
+     */
+    @Value("${utils.cart.guest-ttl}")
+    private Duration guestTtl;
+
+    /**
+     * Lifetime of a registered user's basket.
+     */
+    @Value("${utils.cart.user-ttl}")
+    private Duration userTtl;
+
+    /**
+     * Checks whether the key belongs to a guest basket.
+     * @param cartKey
+     * @return boolean
+     */
+    public boolean isGuest(String cartKey) {
+        return cartKey.startsWith(cartPrefix)
+                && GUEST_SUFFIX.matcher(cartKey).region(cartPrefix.length(), cartKey.length()).matches();
+    }
+
+    /**
+     * Returns the lifetime of the basket.
+     * @param cartKey
+     * @return Duration
+     */
+    public Duration ttl(String cartKey) {
+        return isGuest(cartKey) ? guestTtl : userTtl;
+    }
+}
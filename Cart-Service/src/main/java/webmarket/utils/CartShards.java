@@ -0,0 +1,179 @@
+package webmarket.utils;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import webmarket.cart.CartRing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The Redis nodes the baskets are spread across. A basket is placed on a node by consistent hashing of its key:
+ * every node takes a number of points on a ring and the basket belongs to the first point after the hash of its key.
+ * When a node is added or removed, only the baskets of the neighbouring points move.
+ * <p>
+ * During resharding the previous set of nodes is kept as well, so that a basket not yet moved can be found
+ * on the node it belonged to before.
+ */
+public class CartShards implements DisposableBean {
+
+    /**
+     * The nodes by their address.
+     */
+    private final Map<String, Shard> shards;
+
+    /**
+     * The ring of the current set of nodes.
+     */
+    private final NavigableMap<Long, Shard> ring;
+
+    /**
+     * The ring of the previous set of nodes, empty if no resharding is in progress.
+     */
+    private final NavigableMap<Long, Shard> previousRing;
+
+    /**
+     * The current set of nodes.
+     */
+    private final List<Shard> current;
+
+    /**
+     * The previous set of nodes, empty if no resharding is in progress.
+     */
+    private final List<Shard> previous;
+
+    public CartShards(Map<String, Shard> shards, List<String> nodes, List<String> previousNodes, int virtualNodes) {
+        this.shards = shards;
+        this.ring = ring(nodes, virtualNodes);
+        this.previousRing = ring(previousNodes, virtualNodes);
+        this.current = nodes.stream().map(shards::get).distinct().toList();
+        this.previous = previousNodes.stream().map(shards::get).distinct().toList();
+    }
+
+    /**
+     * All the nodes, including the nodes of the previous set.
+     * @return the nodes by their address
+     */
+    public Map<String, Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * The current set of nodes.
+     * @return List
+     */
+    public List<Shard> getCurrent() {
+        return current;
+    }
+
+    /**
+     * The previous set of nodes.
+     * @return List, empty if no resharding is in progress
+     */
+    public List<Shard> getPrevious() {
+        return previous;
+    }
+
+    /**
+     * Returns the node the basket belongs to.
+     * @param cartKey
+     * @return Shard
+     */
+    public Shard shard(String cartKey) {
+        return find(ring, cartKey);
+    }
+
+    /**
+     * Returns the node the basket belonged to before resharding.
+     * @param cartKey
+     * @return the node or null if no resharding is in progress
+     */
+    public Shard previousShard(String cartKey) {
+        return previousRing.isEmpty() ? null : find(previousRing, cartKey);
+    }
+
+    @Override
+    public void destroy() {
+        shards.values().forEach(s -> s.getConnectionFactory().destroy());
+    }
+
+    /**
+     * Builds the ring of the nodes.
+     * @param nodes
+     * @param virtualNodes the number of points of each node
+     * @return NavigableMap
+     */
+    private NavigableMap<Long, Shard> ring(List<String> nodes, int virtualNodes) {
+        NavigableMap<Long, Shard> points = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(CartRing.point(node, i), shards.get(node));
+            }
+        }
+        return points;
+    }
+
+    private static Shard find(NavigableMap<Long, Shard> ring, String cartKey) {
+        Map.Entry<Long, Shard> point = ring.ceilingEntry(CartRing.hash(cartKey));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * One Redis node with its templates.
+     */
+    public static class Shard {
+
+        /**
+         * Address of the node, host:port.
+         */
+        private final String name;
+
+        private final String host;
+
+        private final int port;
+
+        private final JedisConnectionFactory connectionFactory;
+
+        private final RedisTemplate<String, Object> redisTemplate;
+
+        private final StringRedisTemplate stringRedisTemplate;
+
+        public Shard(String name, String host, int port, JedisConnectionFactory connectionFactory,
+                     RedisTemplate<String, Object> redisTemplate, StringRedisTemplate stringRedisTemplate) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.connectionFactory = connectionFactory;
+            this.redisTemplate = redisTemplate;
+            this.stringRedisTemplate = stringRedisTemplate;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public JedisConnectionFactory getConnectionFactory() {
+            return connectionFactory;
+        }
+
+        public RedisTemplate<String, Object> getRedisTemplate() {
+            return redisTemplate;
+        }
+
+        public StringRedisTemplate getStringRedisTemplate() {
+            return stringRedisTemplate;
+        }
+    }
+}
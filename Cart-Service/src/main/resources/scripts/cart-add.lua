@@ -0,0 +1,18 @@
+-- Adds units of the product to the basket stored as a hash.
+-- Returns the new version of the basket, -2 if the basket was moved to the database.
+-- KEYS[1] - basket key, KEYS[2] - basket version key, KEYS[3] - mark of the basket moved to the database
+-- ARGV[1] - product id, ARGV[2] - number of units,
+-- ARGV[3] - price per unit, ARGV[4] - product name,
+-- ARGV[5] - lifetime of the basket in milliseconds
+if redis.call('EXISTS', KEYS[3]) == 1 then
+    return -2
+end
+local quantity = redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])
+if quantity == tonumber(ARGV[2]) then
+    local seq = redis.call('HINCRBY', KEYS[1], '#seq', 1)
+    redis.call('HSET', KEYS[1], ARGV[1] .. ':item', seq .. '|' .. ARGV[3] .. '|' .. ARGV[4])
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[5])
+local version = redis.call('INCR', KEYS[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[5])
+return version
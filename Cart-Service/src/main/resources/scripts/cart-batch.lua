@@ -0,0 +1,56 @@
+-- Applies a list of operations to the basket stored as a hash and returns the version, the ids of the products
+-- whose units were added (one per operation) and then the fields of the basket, or only -2 if the basket was moved
+-- to the database. The version is raised only if the operations changed the basket.
+-- KEYS[1] - basket key, KEYS[2] - basket version key, KEYS[3] - mark of the basket moved to the database
+-- ARGV[1] - lifetime of the basket in milliseconds,
+-- then five arguments per operation: type, product id, number of units, price per unit, product name
+if redis.call('EXISTS', KEYS[3]) == 1 then
+    return { -2 }
+end
+local changed = false
+local added = {}
+for i = 2, #ARGV, 5 do
+    local operation, id, units = ARGV[i], ARGV[i + 1], tonumber(ARGV[i + 2])
+    if operation == 'CLEAR' then
+        if redis.call('DEL', KEYS[1]) == 1 then
+            changed = true
+        end
+    elseif operation == 'REMOVE' then
+        if redis.call('HDEL', KEYS[1], id, id .. ':item') > 0 then
+            changed = true
+        end
+    else
+        local current = tonumber(redis.call('HGET', KEYS[1], id)) or 0
+        local delta = units
+        if operation == 'DECREMENT' then
+            delta = -units
+        elseif operation == 'SET' then
+            delta = units - current
+        end
+        if delta ~= 0 and (current > 0 or delta > 0) then
+            changed = true
+            if delta > 0 then
+                table.insert(added, id)
+            end
+            local quantity = redis.call('HINCRBY', KEYS[1], id, delta)
+            if quantity <= 0 then
+                redis.call('HDEL', KEYS[1], id, id .. ':item')
+            elseif current == 0 then
+                local seq = redis.call('HINCRBY', KEYS[1], '#seq', 1)
+                redis.call('HSET', KEYS[1], id .. ':item', seq .. '|' .. ARGV[i + 3] .. '|' .. ARGV[i + 4])
+            end
+        end
+    end
+end
+local version
+if changed then
+    version = redis.call('INCR', KEYS[2])
+else
+    version = tonumber(redis.call('GET', KEYS[2])) or 0
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[1])
+redis.call('PEXPIRE', KEYS[2], ARGV[1])
+local result = redis.call('HGETALL', KEYS[1])
+table.insert(result, 1, added)
+table.insert(result, 1, version)
+return result
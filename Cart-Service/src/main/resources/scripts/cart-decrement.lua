@@ -0,0 +1,18 @@
+-- Reduces the number of units of the product, the position is removed when it runs out.
+-- Returns the version of the basket, -2 if the basket was moved to the database.
+-- KEYS[1] - basket key, KEYS[2] - basket version key, KEYS[3] - mark of the basket moved to the database
+-- ARGV[1] - product id, ARGV[2] - lifetime of the basket in milliseconds
+if redis.call('EXISTS', KEYS[3]) == 1 then
+    return -2
+end
+if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+    return tonumber(redis.call('GET', KEYS[2])) or 0
+end
+local quantity = redis.call('HINCRBY', KEYS[1], ARGV[1], -1)
+if quantity <= 0 then
+    redis.call('HDEL', KEYS[1], ARGV[1], ARGV[1] .. ':item')
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[2])
+local version = redis.call('INCR', KEYS[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[2])
+return version
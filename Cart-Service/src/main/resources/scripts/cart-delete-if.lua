@@ -0,0 +1,8 @@
+-- Removes the key only if it still holds the given value, such as the token of the lock taken by the caller.
+-- Returns 1 if the key was removed, 0 otherwise.
+-- KEYS[1] - the key
+-- ARGV[1] - the value
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
@@ -0,0 +1,13 @@
+-- Removes the basket from Redis after it was saved to the database and marks it as moved there.
+-- The basket is removed only if it was not changed since it was read, otherwise nothing is done.
+-- Returns 1 if the basket was removed, 0 if it was changed.
+-- KEYS[1] - basket version key, KEYS[2] - mark of the moved basket, KEYS[3..] - keys of the basket
+-- ARGV[1] - the version of the basket that was saved
+if (tonumber(redis.call('GET', KEYS[1])) or 0) ~= tonumber(ARGV[1]) then
+    return 0
+end
+for i = 3, #KEYS do
+    redis.call('DEL', KEYS[i])
+end
+redis.call('SET', KEYS[2], ARGV[1])
+return 1
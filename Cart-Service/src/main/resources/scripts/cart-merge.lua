@@ -0,0 +1,44 @@
+-- Moves the positions of the guest basket to the user basket, both stored as hashes, and deletes the guest basket.
+-- Positions are added in the order they were added to the guest basket.
+-- Returns the version of the user basket, -2 if the user basket was moved to the database.
+-- KEYS[1] - user basket key, KEYS[2] - guest basket key,
+-- KEYS[3] - user basket version key, KEYS[4] - guest basket version key,
+-- KEYS[5] - mark of the user basket moved to the database
+-- ARGV[1] - lifetime of the user basket in milliseconds, ARGV[2] - lifetime of the guest basket in milliseconds
+if redis.call('EXISTS', KEYS[5]) == 1 then
+    return -2
+end
+local guest = redis.call('HGETALL', KEYS[2])
+if #guest == 0 then
+    return tonumber(redis.call('GET', KEYS[3])) or 0
+end
+local quantities, items = {}, {}
+for i = 1, #guest, 2 do
+    local field, value = guest[i], guest[i + 1]
+    if string.sub(field, 1, 1) ~= '#' then
+        if string.sub(field, -5) == ':item' then
+            local seq, description = string.match(value, '^(%d+)(|.*)$')
+            table.insert(items, { tonumber(seq), string.sub(field, 1, -6), description })
+        else
+            quantities[field] = tonumber(value)
+        end
+    end
+end
+table.sort(items, function(a, b) return a[1] < b[1] end)
+for _, item in ipairs(items) do
+    local id, units = item[2], quantities[item[2]]
+    if units and units > 0 then
+        local quantity = redis.call('HINCRBY', KEYS[1], id, units)
+        if quantity == units then
+            local seq = redis.call('HINCRBY', KEYS[1], '#seq', 1)
+            redis.call('HSET', KEYS[1], id .. ':item', seq .. item[3])
+        end
+    end
+end
+redis.call('DEL', KEYS[2])
+redis.call('PEXPIRE', KEYS[1], ARGV[1])
+redis.call('INCR', KEYS[4])
+redis.call('PEXPIRE', KEYS[4], ARGV[2])
+local version = redis.call('INCR', KEYS[3])
+redis.call('PEXPIRE', KEYS[3], ARGV[1])
+return version
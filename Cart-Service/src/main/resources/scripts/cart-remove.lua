@@ -0,0 +1,22 @@
+-- Removes the position of the product or the whole basket stored as a hash.
+-- The removal and the increase of the version are made atomically, so the new version is never read
+-- together with the old contents. Nothing is written if there is nothing to remove.
+-- Returns the version of the basket, -2 if the basket was moved to the database.
+-- KEYS[1] - basket key, KEYS[2] - basket version key, KEYS[3] - mark of the basket moved to the database
+-- ARGV[1] - product id, empty to remove the whole basket, ARGV[2] - lifetime of the basket in milliseconds
+if redis.call('EXISTS', KEYS[3]) == 1 then
+    return -2
+end
+local removed
+if ARGV[1] == '' then
+    removed = redis.call('DEL', KEYS[1])
+else
+    removed = redis.call('HDEL', KEYS[1], ARGV[1], ARGV[1] .. ':item')
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+if removed == 0 then
+    return tonumber(redis.call('GET', KEYS[2])) or 0
+end
+local version = redis.call('INCR', KEYS[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[2])
+return version
@@ -0,0 +1,29 @@
+-- Overwrites the basket stored as a hash if its version is still the expected one.
+-- A basket moved to the database is written only when it is moved back: the expected version is then the version
+-- kept in the mark, and the mark is removed together with the write.
+-- Returns the new version of the basket, -1 if the basket has another version and nothing was written,
+-- -2 if the basket is moved to the database.
+-- KEYS[1] - basket key, KEYS[2] - basket version key, KEYS[3] - mark of the basket moved to the database
+-- ARGV[1] - the expected version, empty to write whatever the version is,
+-- ARGV[2] - lifetime of the basket in milliseconds,
+-- then four arguments per position: product id, number of units, price per unit, product name
+local moved = redis.call('GET', KEYS[3])
+if moved and moved ~= ARGV[1] then
+    return -2
+end
+if ARGV[1] ~= '' and (tonumber(redis.call('GET', KEYS[2])) or 0) ~= tonumber(ARGV[1]) then
+    return -1
+end
+redis.call('DEL', KEYS[1], KEYS[3])
+local seq = 0
+for i = 3, #ARGV, 4 do
+    seq = seq + 1
+    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1], ARGV[i] .. ':item', seq .. '|' .. ARGV[i + 2] .. '|' .. ARGV[i + 3])
+end
+if seq > 0 then
+    redis.call('HSET', KEYS[1], '#seq', seq)
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+local version = redis.call('INCR', KEYS[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[2])
+return version
@@ -0,0 +1,56 @@
+-- Appends the changes of the basket as events to the stream of the basket and to the common stream of basket activity.
+-- A basket that does not exist is not created by changes that cannot add units to it.
+-- If an expected version is given and the basket has another one, nothing is written and the version is -1.
+-- If the basket was moved to the database, nothing is written and the version is -2, unless the basket is being
+-- moved back: the expected version is then the version kept in the mark, and the mark is removed with the write.
+-- Returns the version of the basket and the length of the stream of the basket; if asked, also the snapshot
+-- and the events after it, read together with the version, so they show exactly the state of this version.
+-- KEYS[1] - basket stream key, KEYS[2] - basket version key, KEYS[3] - common stream key, KEYS[4] - snapshot key,
+-- KEYS[5] - mark of the basket moved to the database
+-- ARGV[1] - lifetime of the basket in milliseconds, ARGV[2] - approximate maximum length of the common stream,
+-- ARGV[3] - 1 to return the basket, 0 otherwise, ARGV[4] - the expected version, empty to write whatever the version is,
+-- then five arguments per event: type, product id, number of units, price per unit, product name
+local function result(version)
+    if ARGV[3] ~= '1' then
+        return { version, redis.call('XLEN', KEYS[1]) }
+    end
+    local snapshot = redis.call('HMGET', KEYS[4], 'id', 'cart')
+    local from = '-'
+    if snapshot[1] then
+        from = '(' .. snapshot[1]
+    end
+    return { version, redis.call('XLEN', KEYS[1]), snapshot[2] or '', redis.call('XRANGE', KEYS[1], from, '+') }
+end
+
+local moved = redis.call('GET', KEYS[5])
+if moved and moved ~= ARGV[4] then
+    return { -2, 0 }
+end
+if ARGV[4] ~= '' and (tonumber(redis.call('GET', KEYS[2])) or 0) ~= tonumber(ARGV[4]) then
+    return { -1, redis.call('XLEN', KEYS[1]) }
+end
+if moved then
+    redis.call('DEL', KEYS[5])
+end
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    local adds = false
+    for i = 5, #ARGV, 5 do
+        if (ARGV[i] == 'ADD' or ARGV[i] == 'SET') and tonumber(ARGV[i + 2]) > 0 then
+            adds = true
+        end
+    end
+    if not adds then
+        return result(tonumber(redis.call('GET', KEYS[2])) or 0)
+    end
+end
+for i = 5, #ARGV, 5 do
+    local id = redis.call('XADD', KEYS[1], '*',
+            'type', ARGV[i], 'productId', ARGV[i + 1], 'quantity', ARGV[i + 2], 'price', ARGV[i + 3], 'name', ARGV[i + 4])
+    redis.call('XADD', KEYS[3], 'MAXLEN', '~', ARGV[2], '*', 'cart', KEYS[1], 'event', id,
+            'type', ARGV[i], 'productId', ARGV[i + 1], 'quantity', ARGV[i + 2])
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[1])
+redis.call('PEXPIRE', KEYS[4], ARGV[1])
+local version = redis.call('INCR', KEYS[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[1])
+return result(version)
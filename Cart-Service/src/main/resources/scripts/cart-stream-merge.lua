@@ -0,0 +1,30 @@
+-- Appends the positions of the guest basket to the user basket as additions and removes the guest basket,
+-- unless the guest basket was changed after it was read.
+-- Returns the new version of the user basket, -1 if the guest basket was changed,
+-- -2 if the user basket was moved to the database.
+-- KEYS[1] - user basket stream key, KEYS[2] - user basket version key, KEYS[3] - common stream key,
+-- KEYS[4] - guest basket stream key, KEYS[5] - guest snapshot key, KEYS[6] - guest basket version key,
+-- KEYS[7] - mark of the user basket moved to the database, KEYS[8] - user snapshot key
+-- ARGV[1] - lifetime of the user basket in milliseconds, ARGV[2] - approximate maximum length of the common stream,
+-- ARGV[3] - version of the guest basket that was read, ARGV[4] - lifetime of the guest basket in milliseconds,
+-- then five arguments per event: type, product id, number of units, price per unit, product name
+if redis.call('EXISTS', KEYS[7]) == 1 then
+    return -2
+end
+if (tonumber(redis.call('GET', KEYS[6])) or 0) ~= tonumber(ARGV[3]) then
+    return -1
+end
+for i = 5, #ARGV, 5 do
+    local id = redis.call('XADD', KEYS[1], '*',
+            'type', ARGV[i], 'productId', ARGV[i + 1], 'quantity', ARGV[i + 2], 'price', ARGV[i + 3], 'name', ARGV[i + 4])
+    redis.call('XADD', KEYS[3], 'MAXLEN', '~', ARGV[2], '*', 'cart', KEYS[1], 'event', id,
+            'type', ARGV[i], 'productId', ARGV[i + 1], 'quantity', ARGV[i + 2])
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[1])
+redis.call('PEXPIRE', KEYS[8], ARGV[1])
+local version = redis.call('INCR', KEYS[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[1])
+redis.call('DEL', KEYS[4], KEYS[5])
+redis.call('INCR', KEYS[6])
+redis.call('PEXPIRE', KEYS[6], ARGV[4])
+return version
@@ -0,0 +1,21 @@
+-- Reads the snapshot of the basket and the events of the basket stream after it.
+-- Returns the version, the id of the last event in the snapshot, the snapshot and the events;
+-- only the version -2 if the basket was moved to the database.
+-- KEYS[1] - basket stream key, KEYS[2] - snapshot key, KEYS[3] - basket version key,
+-- KEYS[4] - mark of the basket moved to the database
+-- ARGV[1] - lifetime of the basket in milliseconds, 0 to read without renewing it
+if redis.call('EXISTS', KEYS[4]) == 1 then
+    return { '-2' }
+end
+local snapshot = redis.call('HMGET', KEYS[2], 'id', 'cart')
+local from = '-'
+if snapshot[1] then
+    from = '(' .. snapshot[1]
+end
+local events = redis.call('XRANGE', KEYS[1], from, '+')
+if ARGV[1] ~= '0' then
+    for i = 1, 3 do
+        redis.call('PEXPIRE', KEYS[i], ARGV[1])
+    end
+end
+return { redis.call('GET', KEYS[3]) or '0', snapshot[1] or '', snapshot[2] or '', events }
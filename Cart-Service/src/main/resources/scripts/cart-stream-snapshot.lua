@@ -0,0 +1,16 @@
+-- Saves the snapshot of the basket, unless a newer one is already saved, and trims the events before it from the stream.
+-- KEYS[1] - basket stream key, KEYS[2] - snapshot key
+-- ARGV[1] - id of the last event in the snapshot, ARGV[2] - snapshot, ARGV[3] - lifetime of the basket in milliseconds
+local current = redis.call('HGET', KEYS[2], 'id')
+if current then
+    local ms, seq = string.match(current, '^(%d+)-(%d+)$')
+    local newMs, newSeq = string.match(ARGV[1], '^(%d+)-(%d+)$')
+    ms, seq, newMs, newSeq = tonumber(ms), tonumber(seq), tonumber(newMs), tonumber(newSeq)
+    if newMs < ms or (newMs == ms and newSeq <= seq) then
+        return 0
+    end
+end
+redis.call('HSET', KEYS[2], 'id', ARGV[1], 'cart', ARGV[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[3])
+redis.call('XTRIM', KEYS[1], 'MINID', ARGV[1])
+return 1
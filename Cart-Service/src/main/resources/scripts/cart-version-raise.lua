@@ -0,0 +1,11 @@
+-- Raises the version of the basket to the given one, a version that is already higher is kept.
+-- Returns the version of the basket.
+-- KEYS[1] - basket version key
+-- ARGV[1] - the version, ARGV[2] - lifetime of the basket in milliseconds
+local version = tonumber(redis.call('GET', KEYS[1])) or 0
+if version < tonumber(ARGV[1]) then
+    version = tonumber(ARGV[1])
+    redis.call('SET', KEYS[1], version)
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[2])
+return version
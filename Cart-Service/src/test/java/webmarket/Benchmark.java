@@ -0,0 +1,101 @@
+package webmarket;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A small harness for the benchmarks of the basket service. The operation is warmed up and then run a number
+ * of times, the time of each run and the memory allocated by the thread are measured. The benchmarks are tests
+ * that run only with {@code -Dbenchmarks=true}, so the regular build does not spend time on them.
+ */
+public final class Benchmark {
+
+    /**
+     * The system property that enables the benchmarks.
+     */
+    public static final String ENABLED = "benchmarks";
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Keeps the results of the operations, so they are not optimized away.
+     */
+    private static volatile Object sink;
+
+    private Benchmark() {
+    }
+
+    /**
+     * Runs the operation and prints the result.
+     * @param name
+     * @param warmup the number of runs before the measurement
+     * @param iterations the number of measured runs
+     * @param operation
+     * @return the result
+     */
+    public static Result run(String name, int warmup, int iterations, Supplier<?> operation) {
+        for (int i = 0; i < warmup; i++) {
+            sink = operation.get();
+        }
+        long[] times = new long[iterations];
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            sink = operation.get();
+            times[i] = System.nanoTime() - start;
+        }
+        allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+        Result result = new Result(name, times, allocated / iterations);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * The result of a benchmark.
+     */
+    public static class Result {
+
+        private final String name;
+
+        private final double meanNanos;
+
+        private final long p50Nanos;
+
+        private final long p99Nanos;
+
+        private final long allocatedBytes;
+
+        private Result(String name, long[] times, long allocatedBytes) {
+            long[] sorted = times.clone();
+            Arrays.sort(sorted);
+            this.name = name;
+            this.meanNanos = Arrays.stream(sorted).average().orElse(0);
+            this.p50Nanos = sorted[sorted.length / 2];
+            this.p99Nanos = sorted[Math.max(0, (int) Math.ceil(sorted.length * 0.99) - 1)];
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        /**
+         * The memory allocated by one run.
+         * @return bytes
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-48s mean %10.2f us  p50 %10.2f us  p99 %10.2f us  alloc %10d B/op",
+                    name, meanNanos / 1000, p50Nanos / 1000.0, p99Nanos / 1000.0, allocatedBytes);
+        }
+    }
+}
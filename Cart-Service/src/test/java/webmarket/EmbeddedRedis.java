@@ -0,0 +1,124 @@
+package webmarket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+import webmarket.serializers.CartJsonView;
+import webmarket.serializers.CartRedisSerializer;
+import webmarket.utils.CartExpiration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+
+/**
+ * A Redis server started for the tests, with the templates and helpers of the basket service connected to it.
+ */
+public class EmbeddedRedis {
+
+    /**
+     * Prefix for each basket in the tests.
+     */
+    public static final String CART_PREFIX = "SPRING_WEB_APP_";
+
+    private final RedisServer server;
+
+    private final int port;
+
+    private final JedisConnectionFactory connectionFactory;
+
+    public EmbeddedRedis() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            server = new RedisServer(port);
+            server.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        connectionFactory = connectionFactory(port);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public JedisConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    /**
+     * Template of baskets with the binary format of values.
+     * @return RedisTemplate
+     */
+    public RedisTemplate<String, Object> redisTemplate() {
+        RedisTemplate<String, Object> template = new RedisTemplate<>();
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new CartRedisSerializer(1024));
+        template.setConnectionFactory(connectionFactory);
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    public StringRedisTemplate stringRedisTemplate() {
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * Removes all the keys.
+     */
+    public void flushAll() {
+        stringRedisTemplate().execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    public void stop() {
+        connectionFactory.destroy();
+        try {
+            server.stop();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Lifetime of baskets as in the configuration of the service.
+     * @return CartExpiration
+     */
+    public static CartExpiration cartExpiration() {
+        CartExpiration cartExpiration = new CartExpiration();
+        ReflectionTestUtils.setField(cartExpiration, "cartPrefix", CART_PREFIX);
+        ReflectionTestUtils.setField(cartExpiration, "guestTtl", Duration.ofDays(3));
+        ReflectionTestUtils.setField(cartExpiration, "userTtl", Duration.ofDays(30));
+        return cartExpiration;
+    }
+
+    public static CartJsonView cartJsonView() {
+        return new CartJsonView(new ObjectMapper());
+    }
+
+    /**
+     * Factory of connections with a pool large enough for the parallel requests of the tests.
+     * @param port
+     * @return JedisConnectionFactory
+     */
+    public static JedisConnectionFactory connectionFactory(int port) {
+        JedisConnectionFactory factory = new JedisConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        factory.getPoolConfig().setMaxTotal(32);
+        factory.afterPropertiesSet();
+        return factory;
+    }
+}
@@ -0,0 +1,145 @@
+package webmarket.integrations;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import webmarket.Benchmark;
+import webmarket.core.ProductDto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Resolving N products from the Core service over HTTP: N requests of one product against one request
+ * of the batch, for N from 1 to 200. The service is a local HTTP server answering JSON, the caches
+ * of the integration are left out, so every lookup goes to the server.
+ */
+@EnabledIfSystemProperty(named = Benchmark.ENABLED, matches = "true")
+class ProductLookupBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static {
+        // the server sends the headers and the body separately, without it every answer waits for the delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server = server();
+
+    private final HttpProductService productService = new HttpProductService("http://localhost:" + server.getAddress().getPort());
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 10, 50, 200})
+    void singleAgainstBatch(int products) {
+        List<Long> ids = new ArrayList<>(products);
+        for (long id = 1; id <= products; id++) {
+            ids.add(id);
+        }
+        int iterations = Math.max(50, 4000 / products);
+
+        Benchmark.run(products + " single requests", iterations, iterations, () -> {
+            List<ProductDto> found = new ArrayList<>(products);
+            ids.forEach(id -> found.add(productService.findById(id)));
+            return found;
+        });
+        Benchmark.run("1 batch request of " + products, iterations, iterations, () -> productService.findAllById(ids));
+
+        assertThat(productService.findAllById(ids)).hasSize(products);
+    }
+
+    private static HttpServer server() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/api/v1/products/", ProductLookupBenchmark::answer);
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void answer(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        Object body;
+        if (path.endsWith("/batch")) {
+            String ids = exchange.getRequestURI().getQuery().substring("ids=".length());
+            body = Arrays.stream(ids.split(",")).map(id -> product(Long.valueOf(id))).collect(Collectors.toList());
+        } else {
+            body = product(Long.valueOf(path.substring(path.lastIndexOf('/') + 1)));
+        }
+        byte[] json = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+
+    private static ProductDto product(Long id) {
+        return new ProductDto(id, "Product " + id, new BigDecimal("10.00"));
+    }
+
+    /**
+     * The client of the Core service over HTTP with the same requests as the Feign client.
+     */
+    private static class HttpProductService implements ClientFeignProductService {
+
+        private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        private final String url;
+
+        private HttpProductService(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public ProductDto findById(Long id) {
+            return get("/api/v1/products/" + id, new TypeReference<>() {
+            });
+        }
+
+        @Override
+        public List<ProductDto> findAllById(Collection<Long> ids) {
+            return get("/api/v1/products/batch?ids=" + ids.stream().map(String::valueOf).collect(Collectors.joining(",")),
+                    new TypeReference<>() {
+                    });
+        }
+
+        private <T> T get(String path, TypeReference<T> type) {
+            try {
+                HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(URI.create(url + path)).GET().build(),
+                        HttpResponse.BodyHandlers.ofByteArray());
+                return MAPPER.readValue(response.body(), type);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
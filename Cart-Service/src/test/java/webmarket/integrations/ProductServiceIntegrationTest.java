@@ -0,0 +1,160 @@
+package webmarket.integrations;
+
+import feign.FeignException;
+import feign.Request;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import webmarket.core.ProductDto;
+import webmarket.exceptions.BadConnectionServiceException;
+import webmarket.utils.CallGuard;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Requests to a Core service that fails or answers slowly: the last known copies of the products are returned,
+ * the bulkhead cuts off the requests waiting for a slow service and the breaker stops requesting a failing one.
+ */
+class ProductServiceIntegrationTest {
+
+    private static final Duration EXPIRE_AFTER_WRITE = Duration.ofMillis(100);
+
+    private final StubProductService productService = new StubProductService();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void lastKnownProductIsReturnedWhenCoreFails() throws Exception {
+        ProductServiceIntegration integration = integration(5);
+        assertThat(integration.findById(1L)).isPresent();
+        assertThat(integration.findAllById(List.of(2L))).containsKey(2L);
+        Thread.sleep(EXPIRE_AFTER_WRITE.toMillis() * 2);
+        productService.down = true;
+
+        assertThat(integration.findById(1L)).map(ProductDto::getName).hasValue("Product 1");
+        assertThat(integration.findAllById(List.of(2L))).containsKey(2L);
+        assertThatThrownBy(() -> integration.findById(3L)).isInstanceOf(BadConnectionServiceException.class);
+    }
+
+    @Test
+    void slowCoreIsCutOffByBulkhead() throws Exception {
+        ProductServiceIntegration integration = integration(5);
+        integration.findById(2L);
+        Thread.sleep(EXPIRE_AFTER_WRITE.toMillis() * 2);
+        productService.delayMillis = 1000;
+
+        Future<?> slow = executor.submit(() -> integration.findById(1L));
+        waitForCalls(2);
+        long start = System.currentTimeMillis();
+
+        assertThat(integration.findById(2L)).isPresent();
+        assertThatThrownBy(() -> integration.findById(3L)).isInstanceOf(BadConnectionServiceException.class);
+        assertThat(System.currentTimeMillis() - start).isLessThan(productService.delayMillis);
+        assertThat(integration.getGuard().getState()).isEqualTo(CallGuard.State.CLOSED);
+        slow.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void failingCoreIsNotRequestedWhileBreakerIsOpen() {
+        ProductServiceIntegration integration = integration(2);
+        productService.down = true;
+        assertThatThrownBy(() -> integration.findById(1L)).isInstanceOf(BadConnectionServiceException.class);
+        assertThatThrownBy(() -> integration.findById(2L)).isInstanceOf(BadConnectionServiceException.class);
+
+        assertThat(integration.getGuard().getState()).isEqualTo(CallGuard.State.OPEN);
+        assertThatThrownBy(() -> integration.findAllById(List.of(3L, 4L))).isInstanceOf(BadConnectionServiceException.class);
+        assertThat(productService.calls).hasValue(2);
+    }
+
+    @Test
+    void missingProductDoesNotOpenBreaker() {
+        ProductServiceIntegration integration = integration(2);
+        productService.notFound = true;
+
+        for (long id = 1; id <= 3; id++) {
+            assertThat(integration.findById(id)).isEmpty();
+        }
+
+        assertThat(integration.getGuard().getState()).isEqualTo(CallGuard.State.CLOSED);
+    }
+
+    /**
+     * The integration without the shared cache and with one place in the bulkhead.
+     * @param failureThreshold
+     * @return ProductServiceIntegration
+     */
+    private ProductServiceIntegration integration(int failureThreshold) {
+        return new ProductServiceIntegration(productService, null, new SimpleMeterRegistry(), 100,
+                EXPIRE_AFTER_WRITE, Duration.ofMinutes(1), false, Duration.ofMinutes(1),
+                failureThreshold, Duration.ofMinutes(1), 1, Duration.ofMillis(50));
+    }
+
+    private void waitForCalls(int calls) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (productService.calls.get() < calls && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * The Core service which answers after a delay, fails or does not find the products.
+     */
+    private static class StubProductService implements ClientFeignProductService {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private volatile long delayMillis;
+
+        private volatile boolean down;
+
+        private volatile boolean notFound;
+
+        @Override
+        public ProductDto findById(Long id) {
+            answer();
+            return new ProductDto(id, "Product " + id, new BigDecimal("10.00"));
+        }
+
+        @Override
+        public List<ProductDto> findAllById(Collection<Long> ids) {
+            answer();
+            return ids.stream().map(id -> new ProductDto(id, "Product " + id, new BigDecimal("10.00"))).toList();
+        }
+
+        private void answer() {
+            calls.incrementAndGet();
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Request request = Request.create(Request.HttpMethod.GET, "/api/v1/products", Map.of(), null, StandardCharsets.UTF_8, null);
+            if (notFound) {
+                throw new FeignException.NotFound("Not found", request, null, null);
+            }
+            if (down) {
+                throw new FeignException.ServiceUnavailable("Unavailable", request, null, null);
+            }
+        }
+    }
+}
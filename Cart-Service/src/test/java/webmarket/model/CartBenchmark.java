@@ -0,0 +1,168 @@
+package webmarket.model;
+
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import webmarket.Benchmark;
+import webmarket.core.Money;
+import webmarket.core.ProductDto;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Adding to a basket and merging baskets of 10, 100 and 1000 positions: the basket indexed by product id
+ * with the cost changed by the difference, against the list of positions scanned on every change
+ * with the cost summed up again, as the basket was kept before.
+ */
+@EnabledIfSystemProperty(named = Benchmark.ENABLED, matches = "true")
+class CartBenchmark {
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 100, 1000})
+    void add(int lines) {
+        Cart indexed = new Cart(items(lines, 0));
+        ScanningCart scanning = new ScanningCart(items(lines, 0));
+        ProductDto last = new ProductDto((long) lines - 1, "Product", price(lines - 1));
+        int iterations = 20_000;
+
+        Benchmark.run("indexed add, " + lines + " positions", iterations, iterations, () -> {
+            indexed.add(last);
+            return indexed;
+        });
+        Benchmark.run("scanning add, " + lines + " positions", iterations, iterations, () -> {
+            scanning.add(last);
+            return scanning;
+        });
+
+        assertThat(indexed.getTotalPrice()).isEqualByComparingTo(scanning.totalPrice);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 100, 1000})
+    void merge(int lines) {
+        List<CartItem> user = items(lines, 0);
+        List<CartItem> guest = items(lines, lines / 2);
+        int iterations = Math.max(200, 200_000 / lines);
+
+        Benchmark.run("indexed merge, " + lines + " + " + lines + " positions", iterations, iterations, () -> {
+            Cart cart = new Cart(copy(user));
+            cart.merge(new Cart(copy(guest)));
+            return cart;
+        });
+        Benchmark.run("scanning merge, " + lines + " + " + lines + " positions", iterations, iterations, () -> {
+            ScanningCart cart = new ScanningCart(copy(user));
+            cart.merge(new ScanningCart(copy(guest)));
+            return cart;
+        });
+
+        Cart indexed = new Cart(copy(user));
+        indexed.merge(new Cart(copy(guest)));
+        ScanningCart scanning = new ScanningCart(copy(user));
+        scanning.merge(new ScanningCart(copy(guest)));
+        assertThat(indexed.getTotalPrice()).isEqualByComparingTo(scanning.totalPrice);
+    }
+
+    /**
+     * Positions of the products from the first id on.
+     * @param lines the number of positions
+     * @param first the id of the first product
+     * @return List
+     */
+    private static List<CartItem> items(int lines, int first) {
+        List<CartItem> items = new ArrayList<>(lines);
+        for (int i = first; i < first + lines; i++) {
+            items.add(new CartItem((long) i, "Product " + i, 1 + i % 3, Money.of(price(i))));
+        }
+        return items;
+    }
+
+    private static List<CartItem> copy(List<CartItem> items) {
+        List<CartItem> copy = new ArrayList<>(items.size());
+        items.forEach(i -> copy.add(new CartItem(i.getProductId(), i.getProductName(), i.getQuantity(), i.getUnitPrice())));
+        return copy;
+    }
+
+    private static BigDecimal price(int i) {
+        return BigDecimal.valueOf(199 + i * 7L, 2);
+    }
+
+    /**
+     * The basket as it was kept before: a list of positions scanned by product id, the cost of the position
+     * and of the basket calculated again in BigDecimal after every change.
+     */
+    private static class ScanningCart {
+
+        private final List<ScanningItem> items = new ArrayList<>();
+
+        private BigDecimal totalPrice = BigDecimal.ZERO;
+
+        private ScanningCart(List<CartItem> items) {
+            items.forEach(i -> this.items.add(new ScanningItem(i.getProductId(), i.getQuantity(), i.getPricePerProduct())));
+            recalculate();
+        }
+
+        private void add(ProductDto productDto) {
+            for (ScanningItem item : items) {
+                if (item.productId.equals(productDto.getId())) {
+                    item.changeQuantity(1);
+                    recalculate();
+                    return;
+                }
+            }
+            items.add(new ScanningItem(productDto.getId(), 1, productDto.getPrice()));
+            recalculate();
+        }
+
+        private void merge(ScanningCart another) {
+            for (ScanningItem anotherItem : another.items) {
+                boolean merged = false;
+                for (ScanningItem myItem : items) {
+                    if (myItem.productId.equals(anotherItem.productId)) {
+                        myItem.changeQuantity(anotherItem.quantity);
+                        merged = true;
+                        break;
+                    }
+                }
+                if (!merged) {
+                    items.add(anotherItem);
+                }
+            }
+            recalculate();
+            another.items.clear();
+        }
+
+        private void recalculate() {
+            totalPrice = BigDecimal.ZERO;
+            for (ScanningItem item : items) {
+                totalPrice = totalPrice.add(item.price);
+            }
+        }
+    }
+
+    private static class ScanningItem {
+
+        private final Long productId;
+
+        private final BigDecimal pricePerProduct;
+
+        private int quantity;
+
+        private BigDecimal price;
+
+        private ScanningItem(Long productId, int quantity, BigDecimal pricePerProduct) {
+            this.productId = productId;
+            this.quantity = quantity;
+            this.pricePerProduct = pricePerProduct;
+            this.price = pricePerProduct.multiply(BigDecimal.valueOf(quantity));
+        }
+
+        private void changeQuantity(int delta) {
+            quantity += delta;
+            price = pricePerProduct.multiply(BigDecimal.valueOf(quantity));
+        }
+    }
+}
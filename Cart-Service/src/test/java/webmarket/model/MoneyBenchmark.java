@@ -0,0 +1,117 @@
+package webmarket.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import webmarket.Benchmark;
+import webmarket.core.Money;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The memory allocated by the changes of the number of units and by the pricing of an order: the prices kept
+ * as Money in minor units against the prices kept as BigDecimal, the positions are found the same way in both.
+ */
+@EnabledIfSystemProperty(named = Benchmark.ENABLED, matches = "true")
+class MoneyBenchmark {
+
+    private static final int LINES = 50;
+
+    private static final int ITERATIONS = 50_000;
+
+    @Test
+    void quantityChanges() {
+        Cart cart = new Cart(items());
+        DecimalCart decimalCart = new DecimalCart(items());
+
+        Benchmark.run("money, 2 changes of " + LINES + " positions", ITERATIONS, ITERATIONS, () -> {
+            for (long productId = 0; productId < LINES; productId++) {
+                cart.add(productId);
+                cart.decrement(productId);
+            }
+            return cart;
+        });
+        Benchmark.run("BigDecimal, 2 changes of " + LINES + " positions", ITERATIONS, ITERATIONS, () -> {
+            for (int i = 0; i < LINES; i++) {
+                decimalCart.changeQuantity(i, 1);
+                decimalCart.changeQuantity(i, -1);
+            }
+            return decimalCart;
+        });
+
+        assertThat(cart.getTotalPrice()).isEqualByComparingTo(decimalCart.total);
+    }
+
+    @Test
+    void orderPricing() {
+        List<CartItem> items = items();
+        long[] units = new long[LINES];
+        int[] quantities = new int[LINES];
+        BigDecimal[] prices = new BigDecimal[LINES];
+        for (int i = 0; i < LINES; i++) {
+            units[i] = items.get(i).getUnitPrice().getMinorUnits();
+            quantities[i] = items.get(i).getQuantity();
+            prices[i] = items.get(i).getPricePerProduct();
+        }
+
+        Benchmark.run("money, order of " + LINES + " positions", ITERATIONS, ITERATIONS, () -> {
+            Money total = Money.ZERO;
+            for (int i = 0; i < LINES; i++) {
+                total = total.plus(Money.ofMinor(units[i], Money.DEFAULT_SCALE, Money.DEFAULT_CURRENCY).times(quantities[i]));
+            }
+            return total.toBigDecimal();
+        });
+        Benchmark.run("BigDecimal, order of " + LINES + " positions", ITERATIONS, ITERATIONS, () -> {
+            BigDecimal total = BigDecimal.ZERO;
+            for (int i = 0; i < LINES; i++) {
+                total = total.add(prices[i].multiply(BigDecimal.valueOf(quantities[i])));
+            }
+            return total;
+        });
+    }
+
+    private static List<CartItem> items() {
+        List<CartItem> items = new ArrayList<>(LINES);
+        for (int i = 0; i < LINES; i++) {
+            items.add(new CartItem((long) i, "Product " + i, 1 + i % 4, Money.of(BigDecimal.valueOf(1999 + i * 131L, 2))));
+        }
+        return items;
+    }
+
+    /**
+     * Positions with the prices in BigDecimal: the price of the position is multiplied again after a change,
+     * and the cost of the basket is changed by the difference.
+     */
+    private static class DecimalCart {
+
+        private final BigDecimal[] unitPrices;
+
+        private final int[] quantities;
+
+        private final BigDecimal[] prices;
+
+        private BigDecimal total = BigDecimal.ZERO;
+
+        private DecimalCart(List<CartItem> items) {
+            unitPrices = new BigDecimal[items.size()];
+            quantities = new int[items.size()];
+            prices = new BigDecimal[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                unitPrices[i] = items.get(i).getPricePerProduct();
+                quantities[i] = items.get(i).getQuantity();
+                prices[i] = unitPrices[i].multiply(BigDecimal.valueOf(quantities[i]));
+                total = total.add(prices[i]);
+            }
+        }
+
+        private void changeQuantity(int i, int delta) {
+            quantities[i] += delta;
+            BigDecimal price = unitPrices[i].multiply(BigDecimal.valueOf(quantities[i]));
+            total = total.add(price.subtract(prices[i]));
+            prices[i] = price;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package webmarket.repositories;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import webmarket.Benchmark;
+import webmarket.EmbeddedRedis;
+import webmarket.core.ProductDto;
+import webmarket.model.Cart;
+import webmarket.utils.CartExpiration;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Reading a basket for the response under a read-heavy load: the ready JSON stored next to the basket
+ * against the basket read as an object and written to JSON for the response, as it was read before.
+ * Other threads read the same basket the same way while the reads are measured.
+ */
+@EnabledIfSystemProperty(named = Benchmark.ENABLED, matches = "true")
+class CartReadBenchmark {
+
+    private static final String CART_KEY = EmbeddedRedis.CART_PREFIX + "user";
+
+    private static final int LOAD_THREADS = 4;
+
+    private static final int ITERATIONS = 20_000;
+
+    private static EmbeddedRedis redis;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {20, 200})
+    void readForResponse(int lines) throws Exception {
+        redis.flushAll();
+        CartExpiration cartExpiration = EmbeddedRedis.cartExpiration();
+        ValueCartRepository repository = new ValueCartRepository(redis.redisTemplate(), cartExpiration,
+                new CartVersionRepository(redis.stringRedisTemplate(), cartExpiration), EmbeddedRedis.cartJsonView(), true, 10);
+        for (long productId = 0; productId < lines; productId++) {
+            repository.add(CART_KEY, new ProductDto(productId, "Product " + productId + " of the catalog",
+                    BigDecimal.valueOf(1999 + productId * 131, 2)));
+        }
+
+        Supplier<byte[]> view = () -> repository.findView(CART_KEY).getJson();
+        Supplier<byte[]> object = () -> write(repository.findByKey(CART_KEY));
+        underLoad(view, () -> Benchmark.run("ready JSON, " + lines + " positions", ITERATIONS, ITERATIONS, view));
+        underLoad(object, () -> Benchmark.run("object and JSON, " + lines + " positions", ITERATIONS, ITERATIONS, object));
+
+        assertThat(objectMapper.readTree(view.get())).isEqualTo(objectMapper.readTree(object.get()));
+    }
+
+    /**
+     * Runs the measurement while other threads make the same reads.
+     * @param read
+     * @param measurement
+     */
+    private static void underLoad(Supplier<byte[]> read, Runnable measurement) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(LOAD_THREADS);
+        List<Future<?>> load = new ArrayList<>();
+        for (int i = 0; i < LOAD_THREADS; i++) {
+            load.add(executor.submit(() -> {
+                while (running.get()) {
+                    read.get();
+                }
+            }));
+        }
+        try {
+            measurement.run();
+        } finally {
+            running.set(false);
+            for (Future<?> future : load) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+        }
+    }
+
+    private byte[] write(Cart cart) {
+        try {
+            return objectMapper.writeValueAsBytes(cart);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package webmarket.repositories;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import webmarket.EmbeddedRedis;
+import webmarket.cart.CartOperationDto;
+import webmarket.core.Money;
+import webmarket.core.ProductDto;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+import webmarket.utils.CartExpiration;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Removing positions of the basket stored as a hash changes the contents and the version together.
+ */
+class HashCartRepositoryTest {
+
+    private static final String CART_KEY = EmbeddedRedis.CART_PREFIX + "user";
+
+    private static EmbeddedRedis redis;
+
+    private HashCartRepository repository;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        CartExpiration cartExpiration = EmbeddedRedis.cartExpiration();
+        repository = new HashCartRepository(redis.stringRedisTemplate(), cartExpiration,
+                new CartVersionRepository(redis.stringRedisTemplate(), cartExpiration));
+    }
+
+    @Test
+    void removeDeletesPositionAndRaisesVersion() {
+        repository.add(CART_KEY, product(1L));
+        long added = repository.add(CART_KEY, product(2L));
+
+        long removed = repository.remove(CART_KEY, 1L);
+
+        Cart cart = repository.findByKey(CART_KEY);
+        assertThat(removed).isEqualTo(added + 1);
+        assertThat(cart.getVersion()).isEqualTo(removed);
+        assertThat(cart.getItems()).extracting(CartItem::getProductId).containsExactly(2L);
+    }
+
+    @Test
+    void clearDeletesBasketAndRaisesVersion() {
+        long added = repository.add(CART_KEY, product(1L));
+
+        long cleared = repository.clear(CART_KEY);
+
+        assertThat(cleared).isEqualTo(added + 1);
+        assertThat(repository.findByKey(CART_KEY).isEmpty()).isTrue();
+        assertThat(redis.stringRedisTemplate().hasKey(CART_KEY)).isFalse();
+    }
+
+    @Test
+    void removeOfMissingPositionDoesNotWrite() {
+        long added = repository.add(CART_KEY, product(1L));
+
+        assertThat(repository.remove(CART_KEY, 2L)).isEqualTo(added);
+        assertThat(repository.clear(EmbeddedRedis.CART_PREFIX + "nobody")).isZero();
+        assertThat(redis.stringRedisTemplate().hasKey("VERSION_" + EmbeddedRedis.CART_PREFIX + "nobody")).isFalse();
+    }
+
+    @Test
+    void batchWithoutChangesDoesNotRaiseVersion() {
+        long added = repository.add(CART_KEY, product(1L));
+        String missing = EmbeddedRedis.CART_PREFIX + "nobody";
+        List<CartOperationDto> operations = List.of(
+                new CartOperationDto(CartOperationDto.Type.SET, 1L, 1),
+                new CartOperationDto(CartOperationDto.Type.REMOVE, 2L, null),
+                new CartOperationDto(CartOperationDto.Type.DECREMENT, 3L, 1));
+        Map<Long, ProductDto> products = Map.of(1L, product(1L));
+
+        assertThat(repository.apply(CART_KEY, operations, products).getVersion()).isEqualTo(added);
+        assertThat(repository.apply(missing, operations.subList(1, 3), products).getVersion()).isZero();
+        assertThat(redis.stringRedisTemplate().hasKey("VERSION_" + missing)).isFalse();
+        assertThat(repository.apply(CART_KEY, List.of(new CartOperationDto(CartOperationDto.Type.SET, 1L, 3)), products)
+                .getVersion()).isEqualTo(added + 1);
+    }
+
+    @Test
+    void batchReportsOnlyChangesThatAddedUnits() {
+        repository.add(CART_KEY, product(1L));
+        repository.add(CART_KEY, product(1L));
+        List<CartOperationDto> operations = List.of(
+                new CartOperationDto(CartOperationDto.Type.SET, 1L, 1),
+                new CartOperationDto(CartOperationDto.Type.SET, 1L, 1),
+                new CartOperationDto(CartOperationDto.Type.ADD, 2L, 1),
+                new CartOperationDto(CartOperationDto.Type.SET, 1L, 4));
+        Map<Long, ProductDto> products = Map.of(1L, product(1L), 2L, product(2L));
+
+        assertThat(repository.apply(CART_KEY, operations, products).getAddedProducts()).containsExactly(2L, 1L);
+    }
+
+    @Test
+    void saveWritesOnlyExpectedVersion() {
+        long added = repository.add(CART_KEY, product(1L));
+        Cart cart = new Cart(List.of(new CartItem(2L, "Product 2", 4, Money.of(new BigDecimal("3.20")))));
+
+        assertThat(repository.save(CART_KEY, cart, added - 1)).isEqualTo(-1);
+        long saved = repository.save(CART_KEY, cart, added);
+
+        Cart stored = repository.findByKey(CART_KEY);
+        assertThat(saved).isEqualTo(added + 1);
+        assertThat(stored.getVersion()).isEqualTo(saved);
+        assertThat(stored.getItems()).extracting(CartItem::getProductId).containsExactly(2L);
+        assertThat(stored.getItems()).extracting(CartItem::getQuantity).containsExactly(4);
+    }
+
+    private static ProductDto product(Long id) {
+        return new ProductDto(id, "Product " + id, new BigDecimal("3.20"));
+    }
+}
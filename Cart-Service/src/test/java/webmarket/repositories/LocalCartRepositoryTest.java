@@ -0,0 +1,134 @@
+package webmarket.repositories;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import webmarket.EmbeddedRedis;
+import webmarket.core.ProductDto;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+import webmarket.utils.CartExpiration;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Baskets in memory of two instances over one Redis: an instance does not write its outdated state of a basket
+ * over the changes made by another instance, and the instance of the user basket that makes the merge
+ * serves and keeps the merged basket.
+ */
+class LocalCartRepositoryTest {
+
+    private static final String USER_CART_KEY = EmbeddedRedis.CART_PREFIX + "user";
+
+    private static final String GUEST_CART_KEY = EmbeddedRedis.CART_PREFIX + "8f14e45f-ceea-467f-a0e6-1a2b3c4d5e6f";
+
+    private static final ProductDto FIRST = new ProductDto(1L, "First", new BigDecimal("1.00"));
+
+    private static final ProductDto SECOND = new ProductDto(2L, "Second", new BigDecimal("2.00"));
+
+    private static EmbeddedRedis redis;
+
+    private ValueCartRepository storage;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        CartExpiration cartExpiration = EmbeddedRedis.cartExpiration();
+        storage = new ValueCartRepository(redis.redisTemplate(), cartExpiration,
+                new CartVersionRepository(redis.stringRedisTemplate(), cartExpiration), EmbeddedRedis.cartJsonView(), true, 10);
+    }
+
+    @Test
+    void guestChangesAreNotWrittenOverMerge() {
+        LocalCartRepository guestOwner = repository();
+        LocalCartRepository userOwner = repository();
+        guestOwner.add(GUEST_CART_KEY, FIRST);
+        guestOwner.flush();
+        guestOwner.add(GUEST_CART_KEY, SECOND);
+
+        userOwner.merge(USER_CART_KEY, GUEST_CART_KEY);
+        guestOwner.flush();
+
+        assertThat(storage.findByKey(GUEST_CART_KEY).isEmpty()).isTrue();
+        assertThat(guestOwner.findByKey(GUEST_CART_KEY).isEmpty()).isTrue();
+        assertThat(quantity(userOwner.findByKey(USER_CART_KEY), FIRST.getId())).isEqualTo(1);
+    }
+
+    @Test
+    void mergeOnUserInstanceKeepsUserChanges() {
+        LocalCartRepository guestOwner = repository();
+        LocalCartRepository userOwner = repository();
+        guestOwner.add(GUEST_CART_KEY, FIRST);
+        guestOwner.flush();
+        userOwner.add(USER_CART_KEY, SECOND);
+
+        userOwner.merge(USER_CART_KEY, GUEST_CART_KEY);
+        Cart merged = userOwner.findByKey(USER_CART_KEY);
+        userOwner.add(USER_CART_KEY, SECOND);
+        userOwner.flush();
+
+        assertThat(quantity(merged, FIRST.getId())).isEqualTo(1);
+        assertThat(quantity(merged, SECOND.getId())).isEqualTo(1);
+        Cart cart = storage.findByKey(USER_CART_KEY);
+        assertThat(quantity(cart, FIRST.getId())).isEqualTo(1);
+        assertThat(quantity(cart, SECOND.getId())).isEqualTo(2);
+        assertThat(cart.getVersion()).isEqualTo(userOwner.findVersion(USER_CART_KEY));
+    }
+
+    @Test
+    void outdatedStateIsDropped() {
+        LocalCartRepository previousOwner = repository();
+        LocalCartRepository owner = repository();
+        previousOwner.findByKey(USER_CART_KEY);
+        owner.add(USER_CART_KEY, FIRST);
+        owner.flush();
+
+        previousOwner.add(USER_CART_KEY, SECOND);
+        previousOwner.flush();
+
+        Cart cart = storage.findByKey(USER_CART_KEY);
+        assertThat(quantity(cart, FIRST.getId())).isEqualTo(1);
+        assertThat(quantity(cart, SECOND.getId())).isZero();
+        assertThat(quantity(previousOwner.findByKey(USER_CART_KEY), FIRST.getId())).isEqualTo(1);
+    }
+
+    @Test
+    void versionKeepsGrowingAcrossWrites() {
+        LocalCartRepository owner = repository();
+        owner.add(USER_CART_KEY, FIRST);
+        owner.flush();
+        owner.add(USER_CART_KEY, FIRST);
+        owner.add(USER_CART_KEY, SECOND);
+        owner.flush();
+
+        assertThat(storage.findVersion(USER_CART_KEY)).isEqualTo(3);
+        assertThat(quantity(storage.findByKey(USER_CART_KEY), FIRST.getId())).isEqualTo(2);
+    }
+
+    private LocalCartRepository repository() {
+        return new LocalCartRepository(storage, new CartVersionRepository(redis.stringRedisTemplate(), EmbeddedRedis.cartExpiration()),
+                EmbeddedRedis.cartJsonView(), new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+    }
+
+    private static int quantity(Cart cart, Long productId) {
+        return cart.getItems().stream()
+                .filter(i -> i.getProductId().equals(productId))
+                .mapToInt(CartItem::getQuantity)
+                .sum();
+    }
+}
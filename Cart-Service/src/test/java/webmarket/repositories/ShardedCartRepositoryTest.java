@@ -0,0 +1,237 @@
+package webmarket.repositories;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import webmarket.EmbeddedRedis;
+import webmarket.core.ProductDto;
+import webmarket.exceptions.CartConcurrentModificationException;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+import webmarket.services.CartMigrator;
+import webmarket.utils.CartExpiration;
+import webmarket.utils.CartShards;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Resharding of baskets from one node to two with several instances of the service: the baskets are moved both
+ * by the requests and in the background, no change is lost, and the previous node cannot be removed from
+ * the settings before all the baskets are moved from it. A request for a basket that cannot be moved fails
+ * without writing on the new node.
+ */
+class ShardedCartRepositoryTest {
+
+    private static final int BASKETS = 60;
+
+    private static final ProductDto PRODUCT = new ProductDto(1L, "Product", new BigDecimal("3.00"));
+
+    private static EmbeddedRedis first;
+
+    private static EmbeddedRedis second;
+
+    private static Map<String, CartShards.Shard> shards;
+
+    private final CartExpiration cartExpiration = EmbeddedRedis.cartExpiration();
+
+    @BeforeAll
+    static void startRedis() {
+        first = new EmbeddedRedis();
+        second = new EmbeddedRedis();
+        shards = new LinkedHashMap<>();
+        shards.put(name(first), shard(first));
+        shards.put(name(second), shard(second));
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        first.stop();
+        second.stop();
+    }
+
+    @BeforeEach
+    void clean() {
+        first.flushAll();
+        second.flushAll();
+    }
+
+    @Test
+    void basketsAreMovedByRequestsAndInBackground() throws Exception {
+        ShardedCartRepository before = repository(shards(List.of(name(first)), List.of()));
+        for (int i = 0; i < BASKETS; i++) {
+            before.add(cartKey(i), PRODUCT);
+        }
+
+        CartShards resharded = shards(List.of(name(first), name(second)), List.of(name(first)));
+        ShardedCartRepository instance = repository(resharded);
+        ShardedCartRepository otherInstance = repository(shards(List.of(name(first), name(second)), List.of(name(first))));
+        CartMigrator migrator = migrator(resharded, instance);
+        migrator.check();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < BASKETS; i += 2) {
+            String cartKey = cartKey(i);
+            futures.add(executor.submit(() -> otherInstance.add(cartKey, PRODUCT)));
+        }
+        futures.add(executor.submit(migrator::migrate));
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        migrator.migrate();
+
+        assertThat(instance.isMigrated()).isTrue();
+        ShardedCartRepository after = repository(shards(List.of(name(first), name(second)), List.of()));
+        for (int i = 0; i < BASKETS; i++) {
+            String cartKey = cartKey(i);
+            assertThat(quantity(after.findByKey(cartKey))).as(cartKey).isEqualTo(i % 2 == 0 ? 2 : 1);
+            if (resharded.shard(cartKey) != shards.get(name(first))) {
+                assertThat(first.stringRedisTemplate().hasKey(cartKey)).as(cartKey).isFalse();
+            }
+        }
+        assertThat(second.stringRedisTemplate().hasKey(CartMigrator.RESHARDING_KEY)).isFalse();
+        migrator(shards(List.of(name(first), name(second)), List.of()), instance).check();
+    }
+
+    @Test
+    void previousNodesAreKeptUntilMigrationIsComplete() {
+        CartShards resharded = shards(List.of(name(first), name(second)), List.of(name(first)));
+        migrator(resharded, repository(resharded)).check();
+
+        CartShards removed = shards(List.of(name(first), name(second)), List.of());
+        CartMigrator migrator = migrator(removed, repository(removed));
+
+        assertThatThrownBy(migrator::check).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void newerBasketOnTargetIsKept() {
+        CartShards resharded = shards(List.of(name(first), name(second)), List.of(name(first)));
+        String cartKey = movedCartKey(resharded);
+        repository(shards(List.of(name(first)), List.of())).add(cartKey, PRODUCT);
+        ShardedCartRepository onlySecond = repository(shards(List.of(name(second)), List.of()));
+        onlySecond.add(cartKey, PRODUCT);
+        onlySecond.add(cartKey, PRODUCT);
+
+        ShardedCartRepository repository = repository(resharded);
+        assertThat(repository.moveFromPrevious(cartKey, resharded.getShards().get(name(first)))).isTrue();
+
+        assertThat(first.stringRedisTemplate().hasKey(cartKey)).isFalse();
+        assertThat(quantity(repository.findByKey(cartKey))).isEqualTo(2);
+        assertThat(repository.findVersion(cartKey)).isEqualTo(2);
+    }
+
+    @Test
+    void leftoversOnTargetAreReplaced() {
+        CartShards resharded = shards(List.of(name(first), name(second)), List.of(name(first)));
+        String cartKey = movedCartKey(resharded);
+        repository(shards(List.of(name(first)), List.of())).add(cartKey, PRODUCT);
+        second.stringRedisTemplate().opsForValue().set("VIEW_" + cartKey, "{}");
+
+        ShardedCartRepository repository = repository(resharded);
+
+        assertThat(quantity(repository.findByKey(cartKey))).isEqualTo(1);
+        assertThat(first.stringRedisTemplate().hasKey(cartKey)).isFalse();
+        assertThat(new String(repository.findView(cartKey).getJson(), StandardCharsets.UTF_8)).contains("Product");
+    }
+
+    @Test
+    void requestFailsIfBasketCannotBeMoved() {
+        CartShards resharded = shards(List.of(name(first), name(second)), List.of(name(first)));
+        String cartKey = movedCartKey(resharded);
+        repository(shards(List.of(name(first)), List.of())).add(cartKey, PRODUCT);
+        Map<String, CartShards.Shard> unreachable = new LinkedHashMap<>(shards);
+        unreachable.put(name(second), new CartShards.Shard(name(second), "localhost", 1, second.getConnectionFactory(),
+                second.redisTemplate(), second.stringRedisTemplate()));
+        ShardedCartRepository repository = repository(new CartShards(unreachable, List.of(name(first), name(second)),
+                List.of(name(first)), 160));
+
+        assertThatThrownBy(() -> repository.add(cartKey, PRODUCT)).isInstanceOf(CartConcurrentModificationException.class);
+
+        assertThat(second.stringRedisTemplate().hasKey(cartKey)).isFalse();
+        assertThat(quantity(repository(resharded).findByKey(cartKey))).isEqualTo(1);
+    }
+
+    @Test
+    void guestBasketIsMergedFromItsNode() {
+        CartShards cartShards = shards(List.of(name(first), name(second)), List.of());
+        ShardedCartRepository repository = repository(cartShards);
+        String userCartKey = cartKey(0);
+        String guestCartKey = null;
+        for (int i = 0; guestCartKey == null; i++) {
+            String key = EmbeddedRedis.CART_PREFIX + "guest" + i;
+            if (cartShards.shard(key) != cartShards.shard(userCartKey)) {
+                guestCartKey = key;
+            }
+        }
+        repository.add(userCartKey, PRODUCT);
+        repository.add(guestCartKey, PRODUCT);
+        repository.add(guestCartKey, PRODUCT);
+
+        repository.merge(userCartKey, guestCartKey);
+
+        assertThat(quantity(repository.findByKey(userCartKey))).isEqualTo(3);
+        assertThat(cartShards.shard(guestCartKey).getStringRedisTemplate().hasKey(guestCartKey)).isFalse();
+        assertThat(repository.findByKey(guestCartKey).isEmpty()).isTrue();
+        assertThat(repository.findVersion(guestCartKey)).isGreaterThan(2);
+    }
+
+    private ShardedCartRepository repository(CartShards cartShards) {
+        return new ShardedCartRepository(cartShards, cartExpiration, EmbeddedRedis.cartJsonView(),
+                new SimpleMeterRegistry(), true, 1000, 5000, 1000);
+    }
+
+    private CartMigrator migrator(CartShards cartShards, ShardedCartRepository repository) {
+        return new CartMigrator(cartShards, repository, new CartVersionRepository(first.stringRedisTemplate(), cartExpiration),
+                new SimpleMeterRegistry(), EmbeddedRedis.CART_PREFIX, 10);
+    }
+
+    private static CartShards shards(List<String> nodes, List<String> previousNodes) {
+        return new CartShards(shards, nodes, previousNodes, 160);
+    }
+
+    /**
+     * A basket that moves from the first node to the second one.
+     * @param resharded
+     * @return String
+     */
+    private static String movedCartKey(CartShards resharded) {
+        for (int i = 0; ; i++) {
+            if (resharded.shard(cartKey(i)) != resharded.getShards().get(name(first))) {
+                return cartKey(i);
+            }
+        }
+    }
+
+    private static String cartKey(int i) {
+        return EmbeddedRedis.CART_PREFIX + "user" + i;
+    }
+
+    private static String name(EmbeddedRedis redis) {
+        return "localhost:" + redis.getPort();
+    }
+
+    private static CartShards.Shard shard(EmbeddedRedis redis) {
+        return new CartShards.Shard(name(redis), "localhost", redis.getPort(), redis.getConnectionFactory(),
+                redis.redisTemplate(), redis.stringRedisTemplate());
+    }
+
+    private static int quantity(Cart cart) {
+        return cart.getItems().stream().mapToInt(CartItem::getQuantity).sum();
+    }
+}
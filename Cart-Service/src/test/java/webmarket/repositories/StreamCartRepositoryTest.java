@@ -0,0 +1,166 @@
+package webmarket.repositories;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import webmarket.EmbeddedRedis;
+import webmarket.cart.CartOperationDto;
+import webmarket.core.Money;
+import webmarket.core.ProductDto;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+import webmarket.utils.CartExpiration;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The basket stored as a stream of events: the basket returned by a change is the state of the version
+ * the change wrote, and changes that cannot add units do not create a basket.
+ */
+class StreamCartRepositoryTest {
+
+    private static final String CART_KEY = EmbeddedRedis.CART_PREFIX + "user";
+
+    private static final ProductDto PRODUCT = new ProductDto(1L, "Product", new BigDecimal("2.00"));
+
+    private static EmbeddedRedis redis;
+
+    private StreamCartRepository repository;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        CartExpiration cartExpiration = EmbeddedRedis.cartExpiration();
+        repository = new StreamCartRepository(redis.stringRedisTemplate(), cartExpiration,
+                new CartVersionRepository(redis.stringRedisTemplate(), cartExpiration), EmbeddedRedis.cartJsonView(),
+                new ObjectMapper(), "CART_EVENTS", 1000, 5, 10);
+    }
+
+    @Test
+    void changesOfMissingBasketDoNotCreateIt() {
+        assertThat(repository.decrement(CART_KEY, 1L)).isZero();
+        assertThat(repository.remove(CART_KEY, 1L)).isZero();
+        assertThat(repository.clear(CART_KEY)).isZero();
+        Cart cart = repository.apply(CART_KEY, List.of(new CartOperationDto(CartOperationDto.Type.DECREMENT, 1L, 1)), Map.of());
+
+        assertThat(cart.isEmpty()).isTrue();
+        assertThat(cart.getVersion()).isZero();
+        assertThat(redis.stringRedisTemplate().keys("*")).isEmpty();
+    }
+
+    @Test
+    void parallelBatchesReturnTheStateOfTheirVersion() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Cart>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(executor.submit(() -> repository.apply(CART_KEY,
+                    List.of(new CartOperationDto(CartOperationDto.Type.ADD, 1L, 1)), Map.of(1L, PRODUCT))));
+        }
+        for (Future<Cart> future : futures) {
+            Cart cart = future.get(60, TimeUnit.SECONDS);
+            // every batch adds one unit and raises the version by one
+            assertThat(quantity(cart)).isEqualTo(cart.getVersion());
+        }
+        executor.shutdown();
+
+        Cart cart = repository.findByKey(CART_KEY);
+        assertThat(cart.getVersion()).isEqualTo(200);
+        assertThat(quantity(cart)).isEqualTo(200);
+    }
+
+    @Test
+    void mergeMovesGuestPositions() {
+        String guestKey = EmbeddedRedis.CART_PREFIX + "0a1b2c3d-4e5f-6a7b-8c9d-0e1f2a3b4c5d";
+        repository.add(guestKey, PRODUCT);
+        repository.add(guestKey, PRODUCT);
+        repository.add(CART_KEY, PRODUCT);
+
+        long version = repository.merge(CART_KEY, guestKey);
+
+        Cart cart = repository.findByKey(CART_KEY);
+        assertThat(cart.getVersion()).isEqualTo(version).isEqualTo(2);
+        assertThat(quantity(cart)).isEqualTo(3);
+        assertThat(repository.findByKey(guestKey).isEmpty()).isTrue();
+    }
+
+    @Test
+    void batchReportsOnlyChangesThatAddedUnits() {
+        for (int i = 0; i < 4; i++) {
+            repository.add(CART_KEY, PRODUCT);
+        }
+        ProductDto other = new ProductDto(2L, "Other", new BigDecimal("3.00"));
+        List<CartOperationDto> operations = List.of(
+                new CartOperationDto(CartOperationDto.Type.SET, 1L, 2),
+                new CartOperationDto(CartOperationDto.Type.SET, 1L, 2),
+                new CartOperationDto(CartOperationDto.Type.ADD, 2L, 1),
+                new CartOperationDto(CartOperationDto.Type.SET, 1L, 3));
+
+        Cart cart = repository.apply(CART_KEY, operations, Map.of(1L, PRODUCT, 2L, other));
+
+        assertThat(cart.getAddedProducts()).containsExactly(2L, 1L);
+        assertThat(quantity(cart)).isEqualTo(4);
+    }
+
+    @Test
+    void saveWritesOnlyExpectedVersion() {
+        long added = repository.add(CART_KEY, PRODUCT);
+        Cart cart = new Cart(List.of(new CartItem(1L, "Product", 5, Money.of(PRODUCT.getPrice()))));
+
+        assertThat(repository.save(CART_KEY, cart, added + 1)).isEqualTo(-1);
+        assertThat(repository.save(CART_KEY, cart, added)).isEqualTo(added + 1);
+
+        Cart stored = repository.findByKey(CART_KEY);
+        assertThat(stored.getVersion()).isEqualTo(added + 1);
+        assertThat(quantity(stored)).isEqualTo(5);
+    }
+
+    @Test
+    void changesAndVersionChecksRenewTheSnapshot() {
+        String snapshotKey = StreamCartRepository.SNAPSHOT_PREFIX + CART_KEY;
+        for (int i = 0; i < 5; i++) {
+            repository.add(CART_KEY, PRODUCT);
+        }
+        repository.findByKey(CART_KEY);
+        assertThat(redis.stringRedisTemplate().hasKey(snapshotKey)).isTrue();
+
+        redis.stringRedisTemplate().expire(snapshotKey, 10, TimeUnit.SECONDS);
+        repository.add(CART_KEY, PRODUCT);
+        assertThat(redis.stringRedisTemplate().getExpire(snapshotKey, TimeUnit.SECONDS)).isGreaterThan(TimeUnit.DAYS.toSeconds(29));
+
+        redis.stringRedisTemplate().expire(snapshotKey, 10, TimeUnit.SECONDS);
+        repository.findVersion(CART_KEY);
+        assertThat(redis.stringRedisTemplate().getExpire(snapshotKey, TimeUnit.SECONDS)).isGreaterThan(TimeUnit.DAYS.toSeconds(29));
+
+        String guestKey = EmbeddedRedis.CART_PREFIX + "0a1b2c3d-4e5f-6a7b-8c9d-0e1f2a3b4c5d";
+        repository.add(guestKey, PRODUCT);
+        redis.stringRedisTemplate().expire(snapshotKey, 10, TimeUnit.SECONDS);
+        repository.merge(CART_KEY, guestKey);
+        assertThat(redis.stringRedisTemplate().getExpire(snapshotKey, TimeUnit.SECONDS)).isGreaterThan(TimeUnit.DAYS.toSeconds(29));
+        assertThat(quantity(repository.findByKey(CART_KEY))).isEqualTo(7);
+    }
+
+    private static long quantity(Cart cart) {
+        return cart.getItems().stream().mapToInt(CartItem::getQuantity).sum();
+    }
+}
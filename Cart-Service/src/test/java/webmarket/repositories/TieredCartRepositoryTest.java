@@ -0,0 +1,194 @@
+package webmarket.repositories;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import webmarket.EmbeddedRedis;
+import webmarket.core.ProductDto;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+import webmarket.utils.CartExpiration;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Baskets moved to the database and back: a moved basket is moved back on the next request, only one of
+ * the parallel requests moves it back, and a request whose lock expired does not overwrite the basket
+ * moved back by another request.
+ */
+class TieredCartRepositoryTest {
+
+    private static final String CART_KEY = EmbeddedRedis.CART_PREFIX + "user";
+
+    private static final ProductDto PRODUCT = new ProductDto(1L, "Product", new BigDecimal("5.00"));
+
+    private static EmbeddedRedis redis;
+
+    private final CartExpiration cartExpiration = EmbeddedRedis.cartExpiration();
+
+    private final CartVersionRepository versions = new CartVersionRepository(redis.stringRedisTemplate(), cartExpiration);
+
+    private final InMemoryColdCarts coldCarts = new InMemoryColdCarts();
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void clean() {
+        redis.flushAll();
+    }
+
+    @Test
+    void demotedBasketIsRestoredOnAccess() {
+        TieredCartRepository repository = repository(Duration.ofSeconds(5));
+        repository.add(CART_KEY, PRODUCT);
+        long version = repository.findVersion(CART_KEY);
+
+        assertThat(repository.demote(CART_KEY)).isTrue();
+        assertThat(redis.stringRedisTemplate().hasKey(CART_KEY)).isFalse();
+        assertThat(redis.stringRedisTemplate().hasKey(versions.movedKey(CART_KEY))).isTrue();
+        assertThat(coldCarts.carts).containsKey(CART_KEY);
+
+        assertThat(repository.add(CART_KEY, PRODUCT)).isGreaterThan(version);
+        assertThat(quantity(repository.findByKey(CART_KEY))).isEqualTo(2);
+        assertThat(redis.stringRedisTemplate().hasKey(versions.movedKey(CART_KEY))).isFalse();
+        assertThat(coldCarts.carts).isEmpty();
+    }
+
+    @Test
+    void emptyBasketIsNotDemoted() {
+        TieredCartRepository repository = repository(Duration.ofSeconds(5));
+
+        assertThat(repository.demote(CART_KEY)).isFalse();
+        assertThat(coldCarts.carts).isEmpty();
+    }
+
+    @Test
+    void parallelRequestsRestoreBasketOnce() throws Exception {
+        TieredCartRepository repository = repository(Duration.ofSeconds(5));
+        repository.add(CART_KEY, PRODUCT);
+        repository.demote(CART_KEY);
+        coldCarts.delayMillis = 100;
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return repository.add(CART_KEY, PRODUCT);
+            }));
+        }
+        start.countDown();
+        for (Future<Long> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(coldCarts.finds).hasValue(1);
+        assertThat(quantity(repository.findByKey(CART_KEY))).isEqualTo(9);
+    }
+
+    @Test
+    void expiredLockDoesNotOverwriteRestoredBasket() throws Exception {
+        TieredCartRepository repository = repository(Duration.ofMillis(100));
+        repository.add(CART_KEY, PRODUCT);
+        repository.demote(CART_KEY);
+        coldCarts.delayMillis = 400;
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Long> slow = executor.submit(() -> repository.add(CART_KEY, PRODUCT));
+        Thread.sleep(200);
+        coldCarts.delayMillis = 0;
+        repository.add(CART_KEY, PRODUCT);
+        repository.add(CART_KEY, PRODUCT);
+        slow.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertThat(coldCarts.finds).hasValue(2);
+        assertThat(quantity(repository.findByKey(CART_KEY))).isEqualTo(4);
+    }
+
+    private TieredCartRepository repository(Duration promoteTimeout) {
+        ValueCartRepository storage = new ValueCartRepository(redis.redisTemplate(), cartExpiration, versions,
+                EmbeddedRedis.cartJsonView(), true, 100);
+        return new TieredCartRepository(storage, coldCarts, versions, redis.stringRedisTemplate(),
+                new SimpleMeterRegistry(), promoteTimeout);
+    }
+
+    private static int quantity(Cart cart) {
+        return cart.getItems().stream().mapToInt(CartItem::getQuantity).sum();
+    }
+
+    /**
+     * The baskets in the database kept in memory, reading a basket takes the given time.
+     */
+    private static class InMemoryColdCarts extends ColdCartRepository {
+
+        private final Map<String, Cart> carts = new ConcurrentHashMap<>();
+
+        private final AtomicInteger finds = new AtomicInteger();
+
+        private volatile long delayMillis;
+
+        private InMemoryColdCarts() {
+            super(null, 0);
+        }
+
+        @Override
+        public Cart find(String cartKey) {
+            finds.incrementAndGet();
+            Cart cart = carts.get(cartKey);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (cart == null) {
+                return null;
+            }
+            Cart copy = cart.copy();
+            copy.setVersion(cart.getVersion());
+            return copy;
+        }
+
+        @Override
+        public void save(String cartKey, Cart cart) {
+            Cart copy = cart.copy();
+            copy.setVersion(cart.getVersion());
+            carts.put(cartKey, copy);
+        }
+
+        @Override
+        public void delete(String cartKey, long version) {
+            carts.computeIfPresent(cartKey, (key, cart) -> cart.getVersion() == version ? null : cart);
+        }
+
+        @Override
+        public long count() {
+            return carts.size();
+        }
+    }
+}
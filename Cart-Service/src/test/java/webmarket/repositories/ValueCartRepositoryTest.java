@@ -0,0 +1,145 @@
+package webmarket.repositories;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import webmarket.EmbeddedRedis;
+import webmarket.core.ProductDto;
+import webmarket.exceptions.CartConcurrentModificationException;
+import webmarket.exceptions.CartMovedException;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+import webmarket.utils.CartExpiration;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Parallel changes of one basket stored as a single value: no change is lost and every change raises the version once.
+ */
+class ValueCartRepositoryTest {
+
+    private static final String CART_KEY = EmbeddedRedis.CART_PREFIX + "user";
+
+    private static final int THREADS = 8;
+
+    private static final int ADDS_PER_THREAD = 50;
+
+    private static EmbeddedRedis redis;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void clean() {
+        redis.flushAll();
+    }
+
+    @Test
+    void parallelAddsAreNotLost() throws Exception {
+        ValueCartRepository repository = repository(1000);
+        AtomicInteger failed = new AtomicInteger();
+
+        run(repository, failed);
+
+        Cart cart = repository.findByKey(CART_KEY);
+        assertThat(failed).hasValue(0);
+        assertThat(quantity(cart, 1L)).isEqualTo(THREADS * ADDS_PER_THREAD);
+        assertThat(quantity(cart, 2L)).isEqualTo(THREADS * ADDS_PER_THREAD);
+        assertThat(cart.getVersion()).isEqualTo(2L * THREADS * ADDS_PER_THREAD);
+    }
+
+    @Test
+    void rejectedChangesAreNotApplied() throws Exception {
+        ValueCartRepository repository = repository(1);
+        AtomicInteger failed = new AtomicInteger();
+
+        run(repository, failed);
+
+        Cart cart = repository.findByKey(CART_KEY);
+        int written = 2 * THREADS * ADDS_PER_THREAD - failed.get();
+        assertThat(failed.get()).isPositive();
+        assertThat(quantity(cart, 1L) + quantity(cart, 2L)).isEqualTo(written);
+        assertThat(cart.getVersion()).isEqualTo(written);
+    }
+
+    @Test
+    void movedBasketIsWrittenOnlyWhenMovedBack() {
+        ValueCartRepository repository = repository(10);
+        ProductDto product = new ProductDto(1L, "Product 1", new BigDecimal("10.50"));
+        repository.add(CART_KEY, product);
+        Cart cart = repository.findByKey(CART_KEY);
+        String movedKey = new CartVersionRepository(redis.stringRedisTemplate(), EmbeddedRedis.cartExpiration()).movedKey(CART_KEY);
+        redis.stringRedisTemplate().opsForValue().set(movedKey, "1");
+
+        assertThatThrownBy(() -> repository.findByKey(CART_KEY)).isInstanceOf(CartMovedException.class);
+        assertThatThrownBy(() -> repository.add(CART_KEY, product)).isInstanceOf(CartMovedException.class);
+        assertThatThrownBy(() -> repository.save(CART_KEY, cart)).isInstanceOf(CartMovedException.class);
+
+        assertThat(repository.save(CART_KEY, cart, 1)).isEqualTo(2);
+        assertThat(redis.stringRedisTemplate().hasKey(movedKey)).isFalse();
+        assertThat(quantity(repository.findByKey(CART_KEY), 1L)).isEqualTo(1);
+    }
+
+    /**
+     * Each thread adds two products in turn to the same basket.
+     * @param repository
+     * @param failed the number of changes rejected as concurrent
+     */
+    private void run(ValueCartRepository repository, AtomicInteger failed) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ADDS_PER_THREAD; i++) {
+                    for (long productId = 1; productId <= 2; productId++) {
+                        try {
+                            repository.add(CART_KEY, new ProductDto(productId, "Product " + productId, new BigDecimal("10.50")));
+                        } catch (CartConcurrentModificationException e) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    private ValueCartRepository repository(int maxAttempts) {
+        CartExpiration cartExpiration = EmbeddedRedis.cartExpiration();
+        CartVersionRepository versions = new CartVersionRepository(redis.stringRedisTemplate(), cartExpiration);
+        return new ValueCartRepository(redis.redisTemplate(), cartExpiration, versions, EmbeddedRedis.cartJsonView(), true, maxAttempts);
+    }
+
+    private static int quantity(Cart cart, Long productId) {
+        return cart.getItems().stream()
+                .filter(i -> i.getProductId().equals(productId))
+                .mapToInt(CartItem::getQuantity)
+                .sum();
+    }
+}
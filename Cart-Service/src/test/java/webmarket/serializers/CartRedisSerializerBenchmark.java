@@ -0,0 +1,63 @@
+package webmarket.serializers;
+
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import webmarket.Benchmark;
+import webmarket.core.Money;
+import webmarket.model.Cart;
+import webmarket.model.CartItem;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The size of a basket in Redis and the time of writing and reading it: the binary serializer against the JSON
+ * serializer used before it, for baskets of 1 to 500 positions.
+ */
+@EnabledIfSystemProperty(named = Benchmark.ENABLED, matches = "true")
+class CartRedisSerializerBenchmark {
+
+    private final CartRedisSerializer binarySerializer = new CartRedisSerializer(1024);
+
+    private final GenericJackson2JsonRedisSerializer jsonSerializer = new GenericJackson2JsonRedisSerializer();
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 10, 100, 500})
+    void sizeAndTime(int lines) {
+        Cart cart = cart(lines);
+        byte[] binary = binarySerializer.serialize(cart);
+        byte[] json = jsonSerializer.serialize(cart);
+        System.out.printf("%d positions: binary %d B, json %d B%n", lines, binary.length, json.length);
+        int iterations = Math.max(500, 200_000 / lines);
+
+        Benchmark.run("binary write, " + lines + " positions", iterations, iterations, () -> binarySerializer.serialize(cart));
+        Benchmark.run("json write, " + lines + " positions", iterations, iterations, () -> jsonSerializer.serialize(cart));
+        Benchmark.run("binary read, " + lines + " positions", iterations, iterations, () -> binarySerializer.deserialize(binary));
+        Benchmark.run("json read, " + lines + " positions", iterations, iterations, () -> jsonSerializer.deserialize(json));
+
+        assertThat(binary.length).isLessThan(json.length);
+        assertThat(((Cart) binarySerializer.deserialize(binary)).getTotal()).isEqualTo(cart.getTotal());
+    }
+
+    /**
+     * A basket with names and prices like in the catalog.
+     * @param lines the number of positions
+     * @return Cart
+     */
+    static Cart cart(int lines) {
+        Random random = new Random(lines);
+        List<CartItem> items = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            long productId = 1000 + random.nextInt(100_000);
+            items.add(new CartItem(productId, "Product " + productId + " of the catalog", 1 + random.nextInt(5),
+                    Money.of(BigDecimal.valueOf(100 + random.nextInt(1_000_000), 2))));
+        }
+        return new Cart(items);
+    }
+}
@@ -0,0 +1,187 @@
+package webmarket.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The breaker opens after failures in a row, lets one trial call through after the open period and closes
+ * or opens again by its outcome; the bulkhead rejects the calls over the limit.
+ */
+class CallGuardTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(100);
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void bulkheadRejectsCallsOverLimit() throws Exception {
+        CallGuard guard = guard(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> slow = executor.submit(() -> guard.call(() -> {
+            started.countDown();
+            await(finish);
+            return "slow";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+
+        assertThatThrownBy(() -> guard.call(this::succeed)).isInstanceOf(CallGuard.CallRejectedException.class);
+        finish.countDown();
+        assertThat(slow.get(5, TimeUnit.SECONDS)).isEqualTo("slow");
+        assertThat(guard.call(this::succeed)).isEqualTo("ok");
+        executor.shutdown();
+
+        assertThat(count("rejected_bulkhead")).isEqualTo(1);
+        assertThat(guard.getState()).isEqualTo(CallGuard.State.CLOSED);
+    }
+
+    @Test
+    void breakerOpensAndClosesAfterTrialCall() throws Exception {
+        CallGuard guard = guard(2);
+        open(guard);
+
+        assertThatThrownBy(() -> guard.call(this::succeed)).isInstanceOf(CallGuard.CallRejectedException.class);
+        assertThat(calls).hasValue(2);
+
+        Thread.sleep(OPEN_DURATION.toMillis() * 2);
+        assertThat(guard.getState()).isEqualTo(CallGuard.State.HALF_OPEN);
+        assertThat(guard.call(this::succeed)).isEqualTo("ok");
+
+        assertThat(guard.getState()).isEqualTo(CallGuard.State.CLOSED);
+        assertThat(count("rejected_breaker")).isEqualTo(1);
+    }
+
+    @Test
+    void failedTrialCallOpensBreakerAgain() throws Exception {
+        CallGuard guard = guard(2);
+        open(guard);
+        Thread.sleep(OPEN_DURATION.toMillis() * 2);
+
+        assertThatThrownBy(() -> guard.call(this::fail)).isInstanceOf(IllegalStateException.class);
+
+        assertThat(guard.getState()).isEqualTo(CallGuard.State.OPEN);
+        assertThatThrownBy(() -> guard.call(this::succeed)).isInstanceOf(CallGuard.CallRejectedException.class);
+    }
+
+    @Test
+    void onlyOneTrialCallIsMadeWhenHalfOpen() throws Exception {
+        CallGuard guard = guard(2);
+        open(guard);
+        Thread.sleep(OPEN_DURATION.toMillis() * 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> trial = executor.submit(() -> guard.call(() -> {
+            started.countDown();
+            await(finish);
+            return "trial";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+
+        assertThatThrownBy(() -> guard.call(this::succeed)).isInstanceOf(CallGuard.CallRejectedException.class);
+        finish.countDown();
+        assertThat(trial.get(5, TimeUnit.SECONDS)).isEqualTo("trial");
+        executor.shutdown();
+
+        assertThat(guard.getState()).isEqualTo(CallGuard.State.CLOSED);
+        assertThat(count("rejected_breaker")).isEqualTo(1);
+        assertThat(count("rejected_bulkhead")).isZero();
+    }
+
+    @Test
+    void breakerRejectsWithoutWaitingForBulkhead() throws Exception {
+        CallGuard guard = guard(1, Duration.ofSeconds(5));
+        open(guard);
+        Thread.sleep(OPEN_DURATION.toMillis() * 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> trial = executor.submit(() -> guard.call(() -> {
+            started.countDown();
+            await(finish);
+            return "trial";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> guard.call(this::succeed)).isInstanceOf(CallGuard.CallRejectedException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+        finish.countDown();
+        assertThat(trial.get(5, TimeUnit.SECONDS)).isEqualTo("trial");
+        executor.shutdown();
+
+        assertThat(count("rejected_breaker")).isEqualTo(1);
+        assertThat(count("rejected_bulkhead")).isZero();
+    }
+
+    @Test
+    void answersOfServiceDoNotOpenBreaker() {
+        CallGuard guard = guard(2);
+
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> guard.call(() -> {
+                throw new IllegalArgumentException("not found");
+            })).isInstanceOf(IllegalArgumentException.class);
+        }
+
+        assertThat(guard.getState()).isEqualTo(CallGuard.State.CLOSED);
+    }
+
+    /**
+     * A guard which treats IllegalArgumentException as an answer of the service.
+     * @param maxConcurrentCalls
+     * @return CallGuard
+     */
+    private CallGuard guard(int maxConcurrentCalls) {
+        return guard(maxConcurrentCalls, Duration.ofMillis(10));
+    }
+
+    private CallGuard guard(int maxConcurrentCalls, Duration maxWait) {
+        return new CallGuard("test", 2, OPEN_DURATION, maxConcurrentCalls, maxWait,
+                e -> !(e instanceof IllegalArgumentException), meterRegistry);
+    }
+
+    private void open(CallGuard guard) {
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> guard.call(this::fail)).isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(guard.getState()).isEqualTo(CallGuard.State.OPEN);
+    }
+
+    private String succeed() {
+        calls.incrementAndGet();
+        return "ok";
+    }
+
+    private String fail() {
+        calls.incrementAndGet();
+        throw new IllegalStateException("down");
+    }
+
+    private double count(String outcome) {
+        return meterRegistry.counter("cart.integration.calls", "service", "test", "outcome", outcome).count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package webmarket.utils;
+
+import org.junit.jupiter.api.Test;
+import webmarket.EmbeddedRedis;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CartExpirationTest {
+
+    private final CartExpiration cartExpiration = EmbeddedRedis.cartExpiration();
+
+    @Test
+    void guestBasketIsKeyedByUuidOnly() {
+        String guest = EmbeddedRedis.CART_PREFIX + "0a1b2c3d-4e5f-6a7b-8c9d-0e1f2a3b4c5d";
+
+        assertThat(cartExpiration.isGuest(guest)).isTrue();
+        assertThat(cartExpiration.ttl(guest)).isEqualTo(Duration.ofDays(3));
+    }
+
+    @Test
+    void usernameStartingWithUuidIsNotGuest() {
+        String user = EmbeddedRedis.CART_PREFIX + "0a1b2c3d-4e5f-6a7b-8c9d-0e1f2a3b4c5dalice";
+
+        assertThat(cartExpiration.isGuest(user)).isFalse();
+        assertThat(cartExpiration.ttl(user)).isEqualTo(Duration.ofDays(30));
+    }
+}
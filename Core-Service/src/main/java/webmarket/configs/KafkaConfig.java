@@ -0,0 +1,56 @@
+package webmarket.configs;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.LongSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import webmarket.core.ProductDto;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Kafka settings for sending messages about product changes.
+ */
+@Configuration
+public class KafkaConfig {
+
+    @Value("${spring.kafka.bootstrap-servers}")
+    private String server;
+
+    /**
+     * Map of producer settings properties.
+     * @return
+     */
+    @Bean
+    public Map<String, Object> producerConfig(){
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, server);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, LongSerializer.class);
+        return props;
+    }
+
+    /**
+     * Producer's factory.
+     * @return
+     */
+    @Bean
+    public ProducerFactory<Long, ProductDto> producerFactory(){
+        return new DefaultKafkaProducerFactory<>(producerConfig());
+    }
+
+    /**
+     * Kafka template for sending messages about product changes.
+     * @return
+     */
+    @Bean(value = "KafkaProducts")
+    public KafkaTemplate<Long, ProductDto> kafkaTemplate(){
+        return new KafkaTemplate<>(producerFactory());
+    }
+}
@@ -18,8 +18,10 @@ import org.springframework.data.domain.Page;
 import org.springframework.web.bind.annotation.*;
 import webmarket.core.ProductDto;
 import webmarket.exceptions.ResourceNotFoundException;
+import webmarket.exceptions.ValidationException;
 
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -32,6 +34,11 @@ import java.util.stream.Collectors;
 @Tag(name = "Products", description = "Methods of working with products")
 public class ProductController {
 
+    /**
+     * The maximum number of products in one request by ids.
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
     /**
      * Product service.
      */
@@ -102,6 +109,31 @@ public class ProductController {
         return productConverter.entityToDto(product);
     }
 
+    /**
+     * Request to receive several products by their ids in one query. Products that are not found are skipped.
+     * http://localhost:5555/core/api/v1/products/batch?ids=1,2,3
+     * @param ids
+     * @return
+     */
+    @GetMapping("/batch")
+    @Operation(
+            summary = "Request to receive several products by their ids",
+            responses = {
+                    @ApiResponse(
+                            description = "Successful response", responseCode = "200",
+                            content = @Content(
+                                    mediaType = "application/json",
+                                    array = @ArraySchema(schema = @Schema(implementation = ProductDto.class)))
+                    )
+            }
+    )
+    public List<ProductDto> getProductsByIds(@RequestParam @Parameter(description = "Product IDs", required = true) Set<Long> ids) {
+        if (ids.size() > MAX_BATCH_SIZE) {
+            throw new ValidationException(List.of("No more than " + MAX_BATCH_SIZE + " products can be requested at once"));
+        }
+        return productService.findAllById(ids).stream().map(p -> productConverter.entityToDto(p)).collect(Collectors.toList());
+    }
+
     /**
      * Request for a list of products.
      * http://localhost:5555/core/api/v1/products/all
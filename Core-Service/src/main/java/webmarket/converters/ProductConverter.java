@@ -20,11 +20,16 @@ public class ProductConverter {
     }
 
     /**
-     * Converts the essence of the product into the DTO of the product.
+     * Converts the essence of the product into the DTO of the product. The category is passed by name,
+     * so the services that receive the product can group products by category.
      * @param product
      * @return
      */
     public ProductDto entityToDto(Product product) {
-        return new ProductDto(product.getId(), product.getName(), product.getPrice());
+        ProductDto productDto = new ProductDto(product.getId(), product.getName(), product.getPrice());
+        if (product.getCategory() != null) {
+            productDto.setCategory(product.getCategory().getName());
+        }
+        return productDto;
     }
 }
@@ -9,11 +9,17 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import webmarket.cart.CartDto;
+import webmarket.cart.CartItemDto;
+import webmarket.entities.Product;
+import webmarket.core.Money;
 import webmarket.core.OrderDetailsDto;
 import webmarket.exceptions.ResourceNotFoundException;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static webmarket.enums.StatusCode.PAID;
@@ -31,7 +37,9 @@ public class OrderService {
     private final ClientFeignAuthService userService;
 
     /**
-     * Creates an order based on the received data.
+     * Creates an order based on the received data. The prices of the positions and the order total are counted
+     * in Money and converted to BigDecimal only when written to the entities. The products of all the positions
+     * are loaded in one query.
      * @param userName
      * @param orderDetailsDto
      */
@@ -47,17 +55,27 @@ public class OrderService {
         order.setAddressLineTwoApartmentNumber(orderDetailsDto.getAddressLineTwoApartmentNumber());
         order.setEmail(orderDetailsDto.getEmail());
         order.setPhone(orderDetailsDto.getPhone());
-        order.setTotalPrice(currentCart.getTotalPrice());
-        List<OrderItem> items = currentCart.getItems().stream()
-                .map(o -> {
-                    OrderItem item = new OrderItem();
-                    item.setOrder(order);
-                    item.setQuantity(o.getQuantity());
-                    item.setPricePerProduct(o.getPricePerProduct());
-                    item.setPrice(o.getPrice());
-                    item.setProduct(productsService.findById(o.getProductId()).orElseThrow(() -> new ResourceNotFoundException("Product not found")));
-                    return item;
-                }).collect(Collectors.toList());
+        Map<Long, Product> products = productsService.findAllById(currentCart.getItems().stream().map(CartItemDto::getProductId).collect(Collectors.toSet()))
+                .stream().collect(Collectors.toMap(Product::getId, Function.identity()));
+        Money totalPrice = Money.ZERO;
+        List<OrderItem> items = new ArrayList<>(currentCart.getItems().size());
+        for (CartItemDto o : currentCart.getItems()) {
+            Money pricePerProduct = Money.of(o.getPricePerProduct());
+            Money price = pricePerProduct.times(o.getQuantity());
+            totalPrice = totalPrice.plus(price);
+            OrderItem item = new OrderItem();
+            item.setOrder(order);
+            item.setQuantity(o.getQuantity());
+            item.setPricePerProduct(pricePerProduct.toBigDecimal());
+            item.setPrice(price.toBigDecimal());
+            Product product = products.get(o.getProductId());
+            if (product == null) {
+                throw new ResourceNotFoundException("Product not found");
+            }
+            item.setProduct(product);
+            items.add(item);
+        }
+        order.setTotalPrice(totalPrice.toBigDecimal());
         order.setItems(items);
         ordersRepository.save(order);
         cartServiceIntegration.clearUserCart(userName);
@@ -1,19 +1,27 @@
 package webmarket.services;
 
+import webmarket.converters.ProductConverter;
 import webmarket.entities.Product;
 import webmarket.repositories.ProductRepository;
 import webmarket.repositories.specifications.ProductSpecifications;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
+import webmarket.core.ProductDto;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 /**
  * The product service works with the store's products.
+ * Every change of a product is published to the ProductChanged topic, so that the services
+ * caching products can drop outdated copies.
  */
 @Service
 @RequiredArgsConstructor
@@ -29,6 +37,18 @@ public class ProductService {
      */
     private final CategoryService categoryService;
 
+    /**
+     * Converter to the essence of products and vice versa.
+     */
+    private final ProductConverter productConverter;
+
+    /**
+     * A template for sending messages about product changes to kafka.
+     */
+    @Qualifier(value = "KafkaProducts")
+    @Autowired
+    private KafkaTemplate<Long, ProductDto> kafkaTemplate;
+
     /**
      * Returns a page with products.
      * @param minScore
@@ -82,12 +102,24 @@ public class ProductService {
         return productRepository.findById(id);
     }
 
+    /**
+     * Returns the products by their Ids in one query.
+     * @param ids
+     * @return
+     */
+    public List<Product> findAllById(Collection<Long> ids) {
+        return productRepository.findAllById(ids);
+    }
+
     /**
      * Deletes a product by its ID.
      * @param id
      */
     public void delProdictById(Long id) {
         productRepository.deleteById(id);
+        ProductDto productDto = new ProductDto();
+        productDto.setId(id);
+        kafkaTemplate.send("ProductChanged", id, productDto);
     }
 
     /**
@@ -96,6 +128,8 @@ public class ProductService {
      * @return
      */
     public Product save(Product product){
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        kafkaTemplate.send("ProductChanged", saved.getId(), productConverter.entityToDto(saved));
+        return saved;
     }
 }
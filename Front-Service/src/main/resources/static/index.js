@@ -63,7 +63,11 @@
 
 angular.module('market-front').controller('indexController', function ($rootScope, $scope, $http, $location, $localStorage) {
     $scope.tryToAuth = function () {
-        $http.post('http://localhost:5555/auth/auth', $scope.user)
+        $http.post('http://localhost:5555/auth/auth', {
+            username: $scope.user.username,
+            password: $scope.user.password,
+            guestCartId: $localStorage.springWebGuestCartId
+        })
             .then(function successCallback(response) {
                 if (response.data.token) {
                     $http.defaults.headers.common.Authorization = 'Bearer ' + response.data.token;
@@ -72,10 +76,6 @@ angular.module('market-front').controller('indexController', function ($rootScop
                     $scope.user.username = null;
                     $scope.user.password = null;
 
-                    $http.get('http://localhost:5555/cart/api/v1/cart/' + $localStorage.springWebGuestCartId + '/merge')
-                        .then(function successCallback(response) {
-                        });
-
                     $location.path('/');
                 }
             }, function errorCallback(response) {
@@ -0,0 +1,141 @@
+package webmarket;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.RouteToRequestUrlFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponentsBuilder;
+import webmarket.cart.CartRing;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+
+/**
+ * Routes all the requests of a basket to the same instance of the basket service, so that the instance
+ * can keep the basket in memory. The instance is chosen by consistent hashing of the basket: the username
+ * for an authorized user, otherwise the basket id from the path, so the merge of the guest basket goes to the instance
+ * of the user basket, which makes the merge. The username is taken from the header set by {@link JwtAuthFilter}
+ * from the token, so the filter goes after it on the route. When an instance is added or removed,
+ * only the baskets of the neighbouring points of the ring move to another instance.
+ * An instance that does not accept connections is skipped for a while, its baskets go to the next instance
+ * on the ring, which loads them from Redis.
+ */
+@Component
+public class CartAffinityFilter extends AbstractGatewayFilterFactory<CartAffinityFilter.Config> {
+
+    /**
+     * The part of the path before the basket id.
+     */
+    private static final String CART_PATH = "/api/v1/cart/";
+
+    /**
+     * The ring of the instances.
+     */
+    private final NavigableMap<Long, URI> ring = new TreeMap<>();
+
+    /**
+     * How long an instance that does not accept connections is skipped.
+     */
+    private final Duration downFor;
+
+    /**
+     * The instances that do not accept connections, until when they are skipped.
+     */
+    private final Map<URI, Long> down = new ConcurrentHashMap<>();
+
+    public CartAffinityFilter(@Value("${cart-affinity.instances}") List<URI> instances,
+                              @Value("${cart-affinity.virtual-nodes}") int virtualNodes,
+                              @Value("${cart-affinity.down-for}") Duration downFor) {
+        super(Config.class);
+        this.downFor = downFor;
+        for (URI instance : instances) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(CartRing.point(instance.toString(), i), instance);
+            }
+        }
+    }
+
+    /**
+     * The filter runs after the request URL is built from the route, and replaces the instance in it.
+     * @param config
+     * @return GatewayFilter
+     */
+    @Override
+    public GatewayFilter apply(Config config) {
+        return new OrderedGatewayFilter((exchange, chain) -> {
+            String cart = cart(exchange.getRequest());
+            URI url = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+            if (cart == null || url == null) {
+                return chain.filter(exchange);
+            }
+            URI instance = instance(cart);
+            exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, UriComponentsBuilder.fromUri(url)
+                    .scheme(instance.getScheme())
+                    .host(instance.getHost())
+                    .port(instance.getPort())
+                    .build(true)
+                    .toUri());
+            return chain.filter(exchange).doOnError(ConnectException.class,
+                    e -> down.put(instance, System.currentTimeMillis() + downFor.toMillis()));
+        }, RouteToRequestUrlFilter.ROUTE_TO_URL_FILTER_ORDER + 1);
+    }
+
+    public static class Config {
+    }
+
+    /**
+     * Returns the instance of the basket: the first instance on the ring after the hash of the basket
+     * that accepts connections.
+     * @param cart
+     * @return URI
+     */
+    private URI instance(String cart) {
+        long now = System.currentTimeMillis();
+        Map.Entry<Long, URI> owner = point(ring.ceilingEntry(CartRing.hash(cart)));
+        Map.Entry<Long, URI> point = owner;
+        for (int i = 0; i < ring.size(); i++) {
+            Long until = down.get(point.getValue());
+            if (until == null || until < now) {
+                return point.getValue();
+            }
+            point = point(ring.higherEntry(point.getKey()));
+        }
+        return owner.getValue();
+    }
+
+    private Map.Entry<Long, URI> point(Map.Entry<Long, URI> point) {
+        return point != null ? point : ring.firstEntry();
+    }
+
+    /**
+     * Returns what the basket is identified by: the username or the basket id.
+     * @param request
+     * @return the basket or null if the request is not for a basket
+     */
+    private String cart(ServerHttpRequest request) {
+        String username = request.getHeaders().getFirst("username");
+        if (username != null) {
+            return username;
+        }
+        String path = request.getPath().value();
+        int start = path.indexOf(CART_PATH);
+        if (start < 0) {
+            return null;
+        }
+        start += CART_PATH.length();
+        int end = path.indexOf('/', start);
+        String uuid = end < 0 ? path.substring(start) : path.substring(start, end);
+        return uuid.isEmpty() || uuid.equals("generate") ? null : uuid;
+    }
+}
@@ -13,6 +13,8 @@ import reactor.core.publisher.Mono;
 
 /**
  * It passes incoming requests through itself, checks the user for his status - authorized or not.
+ * The username header is set only from a valid token, the header sent by the client is removed,
+ * so the services behind the gateway can trust it.
  */
 @Component
 public class JwtAuthFilter extends AbstractGatewayFilterFactory<JwtAuthFilter.Config> {
@@ -32,9 +34,11 @@ public class JwtAuthFilter extends AbstractGatewayFilterFactory<JwtAuthFilter.Co
                 if (jwtUtil.isInvalid(token)) {
                     return this.onError(exchange, "Authorization header is invalid", HttpStatus.UNAUTHORIZED);
                 }
-                populateRequestWithHeaders(exchange, token);
+                return chain.filter(populateRequestWithHeaders(exchange, token));
             }
-            return chain.filter(exchange);
+            return chain.filter(exchange.mutate()
+                    .request(request.mutate().headers(headers -> headers.remove("username")).build())
+                    .build());
         };
     }
 
@@ -66,11 +70,18 @@ public class JwtAuthFilter extends AbstractGatewayFilterFactory<JwtAuthFilter.Co
         return false;
     }
 
-    private void populateRequestWithHeaders(ServerWebExchange exchange, String token) {
+    /**
+     * Replaces the username header of the request with the subject of the token.
+     * @param exchange
+     * @param token
+     * @return the exchange with the changed request
+     */
+    private ServerWebExchange populateRequestWithHeaders(ServerWebExchange exchange, String token) {
         Claims claims = jwtUtil.getAllClaimsFromToken(token);
-        exchange.getRequest().mutate()
-                .header("username", claims.getSubject())
+        ServerHttpRequest request = exchange.getRequest().mutate()
+                .headers(headers -> headers.set("username", claims.getSubject()))
 //                .header("role", String.valueOf(claims.get("role")))
                 .build();
+        return exchange.mutate().request(request).build();
     }
 }
@@ -0,0 +1,87 @@
+package webmarket.cart;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * The model ( DTO ) of one change of the basket in a batch request.
+ */
+@Schema(description = "The model ( DTO ) of one change of the basket in a batch request")
+public class CartOperationDto {
+
+    /**
+     * Type of the change.
+     */
+    public enum Type {
+        /**
+         * Adds units of the product.
+         */
+        ADD,
+        /**
+         * Reduces the number of units of the product.
+         */
+        DECREMENT,
+        /**
+         * Sets the number of units of the product, zero removes the position.
+         */
+        SET,
+        /**
+         * Removes the position of the product.
+         */
+        REMOVE,
+        /**
+         * Clears the basket.
+         */
+        CLEAR
+    }
+
+    /**
+     * Type of the change.
+     */
+    @Schema(description = "Type of the change", required = true, example = "ADD")
+    private Type type;
+
+    /**
+     * Product ID, not needed to clear the basket.
+     */
+    @Schema(description = "Product ID, not needed to clear the basket", example = "3")
+    private Long productId;
+
+    /**
+     * Number of units, one by default.
+     */
+    @Schema(description = "Number of units, one by default", example = "2")
+    private Integer quantity;
+
+    public CartOperationDto(Type type, Long productId, Integer quantity) {
+        this.type = type;
+        this.productId = productId;
+        this.quantity = quantity;
+    }
+
+    public CartOperationDto() {
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Long productId) {
+        this.productId = productId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+}
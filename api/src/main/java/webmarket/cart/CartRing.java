@@ -0,0 +1,44 @@
+package webmarket.cart;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Positions on the ring of consistent hashing of baskets. The gateway places the instances of the basket service
+ * and the basket service places the Redis nodes on rings built the same way, so both use these positions.
+ */
+public final class CartRing {
+
+    private CartRing() {
+    }
+
+    /**
+     * The position of a virtual node of the ring.
+     * @param node the name of the node
+     * @param index the number of the virtual node
+     * @return long
+     */
+    public static long point(String node, int index) {
+        return hash(node + "#" + index);
+    }
+
+    /**
+     * The position on the ring: the first eight bytes of MD5.
+     * @param value
+     * @return long
+     */
+    public static long hash(String value) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long hash = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = hash << 8 | (digest[i] & 0xFF);
+        }
+        return hash;
+    }
+}
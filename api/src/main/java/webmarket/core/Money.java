@@ -0,0 +1,154 @@
+package webmarket.core;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+/**
+ * An amount of money stored as a whole number of minor units (kopecks) with an explicit scale and currency.
+ * Arithmetic is done on long values, conversion to BigDecimal is needed only at the boundary
+ * of the API and the database.
+ */
+public final class Money {
+
+    /**
+     * The currency of the store.
+     */
+    public static final String DEFAULT_CURRENCY = "RUB";
+
+    /**
+     * The number of digits after the decimal point in the store currency.
+     */
+    public static final int DEFAULT_SCALE = 2;
+
+    /**
+     * Zero in the store currency.
+     */
+    public static final Money ZERO = new Money(0, DEFAULT_SCALE, DEFAULT_CURRENCY);
+
+    /**
+     * Amount in minor units.
+     */
+    private final long minorUnits;
+
+    /**
+     * The number of minor unit digits.
+     */
+    private final int scale;
+
+    /**
+     * Currency code according to ISO 4217.
+     */
+    private final String currency;
+
+    private Money(long minorUnits, int scale, String currency) {
+        this.minorUnits = minorUnits;
+        this.scale = scale;
+        this.currency = currency;
+    }
+
+    /**
+     * Converts the amount in the store currency.
+     * @param amount
+     * @return Money
+     */
+    public static Money of(BigDecimal amount) {
+        return of(amount, DEFAULT_SCALE, DEFAULT_CURRENCY);
+    }
+
+    /**
+     * Converts the amount, rounding it to the scale of the currency.
+     * @param amount
+     * @param scale
+     * @param currency
+     * @return Money
+     */
+    public static Money of(BigDecimal amount, int scale, String currency) {
+        return new Money(amount.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact(), scale, currency);
+    }
+
+    /**
+     * Creates an amount from minor units.
+     * @param minorUnits
+     * @param scale
+     * @param currency
+     * @return Money
+     */
+    public static Money ofMinor(long minorUnits, int scale, String currency) {
+        return new Money(minorUnits, scale, currency);
+    }
+
+    public Money plus(Money other) {
+        check(other);
+        return other.minorUnits == 0 ? this : new Money(Math.addExact(minorUnits, other.minorUnits), scale, currency);
+    }
+
+    public Money minus(Money other) {
+        check(other);
+        return other.minorUnits == 0 ? this : new Money(Math.subtractExact(minorUnits, other.minorUnits), scale, currency);
+    }
+
+    public Money times(long multiplier) {
+        return multiplier == 1 ? this : new Money(Math.multiplyExact(minorUnits, multiplier), scale, currency);
+    }
+
+    /**
+     * Zero in the same currency.
+     * @return Money
+     */
+    public Money zero() {
+        return minorUnits == 0 ? this : new Money(0, scale, currency);
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Converts the amount for the API and the database.
+     * @return BigDecimal
+     */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, scale);
+    }
+
+    /**
+     * Checks that the amounts can be added up.
+     * @param other
+     */
+    private void check(Money other) {
+        if (scale != other.scale || !currency.equals(other.currency)) {
+            throw new IllegalArgumentException("Amounts in different currencies: " + this + " and " + other);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Money)) {
+            return false;
+        }
+        Money money = (Money) o;
+        return minorUnits == money.minorUnits && scale == money.scale && currency.equals(money.currency);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minorUnits, scale, currency);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString() + " " + currency;
+    }
+}
@@ -28,6 +28,12 @@ public class ProductDto {
     @Schema(description = "Цена продукта", required = true, example = "120.21")
     private BigDecimal price;
 
+    /**
+     * The name of the product category.
+     */
+    @Schema(description = "Категория продукта", example = "Сладости")
+    private String category;
+
     public ProductDto(Long id, String name, BigDecimal price) {
         this.id = id;
         this.name = name;
@@ -64,4 +70,12 @@ public class ProductDto {
     public void setPrice(BigDecimal price) {
         this.price = price;
     }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
 }
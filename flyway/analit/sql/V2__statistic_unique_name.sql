@@ -0,0 +1,14 @@
+USE `analityc`;
+
+-- the duplicates of a product are merged into its first row
+UPDATE `statistic` s
+    JOIN (SELECT MIN(`id`) AS `id`, SUM(`count_visits`) AS `total`
+          FROM `statistic`
+          GROUP BY `name_products`
+          HAVING COUNT(*) > 1) d ON s.`id` = d.`id`
+SET s.`count_visits` = d.`total`;
+
+DELETE s FROM `statistic` s
+    JOIN `statistic` k ON s.`name_products` = k.`name_products` AND s.`id` > k.`id`;
+
+ALTER TABLE `statistic` ADD UNIQUE KEY `uk_statistic_name_products` (`name_products`);
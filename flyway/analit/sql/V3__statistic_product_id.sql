@@ -0,0 +1,9 @@
+USE `analityc`;
+
+-- statistics are keyed by the product id, the name is kept only for display;
+-- the rows keyed by name get the product id by the backfill of the analytics service
+ALTER TABLE `statistic`
+    ADD COLUMN `product_id` bigint NULL AFTER `id`,
+    ADD UNIQUE KEY `uk_statistic_product_id` (`product_id`),
+    ADD KEY `idx_statistic_count_visits` (`count_visits` DESC),
+    DROP INDEX `uk_statistic_name_products`;
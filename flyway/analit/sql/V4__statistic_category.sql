@@ -0,0 +1,7 @@
+USE `analityc`;
+
+-- the category of the product is kept with its statistics,
+-- so the most popular products of a category are read by one index
+ALTER TABLE `statistic`
+    ADD COLUMN `category` varchar(255) NULL AFTER `name_products`,
+    ADD KEY `idx_statistic_category_count_visits` (`category`, `count_visits` DESC);
@@ -0,0 +1,31 @@
+USE `analityc`;
+
+-- visits of the products by time windows in UTC: minutes are rolled up into hours and hours into days,
+-- each window is kept for its own retention period
+CREATE TABLE `statistic_minute` (
+  `bucket` datetime NOT NULL,
+  `product_id` bigint NOT NULL,
+  `visits` int NOT NULL,
+  PRIMARY KEY (`bucket`, `product_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
+
+CREATE TABLE `statistic_hour` (
+  `bucket` datetime NOT NULL,
+  `product_id` bigint NOT NULL,
+  `visits` int NOT NULL,
+  PRIMARY KEY (`bucket`, `product_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
+
+CREATE TABLE `statistic_day` (
+  `bucket` datetime NOT NULL,
+  `product_id` bigint NOT NULL,
+  `visits` int NOT NULL,
+  PRIMARY KEY (`bucket`, `product_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
+
+-- the end of the time rolled up into each window: the windows before it are complete
+CREATE TABLE `statistic_rollup` (
+  `window_name` varchar(16) NOT NULL,
+  `rolled_until` datetime NOT NULL,
+  PRIMARY KEY (`window_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
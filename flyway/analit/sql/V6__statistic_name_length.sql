@@ -0,0 +1,4 @@
+USE `analityc`;
+
+-- the names of products are as long as in the Core service
+ALTER TABLE `statistic` MODIFY `name_products` varchar(255) NOT NULL;
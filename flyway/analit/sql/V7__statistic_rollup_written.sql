@@ -0,0 +1,5 @@
+USE `analityc`;
+
+-- the oldest time written before the end of the rolled up time since the last rollup: the windows from it
+-- are rolled up again, so visits that arrive later than the allowed lateness are not lost
+ALTER TABLE `statistic_rollup` ADD COLUMN `written_from` datetime NULL;
@@ -0,0 +1,6 @@
+create table cold_carts (
+                       cart_key              varchar(255) primary key,
+                       version               bigint not null,
+                       cart                  bytea not null,
+                       demoted_at            timestamp default current_timestamp
+);
@@ -2,6 +2,8 @@ cd products
 start cmd /k docker-compose up
 cd ../users
 start cmd /k docker-compose up
+cd ../carts
+start cmd /k docker-compose up
 cd ../analit
 start cmd /k docker-compose up
 cd ../kafka